@@ -20,10 +20,12 @@ import java.io.InputStreamReader;
 
 import codeu.chat.client.commandline.Chat;
 import codeu.chat.client.core.Context;
+import codeu.chat.common.NetworkCode;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.SessionConnectionSource;
 
 final class ClientMain {
 
@@ -43,10 +45,23 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    final ConnectionSource server = new ClientConnectionSource(address.host, address.port);
+
+    // Keep one connection open to the server and send every request over it
+    // rather than connecting for each one. Ask for it to be compressed, primed
+    // with recent traffic, as long lists of users and messages compress well.
+    final ConnectionSource source = new SessionConnectionSource(
+        server,
+        NetworkCode.OPEN_SESSION_REQUEST,
+        NetworkCode.OPEN_SESSION_RESPONSE,
+        NetworkCode.OPEN_COMPRESSED_SESSION_REQUEST,
+        NetworkCode.OPEN_COMPRESSED_SESSION_RESPONSE,
+        true);
 
     LOG.info("Creating client...");
-    final Chat chat = new Chat(new Context(source));
+    final Context context = new Context(source, server);
+    LOG.info("Server protocol: %s", context.protocol());
+    final Chat chat = new Chat(context);
 
     LOG.info("Created client");
 
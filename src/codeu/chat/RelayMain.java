@@ -17,21 +17,28 @@ package codeu.chat;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
+import codeu.chat.util.ThreadPerTaskExecutor;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Deadlines;
 import codeu.chat.util.connections.ServerConnectionSource;
 
 final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  private static final int DEADLINE_MS = 10000;  // 10 seconds
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -44,9 +51,31 @@ final class RelayMain {
 
     LOG.info("============================= START OF LOG =============================");
 
-    final int myPort = Integer.parseInt(args[0]);
+    // "--mode=threads" handles each connection on a thread of its own (virtual
+    // if possible) instead of one at a time on the relay's timeline.
+    final List<String> positional = new ArrayList<>();
+    String mode = "timeline";
+
+    for (final String arg : args) {
+      if (arg.startsWith("--mode=")) {
+        mode = arg.substring("--mode=".length());
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    if (!"timeline".equals(mode) && !"threads".equals(mode)) {
+      LOG.error("Unknown mode %s", mode);
+      System.exit(1);
+    }
+
+    final int myPort = Integer.parseInt(positional.get(0));
+
+    // Servers connect, send one request and wait for the answer, so none of
+    // them should take long.
+    final Deadlines deadlines = new Deadlines(DEADLINE_MS, DEADLINE_MS, DEADLINE_MS);
 
-    try (final ConnectionSource source = ServerConnectionSource.forPort(myPort)) {
+    try (final ConnectionSource source = ServerConnectionSource.forPort(myPort, deadlines)) {
 
       // Limit the number of messages that the server tracks to be 1024 and limit the
       // max number of messages that the relay will send out to be 16.
@@ -54,9 +83,9 @@ final class RelayMain {
 
       LOG.info("Relay object created.");
 
-      LOG.info("Starting relay...");
+      LOG.info("Starting relay in %s mode...", mode);
 
-      startRelay(relay, source, args[1]);
+      startRelay(relay, source, positional.get(1), "threads".equals(mode));
 
     } catch (IOException ex) {
       LOG.error(ex, "Failed to establish server accept port");
@@ -65,7 +94,8 @@ final class RelayMain {
 
   private static void startRelay(final Server relay,
                                  final ConnectionSource source,
-                                 final String teamFile) {
+                                 final String teamFile,
+                                 boolean threadPerConnection) {
 
     final ServerFrontEnd frontEnd = new ServerFrontEnd(relay);
     LOG.info("Relay front end object created.");
@@ -73,6 +103,13 @@ final class RelayMain {
     final Timeline timeline = new Timeline();
     LOG.info("Relay timeline created.");
 
+    final Executor connections = threadPerConnection ?
+        new ThreadPerTaskExecutor("relay-connection") :
+        new Executor() {
+          @Override
+          public void execute(Runnable task) { timeline.scheduleNow(task); }
+        };
+
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
@@ -95,9 +132,10 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        connections.execute(new Runnable() {
           @Override
           public void run() {
+            // The front end closes the connection once it is done with it.
             try {
               frontEnd.handleConnection(connection);
             } catch (Exception ex) {
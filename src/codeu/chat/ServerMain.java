@@ -17,24 +17,47 @@ package codeu.chat;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.server.Model;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
+import codeu.chat.util.EncodedCache;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.ThreadPerTaskExecutor;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Deadlines;
+import codeu.chat.util.connections.PooledConnectionSource;
+import codeu.chat.util.connections.Reactor;
 import codeu.chat.util.connections.ServerConnectionSource;
 
 final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  private static final int RELAY_POOL_SIZE = 4;
+  private static final long RELAY_IDLE_TIMEOUT_MS = 60000;  // 1 minute
+
+  // How long clients may take to send a request once they have started it,
+  // to read a response, and to start sending a request after connecting.
+  private static final int DEFAULT_READ_DEADLINE_MS = 10000;  // 10 seconds
+  private static final int DEFAULT_WRITE_DEADLINE_MS = 10000;  // 10 seconds
+  private static final int DEFAULT_IDLE_DEADLINE_MS = 30000;  // 30 seconds
+
+  // The relay is expected to answer promptly.
+  private static final int RELAY_DEADLINE_MS = 10000;  // 10 seconds
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -50,17 +73,85 @@ final class ServerMain {
     Uuid id = null;
     Secret secret = null;
     int port = -1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int queue = Server.DEFAULT_MAX_PENDING;
+    Deadlines deadlines = null;
+    boolean concurrentStores = false;
     // This is the directory where it is safe to store data accross runs
     // of the server.
     File persistentPath = null;
     RemoteAddress relayAddress = null;
 
+    // Options are given as "--name=value" and may appear anywhere in the
+    // argument list. Everything else is a positional argument.
+    final List<String> positional = new ArrayList<>();
+    final Map<String, String> options = new HashMap<>();
+
+    for (final String arg : args) {
+      if (arg.startsWith("--") && arg.contains("=")) {
+        options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+      } else {
+        positional.add(arg);
+      }
+    }
+
+    // The serving mode decides how connections reach the server:
+    //   timeline : block on accept and queue each connection on the server (default)
+    //   reactor  : a non-blocking selector loop that only hands over complete requests
+    //   threads  : handle each connection on a thread of its own (virtual if possible)
+    final String mode = options.containsKey("mode") ? options.get("mode") : "timeline";
+
     try {
-      id = Uuid.parse(args[0]);
-      secret = Secret.parse(args[1]);
-      port = Integer.parseInt(args[2]);
-      persistentPath = new File(args[3]);
-      relayAddress = args.length > 4 ? RemoteAddress.parse(args[4]) : null;
+      id = Uuid.parse(positional.get(0));
+      secret = Secret.parse(positional.get(1));
+      port = Integer.parseInt(positional.get(2));
+      persistentPath = new File(positional.get(3));
+      relayAddress = positional.size() > 4 ? RemoteAddress.parse(positional.get(4)) : null;
+
+      // The number of threads used to run requests.
+      if (options.containsKey("threads")) {
+        threads = Integer.parseInt(options.get("threads"));
+        if (threads < 1) {
+          throw new IllegalArgumentException("Need at least one thread, not " + threads);
+        }
+      }
+
+      // How many requests may wait for a thread before new ones are turned
+      // away as busy.
+      if (options.containsKey("queue")) {
+        queue = Integer.parseInt(options.get("queue"));
+        if (queue < 1) {
+          throw new IllegalArgumentException("Need room for at least one request, not " + queue);
+        }
+      }
+
+      // Deadlines for client connections, in milliseconds. Zero turns one off.
+      deadlines = new Deadlines(
+          intOption(options, "read-deadline-ms", DEFAULT_READ_DEADLINE_MS),
+          intOption(options, "write-deadline-ms", DEFAULT_WRITE_DEADLINE_MS),
+          intOption(options, "idle-deadline-ms", DEFAULT_IDLE_DEADLINE_MS));
+
+      // How much memory may go to keeping users, conversations and messages
+      // ready to send.
+      if (options.containsKey("encoded-cache-mb")) {
+        EncodedCache.SHARED.budget(
+            Long.parseLong(options.get("encoded-cache-mb")) * 1024 * 1024);
+      }
+
+      // How the model is kept:
+      //   linked     : a sorted index over linked lists, read under the model's lock (default)
+      //   concurrent : lock-free skip lists that can be read while being written
+      if (options.containsKey("store")) {
+        final String store = options.get("store");
+        if (!"linked".equals(store) && !"concurrent".equals(store)) {
+          throw new IllegalArgumentException("Unknown store " + store);
+        }
+        concurrentStores = "concurrent".equals(store);
+      }
+
+      if (!"timeline".equals(mode) && !"reactor".equals(mode) && !"threads".equals(mode)) {
+        throw new IllegalArgumentException("Unknown mode " + mode);
+      }
     } catch (Exception ex) {
       LOG.error(ex, "Failed to read command arguments");
       System.exit(1);
@@ -72,12 +163,55 @@ final class ServerMain {
     }
 
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
-        final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
+        final ConnectionSource relaySource = relayAddress == null ?
+            null :
+            new ClientConnectionSource(relayAddress.host,
+                                       relayAddress.port,
+                                       new Deadlines(RELAY_DEADLINE_MS, RELAY_DEADLINE_MS, RELAY_DEADLINE_MS))
     ) {
 
-      LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource);
+      // The server talks to the relay every few seconds, so keep a few
+      // connections to it open rather than connecting every time.
+      final PooledConnectionSource relayPool = relaySource == null ?
+                                               null :
+                                               new PooledConnectionSource(relaySource,
+                                                                          NetworkCode.OPEN_SESSION_REQUEST,
+                                                                          NetworkCode.OPEN_SESSION_RESPONSE,
+                                                                          RELAY_POOL_SIZE,
+                                                                          RELAY_IDLE_TIMEOUT_MS);
+      final Relay relay = relayPool == null ? new NoOpRelay() : new RemoteRelay(relayPool);
+
+      final Server server;
+
+      if ("threads".equals(mode)) {
+        final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("connection");
+        server = new Server(id, secret, relay, executor, queue, new Model(concurrentStores));
+        LOG.info("Created server with a %s thread per connection.",
+                 executor.virtual() ? "virtual" : "platform");
+      } else {
+        server = new Server(id, secret, relay, threads, queue, new Model(concurrentStores));
+        LOG.info("Created server with %d worker threads.", threads);
+      }
+
+      LOG.info("At most %d requests may be pending.", queue);
+      LOG.info("Keeping the model in %s stores.", concurrentStores ? "concurrent" : "linked");
+
+      server.reportTimeouts(deadlines);
+      if (relayPool != null) {
+        server.reportRelayPool(relayPool);
+      }
+      LOG.info("Connection deadlines: read %d ms, write %d ms, idle %d ms.",
+               deadlines.readMs(), deadlines.writeMs(), deadlines.idleMs());
+
+      LOG.info("Starting server in %s mode...", mode);
+
+      if ("reactor".equals(mode)) {
+        runReactor(server, port, deadlines);
+      } else {
+        try (final ConnectionSource serverSource = ServerConnectionSource.forPort(port, deadlines)) {
+          runServer(server, serverSource);
+        }
+      }
 
     } catch (IOException ex) {
 
@@ -86,18 +220,23 @@ final class ServerMain {
     }
   }
 
-  private static void runServer(Uuid id,
-                                Secret secret,
-                                ConnectionSource serverSource,
-                                ConnectionSource relaySource) throws IOException {
+  private static int intOption(Map<String, String> options, String name, int otherwise) {
+    return options.containsKey(name) ? Integer.parseInt(options.get(name)) : otherwise;
+  }
 
-    final Relay relay = relaySource == null ?
-                        new NoOpRelay() :
-                        new RemoteRelay(relaySource);
+  private static void runReactor(final Server server, int port, Deadlines deadlines) throws IOException {
 
-    final Server server = new Server(id, secret, relay);
+    try (final Reactor reactor = new Reactor(port, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        server.handleRequest(request);
+      }
+    }, deadlines)) {
+      reactor.run();
+    }
+  }
 
-    LOG.info("Created server.");
+  private static void runServer(Server server, ConnectionSource serverSource) {
 
     while (true) {
 
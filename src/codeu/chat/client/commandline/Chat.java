@@ -31,11 +31,15 @@ import java.io.IOException;
 import codeu.chat.client.core.Context;
 import codeu.chat.client.core.ConversationContext;
 import codeu.chat.client.core.MessageContext;
+import codeu.chat.client.core.Subscription;
 import codeu.chat.client.core.UserContext;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.ConversationInterest;
 import codeu.chat.common.Interest;
+import codeu.chat.common.Message;
+import codeu.chat.common.Protocol;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.User;
 import codeu.chat.common.UserInterest;
 import codeu.chat.util.LogLoader;
@@ -59,10 +63,26 @@ public final class Chat {
   // of Interests
   private HashMap<Uuid, HashSet<Interest>> interestMap = new HashMap<Uuid, HashSet<Interest>>();
 
+  // The most conversations "c-find" will list.
+  private static final int FIND_LIMIT = 50;
+
+  // The most messages "m-search" will list.
+  private static final int SEARCH_LIMIT = 20;
+
+  // How many messages "m-tail" lists when not told.
+  private static final int TAIL_LIMIT = 20;
+
   private int counter = 0;
   ServerInfo info = null;
 
+  private final Context context;
+
+  // The connection that new messages in followed conversations are pushed
+  // over. It is opened the first time a conversation is followed.
+  private volatile Subscription following = null;
+
   public Chat(Context context) throws IOException{
+    this.context = context;
     this.panels.push(createRootPanel(context));
   }
 
@@ -160,6 +180,8 @@ public final class Chat {
         System.out.println("      Sign in as the user with the given name.");
         System.out.println(" ");
         System.out.println("  General Commands: ");
+        System.out.println("    info");
+        System.out.println("      Show the server's version, uptime and how quickly it answers.");
         System.out.println("    exit");
         System.out.println("      Exit the program.");
         System.out.println(" ");
@@ -228,12 +250,7 @@ public final class Chat {
       // Find the first user with the given name and return a user context
       // for that user. If no user is found, the function will return null.
       private UserContext findUser(String name) {
-        for (final UserContext user : context.allUsers()) {
-          if (user.user.name.equals(name)) {
-            return user;
-          }
-        }
-        return null;
+        return context.findUser(name);
       }
     });
 
@@ -259,6 +276,13 @@ public final class Chat {
           System.out.println("Server Information: \n Version: "+ info.getVersion() + "\n Start Time: " + info.getStartTime() +
                   "\n Up Time: " + info.calcUpTime());
         }
+
+        final Protocol protocol = context.protocol();
+        System.out.println(" Protocol: " + protocol);
+
+        if (protocol.has(Protocol.STATS)) {
+          printStats(context.getStats());
+        }
       }
     });
 
@@ -267,6 +291,44 @@ public final class Chat {
     return panel;
   }
 
+  // PRINT STATS
+  //
+  // Show how quickly the server has answered each kind of request. Times are
+  // given in microseconds: how long requests waited before they started and
+  // how long they took to run.
+  private static void printStats(ServerStats stats) {
+
+    if (stats == null) {
+      System.out.println("The server did not send its stats.");
+      return;
+    }
+
+    System.out.format("Server Stats:\n");
+    System.out.format("  Pending  : %d\n", stats.pending);
+    System.out.format("  Rejected : %d\n", stats.rejected);
+    System.out.format("  Compression : %s\n", stats.compression);
+    System.out.format("  Timeouts    : %s\n", stats.timeouts);
+    System.out.format("  Cache       : %s\n", stats.cache);
+    System.out.format("  Relay pool  : %s\n", stats.relayPool);
+    System.out.format("  %-36s %8s %8s %8s %8s %8s %8s %8s %8s %9s\n",
+                      "Command", "Count", "Per sec",
+                      "Wait p50", "p99", "p999",
+                      "Run p50", "p99", "p999", "max");
+    for (final ServerStats.Command command : stats.commands) {
+      System.out.format("  %-36s %8d %8.2f %8d %8d %8d %8d %8d %8d %9d\n",
+                        command.name,
+                        command.count,
+                        command.throughput(stats.uptimeMs),
+                        command.queueP50,
+                        command.queueP99,
+                        command.queueP999,
+                        command.runP50,
+                        command.runP99,
+                        command.runP999,
+                        command.runMax);
+    }
+  }
+
   private Panel createUserPanel(final UserContext user) {
 
     final Panel panel = new Panel();
@@ -290,6 +352,8 @@ public final class Chat {
         System.out.println("      Add a new conversation with the given title and join it as the current user.");
         System.out.println("    c-join <title>");
         System.out.println("      Join the conversation as the current user.");
+        System.out.println("    c-find <prefix>");
+        System.out.println("      List conversations whose titles start with the given text.");
         System.out.println(" ");
         System.out.println("  Interest Commands: ");
         System.out.println("    userI-add <name>");
@@ -335,6 +399,28 @@ public final class Chat {
       }
     });
 
+    // C-FIND (find conversations)
+    //
+    // Add a command that will print the conversations whose titles start with
+    // some text when the user enters "c-find" while on the user panel.
+    //
+    panel.register("c-find", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        final String prefix = args.size() > 0 ? args.get(0) : "";
+        if (prefix.length() > 0) {
+          for (final ConversationContext conversation : user.conversations(prefix, FIND_LIMIT)) {
+            System.out.format(
+                "CONVERSATION %s (UUID:%s)\n",
+                conversation.conversation.title,
+                conversation.conversation.id);
+          }
+        } else {
+          System.out.println("ERROR: Missing <prefix>");
+        }
+      }
+    });
+
     // C-ADD (add conversation)
     //
     // Add a command that will create and join a new conversation when the user
@@ -387,12 +473,7 @@ public final class Chat {
       // Find the first conversation with the given name and return its context.
       // If no conversation has the given name, this will return null.
       private ConversationContext find(String title) {
-        for (final ConversationContext conversation : user.conversations()) {
-          if (title.equals(conversation.conversation.title)) {
-            return conversation;
-          }
-        }
-        return null;
+        return user.conversation(title);
       }
     });
 
@@ -440,13 +521,7 @@ public final class Chat {
       }
 
       private UserContext findUser(String name) {
-        for (final UserContext other : user.users()) {
-          User otherUser = other.user;
-          if (name.equals(otherUser.name)) {
-            return other;
-          }
-        }
-        return null;
+        return context.findUser(name);
       }
     });
 
@@ -476,12 +551,7 @@ public final class Chat {
       }
 
       private ConversationContext findConversation(String title) {
-        for (final ConversationContext other : user.conversations()) {
-          if (title.equals(other.conversation.title)) {
-            return other;
-          }
-        }
-        return null;
+        return user.conversation(title);
       }
     });
 
@@ -556,6 +626,34 @@ public final class Chat {
     return panel;
   }
 
+  // SUBSCRIPTION
+  //
+  // Get the subscription that followed conversations are pushed over, opening
+  // it if there is not one yet or the last one was lost.
+  private Subscription subscription() throws IOException {
+    if (following == null) {
+      following = context.subscribe(new Subscription.Listener() {
+        @Override
+        public void onMessage(Uuid conversation, Message message) {
+          System.out.println();
+          System.out.format("NEW  : %s\n", conversation);
+          System.out.format("USER : %s\n", message.author);
+          System.out.format("SENT : %s\n", message.creation);
+          System.out.println();
+          System.out.println(message.content);
+          System.out.println();
+        }
+
+        @Override
+        public void onClosed() {
+          following = null;
+          System.out.println("Stopped following conversations. Follow them again to catch up.");
+        }
+      });
+    }
+    return following;
+  }
+
   private Panel createConversationPanel(final ConversationContext conversation) {
 
     final Panel panel = new Panel();
@@ -578,6 +676,14 @@ public final class Chat {
         System.out.println("      List all messages in the current conversation.");
         System.out.println("    m-add <message>");
         System.out.println("      Add a new message to the current conversation as the current user.");
+        System.out.println("    m-tail [count]");
+        System.out.println("      List the last [count] messages in the current conversation (default " + TAIL_LIMIT + ").");
+        System.out.println("    m-search <words>");
+        System.out.println("      List the newest messages in the current conversation with all of <words>.");
+        System.out.println("    m-follow");
+        System.out.println("      Print new messages in the current conversation as they are added.");
+        System.out.println("    m-unfollow");
+        System.out.println("      Stop printing new messages in the current conversation.");
         System.out.println("    info");
         System.out.println("      Display all info about the current conversation.");
         System.out.println(" ");
@@ -645,6 +751,105 @@ public final class Chat {
       }
     });
 
+    // M-TAIL (list last messages)
+    //
+    // Add a command to print the last few messages in the current conversation
+    // when the user enters "m-tail" while on the conversation panel.
+    //
+    panel.register("m-tail", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+
+        int count = TAIL_LIMIT;
+        if (!args.isEmpty()) {
+          try {
+            count = Integer.parseInt(args.get(0).trim());
+          } catch (NumberFormatException ex) {
+            count = 0;
+          }
+        }
+
+        if (count <= 0) {
+          System.out.println("ERROR: [count] must be a positive number");
+        } else if (!context.protocol().has(Protocol.INDEX)) {
+          System.out.println("ERROR: The server does not support m-tail");
+        } else {
+          System.out.format("--- last messages of %d ---\n", conversation.messageCount());
+          for (final MessageContext message : conversation.tail(count)) {
+            System.out.println();
+            System.out.format("USER : %s\n", message.message.author);
+            System.out.format("SENT : %s\n", message.message.creation);
+            System.out.println();
+            System.out.println(message.message.content);
+          }
+          System.out.println();
+        }
+      }
+    });
+
+    // M-SEARCH (search messages)
+    //
+    // Add a command to print the newest messages in the current conversation
+    // that contain some words when the user enters "m-search" while on the
+    // conversation panel.
+    //
+    panel.register("m-search", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        if (args.isEmpty()) {
+          System.out.println("ERROR: Missing <words>");
+        } else if (!context.protocol().has(Protocol.SEARCH)) {
+          System.out.println("ERROR: The server does not support search");
+        } else {
+          for (final MessageContext message : conversation.search(args, SEARCH_LIMIT)) {
+            System.out.println();
+            System.out.format("USER : %s\n", message.message.author);
+            System.out.format("SENT : %s\n", message.message.creation);
+            System.out.println();
+            System.out.println(message.message.content);
+          }
+          System.out.println();
+        }
+      }
+    });
+
+    // M-FOLLOW (follow messages)
+    //
+    // Add a command to have new messages in the current conversation printed
+    // as they are added when the user enters "m-follow" while on the
+    // conversation panel.
+    //
+    panel.register("m-follow", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        try {
+          if (!subscription().subscribe(conversation.conversation.id)) {
+            System.out.println("ERROR: Failed to follow conversation");
+          }
+        } catch (IOException ex) {
+          System.out.println("ERROR: Failed to follow conversation");
+        }
+      }
+    });
+
+    // M-UNFOLLOW (unfollow messages)
+    //
+    // Add a command to stop printing new messages in the current conversation
+    // when the user enters "m-unfollow" while on the conversation panel.
+    //
+    panel.register("m-unfollow", new Panel.Command() {
+      @Override
+      public void invoke(List<String> args) {
+        try {
+          if (following == null || !following.unsubscribe(conversation.conversation.id)) {
+            System.out.println("ERROR: Not following conversation");
+          }
+        } catch (IOException ex) {
+          System.out.println("ERROR: Failed to unfollow conversation");
+        }
+      }
+    });
+
     // MEMBER-ADD (add message)
     //
     // Add a command to add a new member to the current conversation when the
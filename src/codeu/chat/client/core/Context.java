@@ -14,42 +14,119 @@
 
 package codeu.chat.client.core;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.IOException;
+import java.util.Iterator;
 
-import codeu.chat.common.BasicView;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Protocol;
 import codeu.chat.common.User;
 import codeu.chat.util.connections.ConnectionSource;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 
 
 public final class Context {
 
   private final View view;
   private final Controller controller;
+  private final ConnectionSource pushSource;
+
+  // Every user context made from this context shares these, so users and
+  // conversations are only downloaded once however they are listed.
+  private final DeltaCache<User> users;
+  private final DeltaCache<ConversationHeader> conversations;
+
+  // What the server agreed to in the handshake. Guarded by "this".
+  private Protocol protocol = null;
 
   public Context(ConnectionSource source) {
-    this.view = new View(source);
-    this.controller = new Controller(source);
+    this(source, null);
+  }
+
+  // "pushSource" is where subscriptions get their connections from. They hold
+  // their connection open for as long as they are used, so it must hand out
+  // plain connections to the server rather than share them.
+  //
+  // Requests the server is too busy to take on are sent again after a short
+  // wait (see RetryingConnectionSource).
+  public Context(ConnectionSource source, ConnectionSource pushSource) {
+    final ConnectionSource retrying = new RetryingConnectionSource(source);
+    this.view = new View(retrying);
+    this.controller = new Controller(retrying);
+    this.pushSource = pushSource;
+    this.users = DeltaCache.users(view);
+    this.conversations = DeltaCache.conversations(view);
   }
 
   public UserContext create(String name) {
     final User user = controller.newUser(name);
     return user == null ?
       null :
-      new UserContext(user, view, controller);
+      new UserContext(user, view, controller, users, conversations);
   }
 
+  // Users are fetched from the server a page at a time as they are iterated
+  // the first time. After that only the users created since the last time
+  // users were listed are fetched.
   public Iterable<UserContext> allUsers() {
-    final Collection<UserContext> users = new ArrayList<>();
-    for (final User user : view.getUsers()) {
-      users.add(new UserContext(user, view, controller));
+    return new DeltaCache.Wrapped<User, UserContext>(users) {
+      @Override
+      UserContext wrap(User user) {
+        return new UserContext(user, view, controller, users, conversations);
+      }
+    };
+  }
+
+  // PROTOCOL
+  //
+  // The protocol version and capabilities shared with the server. The
+  // handshake is made the first time this is called and remembered after
+  // that. If the server cannot be reached, nothing is assumed beyond the
+  // legacy protocol and the handshake is tried again next time.
+  public synchronized Protocol protocol() {
+    if (protocol == null) {
+      final Protocol agreed = view.hello(Protocol.CURRENT);
+      if (agreed == null) {
+        return Protocol.LEGACY;
+      }
+      protocol = agreed;
+      view.useCompact(agreed.has(Protocol.COMPACT));
+    }
+    return protocol;
+  }
+
+  // FIND USER
+  //
+  // Find the first user with exactly the given name. The server looks the name
+  // up, so this does not need to list every user.
+  public UserContext findUser(String name) {
+    final Iterator<User> found = view.findUsers(name, false).iterator();
+    return found.hasNext() ?
+      new UserContext(found.next(), view, controller, users, conversations) :
+      null;
+  }
+
+  // SUBSCRIBE
+  //
+  // Open a connection to the server that new messages will be pushed over.
+  // Conversations are added to it with "Subscription.subscribe".
+  public Subscription subscribe(Subscription.Listener listener) throws IOException {
+    if (pushSource == null) {
+      throw new IOException("This context cannot receive pushed messages.");
     }
-    return users;
+    if (!protocol().has(Protocol.PUSH)) {
+      throw new IOException("The server cannot push messages.");
+    }
+    return new Subscription(pushSource, listener);
   }
 
   //Creating a basic context with no information: users, conversations or messages
   public ServerInfo getInfo(){
     return view.getInfo();
   }
+
+  // How quickly the server has been answering each kind of request.
+  public ServerStats getStats() {
+    return view.getStats();
+  }
 }
@@ -14,15 +14,15 @@
 
 package codeu.chat.client.core;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 
 import codeu.chat.common.BasicController;
 import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
-import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
+import codeu.chat.common.SearchQuery;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 
@@ -56,26 +56,53 @@ public final class ConversationContext {
         new MessageContext(message, view);
   }
 
+  // Fetch the first page of the conversation from the server, so walking it
+  // from the start costs a request per page rather than per message.
   public MessageContext firstMessage() {
-
-    // As it is possible for the conversation to have been updated, so fetch
-    // a new copy.
-    final ConversationPayload updated = getUpdated();
-
-    return updated == null ?
-        null :
-        getMessage(updated.firstMessage);
+    return MessageContext.first(
+        view.getMessageRange(conversation.id, Uuid.NULL, null, true, MessageContext.PAGE_SIZE),
+        true,
+        view);
   }
 
+  // Fetch the last page of the conversation from the server, newest first.
   public MessageContext lastMessage() {
+    return MessageContext.first(
+        view.getMessageRange(conversation.id, Uuid.NULL, null, false, MessageContext.PAGE_SIZE),
+        false,
+        view);
+  }
 
-    // As it is possible for the conversation to have been updated, so fetch
-    // a new copy.
-    final ConversationPayload updated = getUpdated();
+  // How many messages are in the conversation.
+  public int messageCount() {
+    return view.getMessageCount(conversation.id);
+  }
 
-    return updated == null ?
-        null :
-        getMessage(updated.lastMessage);
+  // TAIL
+  //
+  // The last "count" messages in the conversation, oldest first - what a chat
+  // window shows when it opens. One request, however long the conversation.
+  public Iterable<MessageContext> tail(int count) {
+    final Collection<MessageContext> found = new ArrayList<>();
+    if (count > 0) {
+      for (final Message message : view.getMessagesByIndex(conversation.id, -count, count)) {
+        found.add(new MessageContext(message, view));
+      }
+    }
+    return found;
+  }
+
+  // SEARCH
+  //
+  // The newest "limit" messages in this conversation that contain every one
+  // of "words", newest first.
+  public Iterable<MessageContext> search(Collection<String> words, int limit) {
+    final Collection<MessageContext> found = new ArrayList<>();
+    final SearchQuery query = new SearchQuery(words, true, conversation.id, null, null, limit);
+    for (final Message message : view.searchMessages(query)) {
+      found.add(new MessageContext(message, view));
+    }
+    return found;
   }
 
   public boolean addMember(String name) {
@@ -116,23 +143,7 @@ public final class ConversationContext {
 
   // Find the first user by entered name
   private User findUser(String name) {
-    for (final User other : view.getUsers()) {
-      String otherName = other.name;
-      if (name.equals(otherName)) {
-        return other;
-      }
-    }
-    return null;
-  }
-
-  private ConversationPayload getUpdated() {
-    final Collection<Uuid> ids = Arrays.asList(conversation.id);
-    final Iterator<ConversationPayload> payloads = view.getConversationPayloads(ids).iterator();
-    return payloads.hasNext() ? payloads.next() : null;
-  }
-
-  private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
-    return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
+    final Iterator<User> found = view.findUsers(name, false).iterator();
+    return found.hasNext() ? found.next() : null;
   }
 }
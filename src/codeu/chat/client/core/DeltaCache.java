@@ -0,0 +1,244 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import codeu.chat.common.BasicView;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Page;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// DELTA CACHE
+//
+// A local copy of everything of one kind on the server. The first time it is
+// walked it is filled from the id-ordered pages (see Paged), one page at a
+// time as the walk needs them, so a walk that stops early fetches no more.
+// Once every page has been read it is kept up to date by asking only for what
+// was created since the newest value already held, so a walk costs as much as
+// what changed.
+//
+// Values created while the pages are being read may sort before the page the
+// walk has reached. Everything created after the first page was fetched is
+// newer than anything on it, so once the pages are done the cache catches up
+// from the newest value on the first page. Values it already has are merged
+// by id, so nothing is ever held twice.
+abstract class DeltaCache<T> {
+
+  static final int PAGE_SIZE = Paged.PAGE_SIZE;
+
+  // Every value held, in the order it was found. Only ever added to, so a
+  // walk can keep its place in it while other walks fill it further.
+  private final List<T> held = new ArrayList<>();
+  private final Set<Uuid> ids = new HashSet<>();
+
+  // Where the next catch up starts: the newest creation time held and how
+  // many values created at exactly that time the server has already sent.
+  private Time newest = null;
+  private int atNewest = 0;
+
+  // The pages still to be read, until they have all been.
+  private Iterator<T> pages = new Paged<T, T>() {
+    @Override
+    Page<T> fetch(Uuid after, int limit) {
+      final Page<T> page = page(after, limit);
+      if (Uuid.equals(after, Uuid.NULL)) {
+        for (final T value : page.items) {
+          if (newest == null || creation(value).compareTo(newest) > 0) {
+            newest = creation(value);
+          }
+        }
+      }
+      return page;
+    }
+
+    @Override
+    T wrap(T value) { return value; }
+  }.iterator();
+
+  // Get the id-ordered page that follows the cursor "after".
+  abstract Page<T> page(Uuid after, int limit);
+
+  // Get up to "limit" values created at or after "from", oldest first, leaving
+  // out the first "skip" created at exactly "from".
+  abstract Collection<T> since(Time from, int skip, int limit);
+
+  abstract Uuid id(T value);
+
+  abstract Time creation(T value);
+
+  // WALK
+  //
+  // Everything held, then whatever there is on the server that is not held
+  // yet. Each walk catches up with the server once, when it reaches the end
+  // of what is held.
+  Iterator<T> walk() {
+    return new Iterator<T>() {
+
+      private int index = 0;
+      private boolean caughtUp = false;
+
+      @Override
+      public boolean hasNext() {
+        synchronized (DeltaCache.this) {
+          while (index == held.size()) {
+            if (pages != null) {
+              readPage();
+            } else if (!caughtUp) {
+              catchUp();
+              caughtUp = true;
+            } else {
+              return false;
+            }
+          }
+          return true;
+        }
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        synchronized (DeltaCache.this) {
+          return held.get(index++);
+        }
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  // Hold the rest of the page being read. The first value read from a page
+  // asks for it; the ones after it are already here.
+  private void readPage() {
+    if (pages.hasNext()) {
+      hold(pages.next());
+    } else {
+      // Every page has been read. Catch up from the newest value on the
+      // first, which was taken when it was fetched.
+      pages = null;
+    }
+  }
+
+  // Fetch what has been created since the newest value held. A full page may
+  // mean there is more, and since the server skips what was already sent at
+  // the newest time, asking again always moves on.
+  private void catchUp() {
+    while (true) {
+
+      final Collection<T> page = since(newest, atNewest, PAGE_SIZE);
+
+      for (final T value : page) {
+        hold(value);
+        final int order = newest == null ? 1 : creation(value).compareTo(newest);
+        if (order > 0) {
+          newest = creation(value);
+          atNewest = 1;
+        } else if (order == 0) {
+          atNewest += 1;
+        }
+      }
+
+      if (page.size() < PAGE_SIZE) {
+        return;
+      }
+    }
+  }
+
+  private void hold(T value) {
+    if (ids.add(id(value))) {
+      held.add(value);
+    }
+  }
+
+  // WRAPPED
+  //
+  // A cache walked as what the caller uses in place of its values.
+  abstract static class Wrapped<T, R> implements Iterable<R> {
+
+    private final DeltaCache<T> cache;
+
+    Wrapped(DeltaCache<T> cache) {
+      this.cache = cache;
+    }
+
+    abstract R wrap(T value);
+
+    @Override
+    public Iterator<R> iterator() {
+      final Iterator<T> values = cache.walk();
+      return new Iterator<R>() {
+        @Override
+        public boolean hasNext() { return values.hasNext(); }
+
+        @Override
+        public R next() { return wrap(values.next()); }
+
+        @Override
+        public void remove() { throw new UnsupportedOperationException(); }
+      };
+    }
+  }
+
+  static DeltaCache<User> users(final BasicView view) {
+    return new DeltaCache<User>() {
+      @Override
+      Page<User> page(Uuid after, int limit) { return view.getUsers(after, limit); }
+
+      @Override
+      Collection<User> since(Time from, int skip, int limit) {
+        return view.getUsersSince(from, skip, limit);
+      }
+
+      @Override
+      Uuid id(User user) { return user.id; }
+
+      @Override
+      Time creation(User user) { return user.creation; }
+    };
+  }
+
+  static DeltaCache<ConversationHeader> conversations(final BasicView view) {
+    return new DeltaCache<ConversationHeader>() {
+      @Override
+      Page<ConversationHeader> page(Uuid after, int limit) {
+        return view.getConversations(after, limit);
+      }
+
+      @Override
+      Collection<ConversationHeader> since(Time from, int skip, int limit) {
+        return view.getConversationsSince(from, skip, limit);
+      }
+
+      @Override
+      Uuid id(ConversationHeader conversation) { return conversation.id; }
+
+      @Override
+      Time creation(ConversationHeader conversation) { return conversation.creation; }
+    };
+  }
+}
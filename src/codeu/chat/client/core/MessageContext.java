@@ -14,8 +14,8 @@
 
 package codeu.chat.client.core;
 
-import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Message;
@@ -23,24 +23,54 @@ import codeu.chat.util.Uuid;
 
 public final class MessageContext {
 
+  // How many messages to fetch at once when walking a conversation.
+  static final int PAGE_SIZE = 128;
+
   public final Message message;
   private final BasicView view;
 
+  // The page of messages this one was fetched with and where it is in it. The
+  // page is in the order it was walked, so stepping the same way again can
+  // usually be answered without going back to the server.
+  private final List<Message> page;
+  private final int index;
+  private final boolean forward;
+
   public MessageContext(Message message, BasicView view) {
-    this.message = message;
+    this(Collections.singletonList(message), 0, true, view);
+  }
+
+  MessageContext(List<Message> page, int index, boolean forward, BasicView view) {
+    this.message = page.get(index);
     this.view = view;
+    this.page = page;
+    this.index = index;
+    this.forward = forward;
   }
 
   public MessageContext next() {
-    return message.next == null ? null : getMessage(message.next);
+    return step(message.next, true);
   }
 
   public MessageContext previous() {
-    return message.previous == null ? null : getMessage(message.previous);
+    return step(message.previous, false);
+  }
+
+  private MessageContext step(Uuid id, boolean forward) {
+
+    if (Uuid.equals(id, Uuid.NULL)) {
+      return null;
+    }
+
+    if (forward == this.forward && index + 1 < page.size()) {
+      return new MessageContext(page, index + 1, forward, view);
+    }
+
+    return first(view.getMessageRange(Uuid.NULL, id, null, forward, PAGE_SIZE), forward, view);
   }
 
-  private MessageContext getMessage(Uuid id) {
-    final Iterator<Message> messages = view.getMessages(Arrays.asList(id)).iterator();
-    return messages.hasNext() ? new MessageContext(messages.next(), view) : null;
+  // The start of a page of messages, or null if the page is empty.
+  static MessageContext first(List<Message> page, boolean forward, BasicView view) {
+    return page.isEmpty() ? null : new MessageContext(page, 0, forward, view);
   }
 }
@@ -0,0 +1,71 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import codeu.chat.common.Page;
+import codeu.chat.util.Uuid;
+
+// PAGED
+//
+// Walks a collection on the server a page at a time. A page is only fetched
+// once everything before it has been used, so a caller that stops early never
+// fetches the rest. Each call to "iterator" starts again from the first page.
+abstract class Paged<T, R> implements Iterable<R> {
+
+  static final int PAGE_SIZE = 256;
+
+  // Get the page that follows the cursor "after".
+  abstract Page<T> fetch(Uuid after, int limit);
+
+  // Turn a value from the server into what the caller iterates over.
+  abstract R wrap(T value);
+
+  @Override
+  public Iterator<R> iterator() {
+    return new Iterator<R>() {
+
+      private Page<T> page = null;
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        while (page == null || index == page.items.size()) {
+          if (page != null && page.isLast()) {
+            return false;
+          }
+          page = fetch(page == null ? Uuid.NULL : page.next, PAGE_SIZE);
+          index = 0;
+        }
+        return true;
+      }
+
+      @Override
+      public R next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return wrap(page.items.get(index++));
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
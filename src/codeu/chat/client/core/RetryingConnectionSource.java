@@ -0,0 +1,155 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// RETRYING CONNECTION SOURCE
+//
+// Sends a request again when the server answers it with SERVER_BUSY. The
+// server only says it is busy about requests it has not run, so this is safe
+// for requests that change its state too.
+//
+// Before each new attempt it waits a random time between zero and a limit
+// that doubles with every attempt ("full jitter"). Clients that were turned
+// away together then come back at different times instead of all at once.
+// After MAX_ATTEMPTS the busy response is handed to the caller like any other
+// response it did not expect.
+final class RetryingConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(RetryingConnectionSource.class);
+
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long BASE_DELAY_MS = 50;
+  private static final long MAX_DELAY_MS = 2000;  // 2 seconds
+
+  private final ConnectionSource source;
+  private final Random random = new Random();
+
+  RetryingConnectionSource(ConnectionSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    return new RetryingConnection();
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  // How long to wait before the attempt after "attempt".
+  private long delay(int attempt) {
+    final long limit = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 16));
+    synchronized (random) {
+      return (long) (random.nextDouble() * limit);
+    }
+  }
+
+  // RETRYING CONNECTION
+  //
+  // Buffers the request until the caller starts reading the response, as it
+  // may have to be sent more than once.
+  private final class RetryingConnection implements Connection {
+
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+    private Connection connection;
+    private InputStream response;
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        return response().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int count) throws IOException {
+        return response().read(buffer, offset, count);
+      }
+    };
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return request;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (connection != null) {
+        connection.close();
+      }
+    }
+
+    private InputStream response() throws IOException {
+
+      if (response != null) {
+        return response;
+      }
+
+      for (int attempt = 1; ; attempt++) {
+
+        connection = source.connect();
+        request.writeTo(connection.out());
+        connection.out().flush();
+
+        final int type = Serializers.INTEGER.read(connection.in());
+
+        if (type != NetworkCode.SERVER_BUSY || attempt == MAX_ATTEMPTS) {
+          // Put back the type so the caller reads the response from the start.
+          final ByteArrayOutputStream head = new ByteArrayOutputStream();
+          Serializers.INTEGER.write(head, type);
+          response = new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()),
+                                             connection.in());
+          return response;
+        }
+
+        connection.close();
+        connection = null;
+
+        final long wait = delay(attempt);
+        LOG.info("Server busy. Trying again in %d ms.", wait);
+
+        try {
+          Thread.sleep(wait);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to try again.");
+        }
+      }
+    }
+  }
+}
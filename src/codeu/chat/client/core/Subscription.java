@@ -0,0 +1,162 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+/** SUBSCRIPTION
+ *  A connection held open to the server so that new messages in the conversations
+ *  it subscribes to are pushed to the client as they are added, rather than the
+ *  client having to poll for them. Messages are handed to the listener on the
+ *  subscription's own thread.
+ *
+ *  If the client falls too far behind, the server drops the connection. The
+ *  listener is told and the client should fetch what it missed.
+ */
+public final class Subscription implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  private static final long REPLY_TIMEOUT_MS = 5000;
+
+  public interface Listener {
+
+    // A new message was added to a conversation this subscription follows.
+    void onMessage(Uuid conversation, Message message);
+
+    // The subscription ended without "close" being called.
+    void onClosed();
+
+  }
+
+  private final Connection connection;
+  private final Listener listener;
+
+  private final BlockingQueue<Boolean> replies = new LinkedBlockingQueue<>();
+
+  private volatile boolean closed = false;
+
+  Subscription(ConnectionSource source, Listener listener) throws IOException {
+
+    this.connection = source.connect();
+    this.listener = listener;
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        read();
+      }
+    }, "subscription");
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  // SUBSCRIBE
+  //
+  // Start receiving new messages from a conversation. Returns whether the server
+  // accepted the subscription.
+  public synchronized boolean subscribe(Uuid conversation) throws IOException {
+    return request(NetworkCode.SUBSCRIBE_REQUEST, conversation);
+  }
+
+  // UNSUBSCRIBE
+  //
+  // Stop receiving new messages from a conversation. Returns whether the
+  // subscription was subscribed to it.
+  public synchronized boolean unsubscribe(Uuid conversation) throws IOException {
+    return request(NetworkCode.UNSUBSCRIBE_REQUEST, conversation);
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    connection.close();
+  }
+
+  private boolean request(int type, Uuid conversation) throws IOException {
+
+    if (closed) {
+      throw new IOException("Subscription has been closed.");
+    }
+
+    Serializers.INTEGER.write(connection.out(), type);
+    Uuid.SERIALIZER.write(connection.out(), conversation);
+    connection.out().flush();
+
+    final Boolean reply;
+    try {
+      reply = replies.poll(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the server.");
+    }
+
+    if (reply == null) {
+      throw new IOException("No reply from server.");
+    }
+
+    return reply;
+  }
+
+  private void read() {
+
+    try {
+      while (true) {
+
+        final int type = Serializers.INTEGER.read(connection.in());
+
+        if (type == NetworkCode.NEW_MESSAGE_PUSH) {
+          final Uuid conversation = Uuid.SERIALIZER.read(connection.in());
+          final Message message = Message.SERIALIZER.read(connection.in());
+          listener.onMessage(conversation, message);
+        } else if (type == NetworkCode.SUBSCRIBE_RESPONSE ||
+                   type == NetworkCode.UNSUBSCRIBE_RESPONSE) {
+          replies.add(Serializers.BOOLEAN.read(connection.in()));
+        } else {
+          LOG.error("Unexpected message %d on subscription.", type);
+          break;
+        }
+      }
+    } catch (IOException ex) {
+      if (!closed) {
+        LOG.error(ex, "Subscription lost.");
+      }
+    }
+
+    if (!closed) {
+      closed = true;
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing subscription.");
+      }
+      listener.onClosed();
+    }
+  }
+}
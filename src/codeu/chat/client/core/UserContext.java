@@ -17,6 +17,7 @@ package codeu.chat.client.core;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -35,21 +36,35 @@ public final class UserContext {
   private final BasicView view;
   private final BasicController controller;
 
+  private final DeltaCache<User> users;
+  private final DeltaCache<ConversationHeader> conversations;
+
   public UserContext(User user, BasicView view, BasicController controller) {
+    this(user, view, controller, DeltaCache.users(view), DeltaCache.conversations(view));
+  }
+
+  UserContext(User user,
+              BasicView view,
+              BasicController controller,
+              DeltaCache<User> users,
+              DeltaCache<ConversationHeader> conversations) {
     this.user = user;
     this.view = view;
     this.controller = controller;
+    this.users = users;
+    this.conversations = conversations;
   }
 
   public Iterable<UserContext> users() {
 
-    // Use all the ids to get all users and convert them to User Contexts.
-    final Collection<UserContext> all = new ArrayList<>();
-    for (final User other : view.getUsers()) {
-      all.add(new UserContext(other, view, controller));
-    }
-
-    return all;
+    // Walk the users shared with every other context, fetching what is new
+    // as it goes, and convert them to User Contexts as they are used.
+    return new DeltaCache.Wrapped<User, UserContext>(users) {
+      @Override
+      UserContext wrap(User other) {
+        return new UserContext(other, view, controller, users, conversations);
+      }
+    };
   }
 
   public boolean permissionJoinConversation(Uuid user, Uuid conversation) {
@@ -96,23 +111,37 @@ public final class UserContext {
 
   // Find the first user by entered name
   private User findUser(String name) {
-    for (final User other : view.getUsers()) {
-      String otherName = other.name;
-      if (name.equals(otherName)) {
-        return other;
-      }
-    }
-    return null;
+    final Iterator<User> found = view.findUsers(name, false).iterator();
+    return found.hasNext() ? found.next() : null;
   }
 
   // Find the first conversation entered by title
   private ConversationHeader findConversation(String title) {
-    for (final ConversationHeader conversation : view.getConversations()) {
-      if (title.equals(conversation.title)) {
-        return conversation;
-      }
+    final Iterator<ConversationHeader> found = view.findConversations(title, false, 1).iterator();
+    return found.hasNext() ? found.next() : null;
+  }
+
+  // FIND CONVERSATION
+  //
+  // Find the first conversation with exactly the given title. The server looks
+  // the title up, so this does not need to list every conversation.
+  public ConversationContext conversation(String title) {
+    final ConversationHeader conversation = findConversation(title);
+    return conversation == null ?
+        null :
+        new ConversationContext(user, conversation, view, controller);
+  }
+
+  // FIND CONVERSATIONS
+  //
+  // Find up to "limit" conversations whose titles start with "prefix",
+  // ignoring case, in title order.
+  public Iterable<ConversationContext> conversations(String prefix, int limit) {
+    final Collection<ConversationContext> found = new ArrayList<>();
+    for (final ConversationHeader conversation : view.findConversations(prefix, true, limit)) {
+      found.add(new ConversationContext(user, conversation, view, controller));
     }
-    return null;
+    return found;
   }
 
   public String statusUpdate() {
@@ -128,13 +157,14 @@ public final class UserContext {
 
   public Iterable<ConversationContext> conversations() {
 
-    // Use all the ids to get all the conversations and convert them to
-    // Conversation Contexts.
-    final Collection<ConversationContext> all = new ArrayList<>();
-    for (final ConversationHeader conversation : view.getConversations()) {
-      all.add(new ConversationContext(user, conversation, view, controller));
-    }
-
-    return all;
+    // Walk the conversations shared with every other context, fetching what
+    // is new as it goes, and convert them to Conversation Contexts as they
+    // are used.
+    return new DeltaCache.Wrapped<ConversationHeader, ConversationContext>(conversations) {
+      @Override
+      ConversationContext wrap(ConversationHeader conversation) {
+        return new ConversationContext(user, conversation, view, controller);
+      }
+    };
   }
 }
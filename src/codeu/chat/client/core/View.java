@@ -16,13 +16,18 @@ package codeu.chat.client.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import codeu.chat.common.BasicView;
 import codeu.chat.common.ConversationHeader;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
+import codeu.chat.common.Protocol;
+import codeu.chat.common.SearchQuery;
 import codeu.chat.common.User;
 import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.Message;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
 import codeu.chat.common.UserInterest;
 import codeu.chat.common.ConversationInterest;
 import codeu.chat.util.Logger;
@@ -43,10 +48,17 @@ final class View implements BasicView {
 
   private final ConnectionSource source;
 
+  // Whether the server has agreed to the v2 encodings in the handshake.
+  private volatile boolean compact = false;
+
   public View(ConnectionSource source) {
     this.source = source;
   }
 
+  void useCompact(boolean compact) {
+    this.compact = compact;
+  }
+
   @Override
   public Collection<User> getUsers() {
 
@@ -93,6 +105,155 @@ final class View implements BasicView {
     return summaries;
   }
 
+  @Override
+  public Page<User> getUsers(Uuid after, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_PAGE_RESPONSE) {
+        return Page.serializer(User.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return Page.empty();
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversations(Uuid after, int limit) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), after);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE) {
+        return Page.serializer(ConversationHeader.SERIALIZER).read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return Page.empty();
+  }
+
+  @Override
+  public Collection<User> getUsersSince(Time from, int skip, int limit) {
+
+    final Collection<User> users = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_SINCE_REQUEST);
+      Serializers.nullable(Time.SERIALIZER).write(connection.out(), from);
+      Serializers.INTEGER.write(connection.out(), skip);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_SINCE_RESPONSE) {
+        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return users;
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsSince(Time from, int skip, int limit) {
+
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST);
+      Serializers.nullable(Time.SERIALIZER).write(connection.out(), from);
+      Serializers.INTEGER.write(connection.out(), skip);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE) {
+        conversations.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return conversations;
+  }
+
+  @Override
+  public Collection<User> findUsers(String name, boolean ignoreCase) {
+
+    final Collection<User> users = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.FIND_USERS_BY_NAME_REQUEST);
+      Serializers.STRING.write(connection.out(), name);
+      Serializers.BOOLEAN.write(connection.out(), ignoreCase);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.FIND_USERS_BY_NAME_RESPONSE) {
+        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return users;
+  }
+
+  @Override
+  public Collection<ConversationHeader> findConversations(String title, boolean prefix, int limit) {
+
+    final Collection<ConversationHeader> conversations = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.FIND_CONVERSATIONS_BY_TITLE_REQUEST);
+      Serializers.STRING.write(connection.out(), title);
+      Serializers.BOOLEAN.write(connection.out(), prefix);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.FIND_CONVERSATIONS_BY_TITLE_RESPONSE) {
+        conversations.addAll(Serializers.collection(ConversationHeader.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return conversations;
+  }
+
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
 
@@ -139,6 +300,107 @@ final class View implements BasicView {
     return messages;
   }
 
+  @Override
+  public List<Message> getMessageRange(Uuid conversation,
+                                       Uuid start,
+                                       Time from,
+                                       boolean forward,
+                                       int limit) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      final boolean compact = this.compact;
+
+      Serializers.INTEGER.write(connection.out(), compact ?
+          NetworkCode.GET_MESSAGE_RANGE_COMPACT_REQUEST :
+          NetworkCode.GET_MESSAGE_RANGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Uuid.SERIALIZER.write(connection.out(), start);
+      Serializers.nullable(Time.SERIALIZER).write(connection.out(), from);
+      Serializers.BOOLEAN.write(connection.out(), forward);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.GET_MESSAGE_RANGE_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else if (type == NetworkCode.GET_MESSAGE_RANGE_COMPACT_RESPONSE) {
+        messages.addAll(Message.COMPACT_COLLECTION.read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
+  @Override
+  public int getMessageCount(Uuid conversation) {
+    return getMessagesByIndex(conversation, 0, 0, new ArrayList<Message>());
+  }
+
+  @Override
+  public List<Message> getMessagesByIndex(Uuid conversation, int first, int limit) {
+    final List<Message> messages = new ArrayList<>();
+    getMessagesByIndex(conversation, first, limit, messages);
+    return messages;
+  }
+
+  // The server sends the conversation's message count with every page, so
+  // asking for no messages is how to ask for the count alone. Returns the
+  // count, or 0 if the request failed.
+  private int getMessagesByIndex(Uuid conversation, int first, int limit, List<Message> messages) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.INTEGER.write(connection.out(), first);
+      Serializers.INTEGER.write(connection.out(), limit);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_INDEX_RESPONSE) {
+        final int count = Serializers.INTEGER.read(connection.in());
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+        return count;
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return 0;
+  }
+
+  @Override
+  public List<Message> searchMessages(SearchQuery query) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      SearchQuery.SERIALIZER.write(connection.out(), query);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
+        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return messages;
+  }
+
   /*
   // not by Id, so maybe think about whether we need it or not
   @Override
@@ -222,4 +484,59 @@ final class View implements BasicView {
     //Communicate this error - Something went wrong, and this shouldn't be returning!
     return null;
   }
+
+  // HELLO
+  //
+  // Tell the server which protocol version and capabilities the client has
+  // and get back those it shares. A server from before the handshake does not
+  // know the request, which means it speaks the legacy protocol. Returns null
+  // if the server could not be reached.
+  public Protocol hello(Protocol offered) {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.HELLO_REQUEST);
+      Protocol.SERIALIZER.write(connection.out(), offered);
+
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.HELLO_RESPONSE) {
+        return Protocol.SERIALIZER.read(connection.in());
+      } else if (type == NetworkCode.NO_MESSAGE) {
+        return Protocol.LEGACY;
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
+
+  // GET STATS
+  //
+  // How quickly the server has been answering each kind of request, or null
+  // if it did not say.
+  public ServerStats getStats() {
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.INTEGER.write(connection.out(), NetworkCode.SERVER_STATS_REQUEST);
+
+      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.SERVER_STATS_RESPONSE) {
+        return ServerStats.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return null;
+  }
 }
@@ -15,7 +15,9 @@
 package codeu.chat.common;
 
 import java.util.Collection;
+import java.util.List;
 
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 
 // BASIC VIEW
@@ -33,11 +35,53 @@ public interface BasicView {
   //   Return all users whose id is found in the given collection.
   Collection<User> getUsers();
 
+  // GET USERS PAGE
+  //
+  //   Return up to "limit" users, in id order, starting after the user with
+  //   the id "after". Start from Uuid.NULL to get the first page.
+  Page<User> getUsers(Uuid after, int limit);
+
+  // GET USERS SINCE
+  //
+  //   Return up to "limit" users created at or after "from", oldest first,
+  //   leaving out the first "skip" users created at exactly "from". Users
+  //   created at the same time always come back in the same order. A null
+  //   "from" starts with the oldest user.
+  Collection<User> getUsersSince(Time from, int skip, int limit);
+
+  // FIND USERS
+  //
+  //   Return all users with the given name. Unless "ignoreCase" is true the
+  //   name must match exactly.
+  Collection<User> findUsers(String name, boolean ignoreCase);
+
   // GET ALL CONVERSATIONS
   //
   //   Return a summary of each converation.
   Collection<ConversationHeader> getConversations();
 
+  // GET CONVERSATIONS PAGE
+  //
+  //   Return up to "limit" conversation summaries, in id order, starting after
+  //   the conversation with the id "after". Start from Uuid.NULL to get the
+  //   first page.
+  Page<ConversationHeader> getConversations(Uuid after, int limit);
+
+  // GET CONVERSATIONS SINCE
+  //
+  //   Return up to "limit" conversation summaries created at or after "from",
+  //   oldest first, leaving out the first "skip" created at exactly "from".
+  //   Conversations created at the same time always come back in the same
+  //   order. A null "from" starts with the oldest conversation.
+  Collection<ConversationHeader> getConversationsSince(Time from, int skip, int limit);
+
+  // FIND CONVERSATIONS
+  //
+  //   Return up to "limit" conversation summaries, in title order. When
+  //   "prefix" is false the title must match exactly. When it is true, every
+  //   conversation whose title starts with "title", ignoring case, matches.
+  Collection<ConversationHeader> findConversations(String title, boolean prefix, int limit);
+
   // GET CONVERSATIONS
   //
   //   Return all conversations whose id is found in the given collection.
@@ -48,6 +92,36 @@ public interface BasicView {
   //   Return all messages whose id is found in the given collection.
   Collection<Message> getMessages(Collection<Uuid> ids);
 
+  // GET MESSAGE RANGE
+  //
+  //   Return up to "limit" consecutive messages from a conversation, in the
+  //   order they are walked: oldest to newest when "forward" is true and
+  //   newest to oldest otherwise. The walk starts at the message "start". If
+  //   "start" is NULL it starts at the end of the conversation that it walks
+  //   away from instead - skipping, when "from" is not null, any message sent
+  //   before "from" (forward) or after it (backward).
+  List<Message> getMessageRange(Uuid conversation, Uuid start, Time from, boolean forward, int limit);
+
+  // GET MESSAGE COUNT
+  //
+  //   Return how many messages are in a conversation, or 0 if there is no such
+  //   conversation.
+  int getMessageCount(Uuid conversation);
+
+  // GET MESSAGES BY INDEX
+  //
+  //   Return up to "limit" messages from a conversation, oldest first,
+  //   starting with message number "first" (the first message is number 0).
+  //   A negative "first" counts back from the end, so (-50, 50) is the last
+  //   50 messages.
+  List<Message> getMessagesByIndex(Uuid conversation, int first, int limit);
+
+  // SEARCH MESSAGES
+  //
+  //   Return the newest messages that match "query", newest first. See
+  //   SearchQuery for what matches.
+  List<Message> searchMessages(SearchQuery query);
+
   // GET USER INTERESTS
   //
   //  Return all user interests whose id is found in the given collection.
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import codeu.chat.util.EncodedCache;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -30,10 +31,7 @@ public final class ConversationHeader {
     @Override
     public void write(OutputStream out, ConversationHeader value) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Uuid.SERIALIZER.write(out, value.owner);
-      Time.SERIALIZER.write(out, value.creation);
-      Serializers.STRING.write(out, value.title);
+      out.write(EncodedCache.SHARED.encode(value.encoded, value, FIELDS));
 
     }
 
@@ -50,11 +48,21 @@ public final class ConversationHeader {
     }
   };
 
+  private static final EncodedCache.Writer<ConversationHeader> FIELDS =
+      new EncodedCache.Writer<ConversationHeader>() {
+    @Override
+    public void write(OutputStream out, ConversationHeader value) throws IOException {
+      writeFields(out, value);
+    }
+  };
+
   public final Uuid id;
   public final Uuid owner;
   public final Time creation;
   public final String title;
 
+  private final EncodedCache.Slot encoded = new EncodedCache.Slot();
+
   public ConversationHeader(Uuid id, Uuid owner, Time creation, String title) {
 
     this.id = id;
@@ -63,4 +71,11 @@ public final class ConversationHeader {
     this.title = title;
 
   }
+
+  private static void writeFields(OutputStream out, ConversationHeader value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.id);
+    Uuid.SERIALIZER.write(out, value.owner);
+    Time.SERIALIZER.write(out, value.creation);
+    Serializers.STRING.write(out, value.title);
+  }
 }
@@ -17,7 +17,11 @@ package codeu.chat.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 
+import codeu.chat.util.CompactSerializers;
+import codeu.chat.util.EncodedCache;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -30,12 +34,14 @@ public final class Message {
     @Override
     public void write(OutputStream out, Message value) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
+      // Everything but "next" is written from the cache. "next" goes after the
+      // id, which is a length byte and then four bytes for each link.
+      final byte[] fixed = EncodedCache.SHARED.encode(value.encoded, value, FIXED);
+      final int split = 1 + 4 * (fixed[0] & 0xFF);
+
+      out.write(fixed, 0, split);
       Uuid.SERIALIZER.write(out, value.next);
-      Uuid.SERIALIZER.write(out, value.previous);
-      Time.SERIALIZER.write(out, value.creation);
-      Uuid.SERIALIZER.write(out, value.author);
-      Serializers.STRING.write(out, value.content);
+      out.write(fixed, split, fixed.length - split);
 
     }
 
@@ -54,6 +60,77 @@ public final class Message {
     }
   };
 
+  private static final EncodedCache.Writer<Message> FIXED = new EncodedCache.Writer<Message>() {
+    @Override
+    public void write(OutputStream out, Message value) throws IOException {
+      writeFields(out, value);
+    }
+  };
+
+  // COMPACT COLLECTION
+  //
+  // A batch of messages in the v2 encoding (see CompactSerializers). The first
+  // message's id is sent in full and every other Uuid relative to it, as ids
+  // made by the same server share their root. Creation times are sent as the
+  // difference from the message before, which for messages in order is a few
+  // bytes rather than eight.
+  public static final Serializer<Collection<Message>> COMPACT_COLLECTION =
+      new Serializer<Collection<Message>>() {
+
+    @Override
+    public void write(OutputStream out, Collection<Message> value) throws IOException {
+
+      CompactSerializers.VARINT.write(out, value.size());
+
+      if (value.isEmpty()) {
+        return;
+      }
+
+      final Uuid base = value.iterator().next().id;
+      CompactSerializers.uuid(null).write(out, base);
+
+      final Serializer<Uuid> uuid = CompactSerializers.uuid(base);
+      long last = 0;
+
+      for (final Message message : value) {
+        uuid.write(out, message.id);
+        uuid.write(out, message.next);
+        uuid.write(out, message.previous);
+        CompactSerializers.ZIGZAG.write(out, message.creation.inMs() - last);
+        uuid.write(out, message.author);
+        CompactSerializers.STRING.write(out, message.content);
+        last = message.creation.inMs();
+      }
+    }
+
+    @Override
+    public Collection<Message> read(InputStream in) throws IOException {
+
+      final int size = CompactSerializers.VARINT.read(in);
+      final Collection<Message> messages = new ArrayList<>(Serializers.capacity(size));
+
+      if (size == 0) {
+        return messages;
+      }
+
+      final Uuid base = CompactSerializers.uuid(null).read(in);
+      final Serializer<Uuid> uuid = CompactSerializers.uuid(base);
+      long last = 0;
+
+      for (int i = 0; i < size; i++) {
+        final Uuid id = uuid.read(in);
+        final Uuid next = uuid.read(in);
+        final Uuid previous = uuid.read(in);
+        last += CompactSerializers.ZIGZAG.read(in);
+        final Uuid author = uuid.read(in);
+        final String content = CompactSerializers.STRING.read(in);
+        messages.add(new Message(id, next, previous, Time.fromMs(last), author, content));
+      }
+
+      return messages;
+    }
+  };
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
@@ -61,6 +138,8 @@ public final class Message {
   public final String content;
   public Uuid next;
 
+  private final EncodedCache.Slot encoded = new EncodedCache.Slot();
+
   public Message(Uuid id, Uuid next, Uuid previous, Time creation, Uuid author, String content) {
 
     this.id = id;
@@ -71,4 +150,14 @@ public final class Message {
     this.content = content;
 
   }
+
+  // The fields of a message that never change, in the order SERIALIZER sends
+  // them. Everything but "next".
+  private static void writeFields(OutputStream out, Message value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.id);
+    Uuid.SERIALIZER.write(out, value.previous);
+    Time.SERIALIZER.write(out, value.creation);
+    Uuid.SERIALIZER.write(out, value.author);
+    Serializers.STRING.write(out, value.content);
+  }
 }
@@ -14,6 +14,8 @@
 
 package codeu.chat.common;
 
+import java.lang.reflect.Field;
+
 public final class NetworkCode {
 
   public static final int
@@ -57,5 +59,60 @@ public final class NetworkCode {
       REMOVE_OWNER_REQUEST = 46,
       REMOVE_OWNER_RESPONSE = 47,
       PERMISSION_JOIN_CONVERSATION_REQUEST = 48,
-      PERMISSION_JOIN_CONVERSATION_RESPONSE = 49;
+      PERMISSION_JOIN_CONVERSATION_RESPONSE = 49,
+      OPEN_SESSION_REQUEST = 50,
+      OPEN_SESSION_RESPONSE = 51,
+      PING_REQUEST = 52,
+      PING_RESPONSE = 53,
+      SUBSCRIBE_REQUEST = 54,
+      SUBSCRIBE_RESPONSE = 55,
+      UNSUBSCRIBE_REQUEST = 56,
+      UNSUBSCRIBE_RESPONSE = 57,
+      NEW_MESSAGE_PUSH = 58,
+      GET_MESSAGE_RANGE_REQUEST = 59,
+      GET_MESSAGE_RANGE_RESPONSE = 60,
+      GET_USERS_PAGE_REQUEST = 61,
+      GET_USERS_PAGE_RESPONSE = 62,
+      GET_CONVERSATIONS_PAGE_REQUEST = 63,
+      GET_CONVERSATIONS_PAGE_RESPONSE = 64,
+      GET_USERS_SINCE_REQUEST = 65,
+      GET_USERS_SINCE_RESPONSE = 66,
+      GET_CONVERSATIONS_SINCE_REQUEST = 67,
+      GET_CONVERSATIONS_SINCE_RESPONSE = 68,
+      FIND_USERS_BY_NAME_REQUEST = 69,
+      FIND_USERS_BY_NAME_RESPONSE = 70,
+      FIND_CONVERSATIONS_BY_TITLE_REQUEST = 71,
+      FIND_CONVERSATIONS_BY_TITLE_RESPONSE = 72,
+      OPEN_COMPRESSED_SESSION_REQUEST = 73,
+      OPEN_COMPRESSED_SESSION_RESPONSE = 74,
+      // Sent instead of a response when the server is too busy to take the
+      // request on. The request was not run and may be sent again later.
+      SERVER_BUSY = 75,
+      SERVER_STATS_REQUEST = 76,
+      SERVER_STATS_RESPONSE = 77,
+      HELLO_REQUEST = 78,
+      HELLO_RESPONSE = 79,
+      GET_MESSAGE_RANGE_COMPACT_REQUEST = 80,
+      GET_MESSAGE_RANGE_COMPACT_RESPONSE = 81,
+      SEARCH_MESSAGES_REQUEST = 82,
+      SEARCH_MESSAGES_RESPONSE = 83,
+      GET_MESSAGES_BY_INDEX_REQUEST = 84,
+      GET_MESSAGES_BY_INDEX_RESPONSE = 85;
+
+  // NAME
+  //
+  // The name of the constant for "code", for showing to people. Codes that
+  // are not defined here are named by their number.
+  public static String name(int code) {
+    for (final Field field : NetworkCode.class.getFields()) {
+      try {
+        if (field.getType() == int.class && field.getInt(null) == code) {
+          return field.getName();
+        }
+      } catch (IllegalAccessException ex) {
+        // Every field is public.
+      }
+    }
+    return "CODE_" + code;
+  }
 }
@@ -0,0 +1,69 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// PAGE
+//
+// Part of a larger collection along with where to continue from. To get the
+// next page, ask again with "next" as the cursor. When "next" is NULL there
+// is nothing left to get.
+public final class Page<T> {
+
+  public final List<T> items;
+  public final Uuid next;
+
+  public Page(Collection<T> items, Uuid next) {
+    this.items = Collections.unmodifiableList(new ArrayList<>(items));
+    this.next = next;
+  }
+
+  public boolean isLast() {
+    return Uuid.equals(next, Uuid.NULL);
+  }
+
+  public static <T> Page<T> empty() {
+    return new Page<>(Collections.<T>emptyList(), Uuid.NULL);
+  }
+
+  public static <T> Serializer<Page<T>> serializer(final Serializer<T> serializer) {
+
+    return new Serializer<Page<T>>() {
+
+      @Override
+      public void write(OutputStream out, Page<T> value) throws IOException {
+        Serializers.collection(serializer).write(out, value.items);
+        Uuid.SERIALIZER.write(out, value.next);
+      }
+
+      @Override
+      public Page<T> read(InputStream in) throws IOException {
+        final Collection<T> items = Serializers.collection(serializer).read(in);
+        return new Page<>(items, Uuid.SERIALIZER.read(in));
+      }
+    };
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// PROTOCOL
+//
+// A protocol version and the optional features that go with it, as traded in
+// the HELLO handshake. A client says what it understands, the server answers
+// with what both of them do, and from then on the client only uses features
+// the answer includes. Clients that never say hello are served exactly as
+// before, so new features can be rolled out without breaking old clients -
+// and new clients can tell when they are talking to an old server, which
+// answers HELLO like any other request it does not know.
+public final class Protocol {
+
+  // The version spoken by this build. Anything that does not say hello is
+  // taken to speak LEGACY_VERSION.
+  public static final int VERSION = 1;
+  public static final int LEGACY_VERSION = 0;
+
+  // CAPABILITIES
+  //
+  // One bit per optional feature. Bits are never reused, so a capability
+  // means the same thing to every version that knows it.
+  public static final long
+      SESSIONS = 1L << 0,         // OPEN_SESSION: many requests over one connection
+      COMPRESSION = 1L << 1,      // OPEN_COMPRESSED_SESSION
+      PAGING = 1L << 2,           // cursor, range and delta requests
+      PUSH = 1L << 3,             // SUBSCRIBE: messages pushed as they are added
+      STATS = 1L << 4,            // SERVER_STATS
+      COMPACT = 1L << 5,          // v2 encodings (see CompactSerializers)
+      SEARCH = 1L << 6,           // SEARCH_MESSAGES
+      INDEX = 1L << 7;            // GET_MESSAGES_BY_INDEX
+
+  private static final long[] ALL = {
+      SESSIONS, COMPRESSION, PAGING, PUSH, STATS, COMPACT, SEARCH, INDEX
+  };
+  private static final String[] NAMES = {
+      "sessions", "compression", "paging", "push", "stats", "compact", "search", "index"
+  };
+
+  // Everything this build knows how to use.
+  public static final Protocol CURRENT =
+      new Protocol(VERSION,
+                   SESSIONS | COMPRESSION | PAGING | PUSH | STATS | COMPACT | SEARCH | INDEX);
+
+  public static final Protocol LEGACY = new Protocol(LEGACY_VERSION, 0);
+
+  public static final Serializer<Protocol> SERIALIZER = new Serializer<Protocol>() {
+
+    @Override
+    public void write(OutputStream out, Protocol value) throws IOException {
+      Serializers.INTEGER.write(out, value.version);
+      Serializers.LONG.write(out, value.capabilities);
+    }
+
+    @Override
+    public Protocol read(InputStream in) throws IOException {
+      return new Protocol(Serializers.INTEGER.read(in), Serializers.LONG.read(in));
+    }
+  };
+
+  public final int version;
+  public final long capabilities;
+
+  public Protocol(int version, long capabilities) {
+    this.version = version;
+    this.capabilities = capabilities;
+  }
+
+  public boolean has(long capability) {
+    return (capabilities & capability) == capability;
+  }
+
+  // NEGOTIATE
+  //
+  // What two ends that offer "this" and "other" can both use.
+  public Protocol negotiate(Protocol other) {
+    return new Protocol(Math.min(version, other.version), capabilities & other.capabilities);
+  }
+
+  @Override
+  public String toString() {
+    final List<String> names = new ArrayList<>();
+    for (int i = 0; i < ALL.length; i++) {
+      if (has(ALL[i])) {
+        names.add(NAMES[i]);
+      }
+    }
+    return String.format("version %d %s", version, names);
+  }
+}
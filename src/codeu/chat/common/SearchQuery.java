@@ -0,0 +1,90 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// SEARCH QUERY
+//
+// What to look for with SEARCH_MESSAGES: messages containing every one of
+// "terms" (or any of them, unless "matchAll"), in "conversation" or in every
+// conversation when it is NULL, sent between "from" and "to" inclusive -
+// either of which may be null to leave that end open. Terms are words; case
+// and punctuation are ignored. The newest "limit" matches come back, newest
+// first.
+public final class SearchQuery {
+
+  public static final Serializer<SearchQuery> SERIALIZER = new Serializer<SearchQuery>() {
+
+    @Override
+    public void write(OutputStream out, SearchQuery value) throws IOException {
+      Serializers.collection(Serializers.STRING).write(out, value.terms);
+      Serializers.BOOLEAN.write(out, value.matchAll);
+      Uuid.SERIALIZER.write(out, value.conversation);
+      Serializers.nullable(Time.SERIALIZER).write(out, value.from);
+      Serializers.nullable(Time.SERIALIZER).write(out, value.to);
+      Serializers.INTEGER.write(out, value.limit);
+    }
+
+    @Override
+    public SearchQuery read(InputStream in) throws IOException {
+      return new SearchQuery(
+          Serializers.collection(Serializers.STRING).read(in),
+          Serializers.BOOLEAN.read(in),
+          Uuid.SERIALIZER.read(in),
+          Serializers.nullable(Time.SERIALIZER).read(in),
+          Serializers.nullable(Time.SERIALIZER).read(in),
+          Serializers.INTEGER.read(in));
+    }
+  };
+
+  public final List<String> terms;
+  public final boolean matchAll;
+  public final Uuid conversation;
+  public final Time from;
+  public final Time to;
+  public final int limit;
+
+  public SearchQuery(Collection<String> terms,
+                     boolean matchAll,
+                     Uuid conversation,
+                     Time from,
+                     Time to,
+                     int limit) {
+    this.terms = Collections.unmodifiableList(new ArrayList<>(terms));
+    this.matchAll = matchAll;
+    this.conversation = conversation;
+    this.from = from;
+    this.to = to;
+    this.limit = limit;
+  }
+
+  // The same search with at most "limit" results.
+  public SearchQuery limit(int limit) {
+    return new SearchQuery(terms, matchAll, conversation, from, to, limit);
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// SERVER STATS
+//
+// How busy the server has been and how quickly it has answered, as sent back
+// for SERVER_STATS_REQUEST. Every time is in microseconds.
+public final class ServerStats {
+
+  public static final Serializer<ServerStats> SERIALIZER = new Serializer<ServerStats>() {
+
+    @Override
+    public void write(OutputStream out, ServerStats value) throws IOException {
+      Serializers.LONG.write(out, value.uptimeMs);
+      Serializers.LONG.write(out, value.pending);
+      Serializers.LONG.write(out, value.rejected);
+      Serializers.STRING.write(out, value.compression);
+      Serializers.STRING.write(out, value.timeouts);
+      Serializers.STRING.write(out, value.cache);
+      Serializers.STRING.write(out, value.relayPool);
+      Serializers.collection(Command.SERIALIZER).write(out, value.commands);
+    }
+
+    @Override
+    public ServerStats read(InputStream in) throws IOException {
+      return new ServerStats(
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.LONG.read(in),
+          Serializers.STRING.read(in),
+          Serializers.STRING.read(in),
+          Serializers.STRING.read(in),
+          Serializers.STRING.read(in),
+          Serializers.collection(Command.SERIALIZER).read(in));
+    }
+  };
+
+  public final long uptimeMs;
+
+  // Requests waiting for or running on the server right now.
+  public final long pending;
+
+  // Requests turned away as busy since the server started.
+  public final long rejected;
+
+  // A summary of how well compressed sessions have done.
+  public final String compression;
+
+  // A summary of the connections closed for missing a deadline.
+  public final String timeouts;
+
+  // A summary of how much the cache of encoded values holds and has saved.
+  public final String cache;
+
+  // A summary of how often the pool of connections to the relay had one
+  // ready to reuse.
+  public final String relayPool;
+
+  public final List<Command> commands;
+
+  public ServerStats(long uptimeMs,
+                     long pending,
+                     long rejected,
+                     String compression,
+                     String timeouts,
+                     String cache,
+                     String relayPool,
+                     Collection<Command> commands) {
+    this.uptimeMs = uptimeMs;
+    this.pending = pending;
+    this.rejected = rejected;
+    this.compression = compression;
+    this.timeouts = timeouts;
+    this.cache = cache;
+    this.relayPool = relayPool;
+    this.commands = Collections.unmodifiableList(new ArrayList<>(commands));
+  }
+
+  // COMMAND
+  //
+  // Latency for one kind of request. "queue" is how long requests waited
+  // before they started running - for a worker and then for the model - and
+  // "run" is how long they took once they had started.
+  public static final class Command {
+
+    public static final Serializer<Command> SERIALIZER = new Serializer<Command>() {
+
+      @Override
+      public void write(OutputStream out, Command value) throws IOException {
+        Serializers.STRING.write(out, value.name);
+        Serializers.LONG.write(out, value.count);
+        Serializers.LONG.write(out, value.queueP50);
+        Serializers.LONG.write(out, value.queueP99);
+        Serializers.LONG.write(out, value.queueP999);
+        Serializers.LONG.write(out, value.runP50);
+        Serializers.LONG.write(out, value.runP99);
+        Serializers.LONG.write(out, value.runP999);
+        Serializers.LONG.write(out, value.runMax);
+      }
+
+      @Override
+      public Command read(InputStream in) throws IOException {
+        return new Command(
+            Serializers.STRING.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in),
+            Serializers.LONG.read(in));
+      }
+    };
+
+    public final String name;
+    public final long count;
+
+    public final long queueP50;
+    public final long queueP99;
+    public final long queueP999;
+
+    public final long runP50;
+    public final long runP99;
+    public final long runP999;
+    public final long runMax;
+
+    public Command(String name,
+                   long count,
+                   long queueP50,
+                   long queueP99,
+                   long queueP999,
+                   long runP50,
+                   long runP99,
+                   long runP999,
+                   long runMax) {
+      this.name = name;
+      this.count = count;
+      this.queueP50 = queueP50;
+      this.queueP99 = queueP99;
+      this.queueP999 = queueP999;
+      this.runP50 = runP50;
+      this.runP99 = runP99;
+      this.runP999 = runP999;
+      this.runMax = runMax;
+    }
+
+    // Requests per second over "uptimeMs".
+    public double throughput(long uptimeMs) {
+      return uptimeMs <= 0 ? 0.0 : count * 1000.0 / uptimeMs;
+    }
+  }
+}
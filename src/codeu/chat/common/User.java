@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import codeu.chat.util.EncodedCache;
 import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
@@ -30,9 +31,7 @@ public final class User {
     @Override
     public void write(OutputStream out, User value) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Serializers.STRING.write(out, value.name);
-      Time.SERIALIZER.write(out, value.creation);
+      out.write(EncodedCache.SHARED.encode(value.encoded, value, FIELDS));
 
     }
 
@@ -48,10 +47,19 @@ public final class User {
     }
   };
 
+  private static final EncodedCache.Writer<User> FIELDS = new EncodedCache.Writer<User>() {
+    @Override
+    public void write(OutputStream out, User value) throws IOException {
+      writeFields(out, value);
+    }
+  };
+
   public final Uuid id;
   public final String name;
   public final Time creation;
 
+  private final EncodedCache.Slot encoded = new EncodedCache.Slot();
+
   public User(Uuid id, String name, Time creation) {
 
     this.id = id;
@@ -59,4 +67,10 @@ public final class User {
     this.creation = creation;
 
   }
+
+  private static void writeFields(OutputStream out, User value) throws IOException {
+    Uuid.SERIALIZER.write(out, value.id);
+    Serializers.STRING.write(out, value.name);
+    Time.SERIALIZER.write(out, value.creation);
+  }
 }
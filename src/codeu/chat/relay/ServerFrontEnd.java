@@ -14,6 +14,9 @@
 
 package codeu.chat.relay;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -28,6 +31,8 @@ import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Deadlines;
+import codeu.chat.util.connections.Frame;
 
 public final class ServerFrontEnd {
 
@@ -109,16 +114,102 @@ public final class ServerFrontEnd {
     this.backEnd = backEnd;
   }
 
+  // HANDLE CONNECTION
+  //
+  // Serve a single request and close the connection - unless the client asks
+  // for a session, in which case the connection is handed to a session thread
+  // and stays open until the client closes it.
   public void handleConnection(Connection connection) throws IOException {
 
     LOG.info("Handling Connection - start");
 
-    switch (Serializers.INTEGER.read(connection.in())) {
+    boolean session = false;
+
+    try {
+      final int type = Serializers.INTEGER.read(connection.in());
+
+      if (type == NetworkCode.OPEN_SESSION_REQUEST) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.OPEN_SESSION_RESPONSE);
+        // The session is read by a thread of its own and may be quiet for a
+        // long time, so it is not held to read deadlines.
+        Deadlines.lift(connection);
+        handleSession(connection);
+        session = true;
+      } else {
+        handleRequest(type, connection);
+      }
+    } finally {
+      if (!session) {
+        connection.close();
+      }
+    }
+
+    LOG.info("Handling Connection - end");
+  }
+
+  private void handleRequest(int type, Connection connection) throws IOException {
+    switch (type) {
       case NetworkCode.RELAY_READ_REQUEST: handleReadMessage(connection); break;
       case NetworkCode.RELAY_WRITE_REQUEST: handleWriteMessage(connection); break;
+      case NetworkCode.PING_REQUEST:
+        Serializers.INTEGER.write(connection.out(), NetworkCode.PING_RESPONSE);
+        break;
+      default:
+        Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
+        break;
     }
+  }
 
-    LOG.info("Handling Connection - end");
+  // HANDLE SESSION
+  //
+  // Serve framed requests one after another on a thread of the session's own
+  // so that a long-lived connection never holds up the caller.
+  private void handleSession(final Connection connection) {
+
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Frame frame = Frame.SERIALIZER.read(connection.in());
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final Connection exchange = inMemory(new ByteArrayInputStream(frame.body), response);
+
+            handleRequest(Serializers.INTEGER.read(exchange.in()), exchange);
+
+            Frame.SERIALIZER.write(connection.out(), new Frame(frame.id, response.toByteArray()));
+            connection.out().flush();
+          }
+        } catch (EOFException ex) {
+          LOG.info("Session closed by client.");
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception while handling session.");
+        }
+
+        try {
+          connection.close();
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while closing session.");
+        }
+      }
+    }, "relay-session");
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static Connection inMemory(final InputStream in, final OutputStream out) {
+    return new Connection() {
+
+      @Override
+      public InputStream in() { return in; }
+
+      @Override
+      public OutputStream out() { return out; }
+
+      @Override
+      public void close() { }
+    };
   }
 
   private void handleReadMessage(Connection connection) throws IOException {
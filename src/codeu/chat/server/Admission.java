@@ -0,0 +1,120 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// ADMISSION
+//
+// Decides which requests the workers take on. At most "maxPending" requests
+// may be waiting or running at once; past that a request is turned away so
+// that the server answers it right away with SERVER_BUSY instead of letting
+// it wait until long after the client has given up.
+//
+// Requests are in one of two lanes. Writes always go before reads that are
+// still waiting, and reads are turned away once three quarters of the queue
+// is in use, so the last quarter is only ever used by writes. A burst of
+// reads can not stop messages from being added.
+final class Admission {
+
+  private final Executor workers;
+  private final int maxPending;
+  private final int maxPendingReads;
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicLong rejected = new AtomicLong();
+
+  private final Queue<Runnable> writes = new ConcurrentLinkedQueue<>();
+  private final Queue<Runnable> reads = new ConcurrentLinkedQueue<>();
+
+  // Every admitted request gives the workers one of these, which runs the
+  // most important request waiting at the time - not necessarily the one that
+  // was admitted with it.
+  private final Runnable runNext = new Runnable() {
+    @Override
+    public void run() {
+      Runnable next = writes.poll();
+      if (next == null) {
+        next = reads.poll();
+      }
+      try {
+        next.run();
+      } finally {
+        pending.decrementAndGet();
+      }
+    }
+  };
+
+  Admission(Executor workers, int maxPending) {
+    this.workers = workers;
+    this.maxPending = maxPending;
+    this.maxPendingReads = Math.max(1, maxPending * 3 / 4);
+  }
+
+  // EXECUTE
+  //
+  // Run "task" on the workers if there is room for it. Returns false, without
+  // running it, if there is not, and counts the request as turned away.
+  boolean execute(boolean write, Runnable task) {
+    if (admit(write, task)) {
+      return true;
+    }
+    reject();
+    return false;
+  }
+
+  // ADMIT
+  //
+  // The same as "execute" but a request that does not get in is not counted
+  // as turned away. This is for requests that may yet be let in some other
+  // way - the caller must call "reject" if they are not.
+  boolean admit(boolean write, Runnable task) {
+
+    final int limit = write ? maxPending : maxPendingReads;
+
+    while (true) {
+      final int current = pending.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (pending.compareAndSet(current, current + 1)) {
+        break;
+      }
+    }
+
+    (write ? writes : reads).add(task);
+    workers.execute(runNext);
+    return true;
+  }
+
+  // Count a request that was not admitted as turned away.
+  void reject() {
+    rejected.incrementAndGet();
+  }
+
+  // The number of requests waiting or running.
+  int pending() {
+    return pending.get();
+  }
+
+  // The number of requests turned away so far.
+  long rejected() {
+    return rejected.get();
+  }
+}
@@ -16,7 +16,8 @@ package codeu.chat.server;
 
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -28,6 +29,9 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import codeu.chat.client.commandline.Chat;
 
 import codeu.chat.common.BasicController;
@@ -56,8 +60,10 @@ public final class Controller implements RawController, BasicController {
 
   // Map to store all the Interests in the system, for every User there is a set
   // of Interests
-  private HashMap<Uuid, HashSet<Interest>> interestMap = new HashMap<Uuid, HashSet<Interest>>();
-  private HashMap<Uuid, HashSet<UserControl>> permissionMap = new HashMap<Uuid, HashSet<UserControl>>();
+  // Both maps, and the sets in them, may be read by several requests at once
+  // so they use concurrent collections.
+  private Map<Uuid, Set<Interest>> interestMap = new ConcurrentHashMap<Uuid, Set<Interest>>();
+  private Map<Uuid, Set<UserControl>> permissionMap = new ConcurrentHashMap<Uuid, Set<UserControl>>();
 
   private final Model model;
   private final Uuid.Generator uuidGenerator;
@@ -72,7 +78,9 @@ public final class Controller implements RawController, BasicController {
 
 
 
-  ArrayList<String> storedLogCommands = new ArrayList<String>();
+  // Filled by whichever thread runs a command and drained by the timer thread,
+  // so it must be safe to use from both at once.
+  Queue<String> storedLogCommands = new ConcurrentLinkedQueue<String>();
 
   public Controller(Uuid serverId, Model model) throws IOException{
     this.model = model;
@@ -133,8 +141,8 @@ public final class Controller implements RawController, BasicController {
 
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, author, body);
-      model.add(message);
+      message = new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, author, body);
+      model.add(message, foundConversation.id);
       LOG.info("Message added: %s", message.id);
 
 
@@ -185,7 +193,7 @@ public final class Controller implements RawController, BasicController {
 
       user = new User(id, name, creationTime);
       model.add(user);
-      interestMap.put(user.id, new HashSet<Interest>());
+      interestMap.put(user.id, Collections.newSetFromMap(new ConcurrentHashMap<Interest, Boolean>()));
 
       LOG.info(
           "newUser success (user.id=%s user.name=%s user.time=%s)",
@@ -219,7 +227,7 @@ public final class Controller implements RawController, BasicController {
     if (foundOwner != null && isIdFree(id)) {
       conversation = new ConversationHeader(id, owner, creationTime, title);
       model.add(conversation);
-      permissionMap.put(conversation.id, new HashSet<UserControl>());
+      permissionMap.put(conversation.id, Collections.newSetFromMap(new ConcurrentHashMap<UserControl, Boolean>()));
       UserControl creator = new UserControl(owner);
       permissionMap.get(conversation.id).add(creator);
       LOG.info("Conversation added: " + id);
@@ -509,7 +517,7 @@ public final class Controller implements RawController, BasicController {
 
     private void updateUserInterests(Uuid author, ConversationHeader conversation) {
 
-        for (HashSet<Interest> interests : interestMap.values()) {
+        for (Set<Interest> interests : interestMap.values()) {
             Iterator<Interest> iterator = interests.iterator();
             while(iterator.hasNext()){
                 Interest current = iterator.next();
@@ -529,7 +537,7 @@ public final class Controller implements RawController, BasicController {
 
     private void updateConversationInterests(Uuid conversation) {
 
-        for (HashSet<Interest> interests : interestMap.values()) {
+        for (Set<Interest> interests : interestMap.values()) {
             Iterator<Interest> iterator = interests.iterator();
             while(iterator.hasNext()){
                 Interest current = iterator.next();
@@ -655,16 +663,14 @@ public final class Controller implements RawController, BasicController {
    */
   TimerTask task = new TimerTask(){
     public void run(){
-      //Flushes data to document
-      for(String line : storedLogCommands){
+      //Flushes data to document. Lines are removed as they are written so that
+      //lines added while flushing are kept for the next flush.
+      for(String line = storedLogCommands.poll(); line != null; line = storedLogCommands.poll()){
         outputStream.println(line);
       }
 
       //Pushes log commands lines to the LOG.
       outputStream.flush();
-
-      //Clear the stored Log commands since we just flushed them to the log
-      storedLogCommands.clear();
     }
   };
 
@@ -0,0 +1,127 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+
+// MESSAGE SEQUENCE
+//
+// The messages of one conversation in the order they were added, numbered
+// from zero. The same messages are linked through "next" and "previous", but
+// the links can only be walked; here the count and any message by number are
+// a single read, and finding where a time falls is a binary search.
+//
+// Messages usually arrive in time order but not always (a relay may deliver
+// older ones late), so the search is over the latest creation time seen up to
+// each number. That never goes down, and the first number where it reaches a
+// time is the first message sent at or after that time.
+//
+// Like Store, it must not be read while it is being added to; the server's
+// model lock sees to that.
+final class MessageSequence {
+
+  private Message[] messages = new Message[8];
+  private long[] latest = new long[8];
+  private int size = 0;
+
+  // The numbers of messages sent before one added ahead of them, in order.
+  private int[] late = new int[0];
+  private int lateSize = 0;
+
+  public void add(Message message) {
+
+    if (size == messages.length) {
+      messages = Arrays.copyOf(messages, size * 2);
+      latest = Arrays.copyOf(latest, size * 2);
+    }
+
+    final long ms = message.creation.inMs();
+
+    if (size > 0 && ms < latest[size - 1]) {
+      if (lateSize == late.length) {
+        late = Arrays.copyOf(late, Math.max(4, lateSize * 2));
+      }
+      late[lateSize++] = size;
+    }
+
+    messages[size] = message;
+    latest[size] = size == 0 ? ms : Math.max(ms, latest[size - 1]);
+    size += 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Message get(int number) {
+    return number >= 0 && number < size ? messages[number] : null;
+  }
+
+  // Up to "limit" messages starting at "first", oldest first. A negative
+  // "first" counts back from the end, so -1 is the last message.
+  public List<Message> slice(int first, int limit) {
+
+    final int start = Math.max(0, first < 0 ? size + first : first);
+    final int end = (int) Math.min(size, (long) start + Math.max(0, limit));
+
+    final List<Message> slice = new ArrayList<>(Math.max(0, end - start));
+    for (int i = start; i < end; i++) {
+      slice.add(messages[i]);
+    }
+    return slice;
+  }
+
+  // The number of the first message sent at or after "time", or "size" if
+  // there is none.
+  public int firstAtOrAfter(Time time) {
+
+    final long ms = time.inMs();
+
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (latest[middle] < ms) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // The number of the last message sent at or before "time", or -1 if there
+  // is none.
+  public int lastAtOrBefore(Time time) {
+
+    // Everything before the first message sent after "time" was sent at or
+    // before it. Only a late message can come after that and still have been
+    // sent at or before "time".
+    final int number = firstAtOrAfter(Time.fromMs(time.inMs() + 1)) - 1;
+
+    for (int i = lateSize - 1; i >= 0 && late[i] > number; i--) {
+      if (messages[late[i]].creation.compareTo(time) <= 0) {
+        return late[i];
+      }
+    }
+
+    return number;
+  }
+}
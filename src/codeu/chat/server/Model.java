@@ -26,8 +26,13 @@ import codeu.chat.common.User;
 import codeu.chat.common.UserInterest;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.store.ConcurrentStore;
+import codeu.chat.util.store.LookupAccessor;
+import codeu.chat.util.store.MutableStore;
+import codeu.chat.util.store.OrderedUuidStore;
 import codeu.chat.util.store.Store;
 import codeu.chat.util.store.StoreAccessor;
+import codeu.chat.util.store.UuidStore;
 
 public final class Model {
 
@@ -56,30 +61,78 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
-  private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
+  private final OrderedUuidStore<User> userById;
+  private final MutableStore<Time, User> userByTime;
+  private final MutableStore<String, User> userByText;
 
-  private final Store<Uuid, ConversationHeader> conversationById = new Store<>(UUID_COMPARE);
-  private final Store<Time, ConversationHeader> conversationByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, ConversationHeader> conversationByText = new Store<>(STRING_COMPARE);
+  private final OrderedUuidStore<ConversationHeader> conversationById;
+  private final MutableStore<Time, ConversationHeader> conversationByTime;
+  private final MutableStore<String, ConversationHeader> conversationByText;
 
-  private final Store<Uuid, ConversationPayload> conversationPayloadById = new Store<>(UUID_COMPARE);
+  private final UuidStore<ConversationPayload> conversationPayloadById;
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
-  private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+  private final UuidStore<Message> messageById;
+  private final MutableStore<Time, Message> messageByTime;
+  private final TextIndex messageText = new TextIndex();
+  private final UuidStore<MessageSequence> messagesByConversation;
 
-  private final Store<Uuid, UserInterest> userInterestById = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, UserInterest> userInterestByOwnerId = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, UserInterest> userInterestByUserId = new Store<>(UUID_COMPARE);
+  private final UuidStore<UserInterest> userInterestById;
+  private final MutableStore<Uuid, UserInterest> userInterestByOwnerId;
+  private final MutableStore<Uuid, UserInterest> userInterestByUserId;
 
-  private final Store<Uuid, ConversationInterest> conversationInterestById = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, ConversationInterest> conversationInterestByOwnerId = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, ConversationInterest> conversationInterestByConversationId = new Store<>(UUID_COMPARE);
+  private final UuidStore<ConversationInterest> conversationInterestById;
+  private final MutableStore<Uuid, ConversationInterest> conversationInterestByOwnerId;
+  private final MutableStore<Uuid, ConversationInterest> conversationInterestByConversationId;
 
-  private final Store<Uuid, Interest> interestById = new Store<>(UUID_COMPARE);
-  private final Store<Uuid, Interest> interestByOwnerId = new Store<>(UUID_COMPARE);
+  private final UuidStore<Interest> interestById;
+  private final MutableStore<Uuid, Interest> interestByOwnerId;
+
+  // Whether the stores may be read while they are written to.
+  private final boolean concurrent;
+
+  public Model() {
+    this(false);
+  }
+
+  // With "concurrent" the model is kept in ConcurrentStores, which readers
+  // can use while a writer adds to them. Otherwise it is kept in Stores,
+  // which must not be read during a write.
+  public Model(boolean concurrent) {
+
+    this.concurrent = concurrent;
+
+    // Lookups by id go to a hash index. Users and conversations are also
+    // listed and paged through in id order, so they keep an ordered index as
+    // well; everything else is only ever looked up by id.
+    userById = new OrderedUuidStore<>(this.<Uuid, User>newStore(UUID_COMPARE));
+    userByTime = newStore(TIME_COMPARE);
+    userByText = newStore(STRING_COMPARE);
+    conversationById = new OrderedUuidStore<>(this.<Uuid, ConversationHeader>newStore(UUID_COMPARE));
+    conversationByTime = newStore(TIME_COMPARE);
+    conversationByText = newStore(STRING_COMPARE);
+    conversationPayloadById = new UuidStore<>();
+    messageById = new UuidStore<>();
+    messageByTime = newStore(TIME_COMPARE);
+    messagesByConversation = new UuidStore<>();
+    userInterestById = new UuidStore<>();
+    userInterestByOwnerId = newStore(UUID_COMPARE);
+    userInterestByUserId = newStore(UUID_COMPARE);
+    conversationInterestById = new UuidStore<>();
+    conversationInterestByOwnerId = newStore(UUID_COMPARE);
+    conversationInterestByConversationId = newStore(UUID_COMPARE);
+    interestById = new UuidStore<>();
+    interestByOwnerId = newStore(UUID_COMPARE);
+  }
+
+  public boolean concurrent() {
+    return concurrent;
+  }
+
+  private <KEY, VALUE> MutableStore<KEY, VALUE> newStore(Comparator<KEY> comparator) {
+    return concurrent ?
+        new ConcurrentStore<KEY, VALUE>(comparator) :
+        new Store<KEY, VALUE>(comparator);
+  }
 
   public void add(User user) {
     userById.insert(user.id, user);
@@ -104,6 +157,7 @@ public final class Model {
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
     conversationPayloadById.insert(conversation.id, new ConversationPayload(conversation.id));
+    messagesByConversation.insert(conversation.id, new MessageSequence());
   }
 
   public StoreAccessor<Uuid, ConversationHeader> conversationById() {
@@ -118,17 +172,24 @@ public final class Model {
     return conversationByText;
   }
 
-  public StoreAccessor<Uuid, ConversationPayload> conversationPayloadById() {
+  public LookupAccessor<Uuid, ConversationPayload> conversationPayloadById() {
     return conversationPayloadById;
   }
 
-  public void add(Message message) {
+  // "conversation" is the conversation the message was added to, which the
+  // message does not record itself.
+  public void add(Message message, Uuid conversation) {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+    messageText.add(message, conversation);
+
+    final MessageSequence sequence = messagesByConversation.first(conversation);
+    if (sequence != null) {
+      sequence.add(message);
+    }
   }
 
-  public StoreAccessor<Uuid, Message> messageById() {
+  public LookupAccessor<Uuid, Message> messageById() {
     return messageById;
   }
 
@@ -136,8 +197,14 @@ public final class Model {
     return messageByTime;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  TextIndex messageText() {
+    return messageText;
+  }
+
+  // The messages of "conversation" in the order they were added, or null if
+  // there is no such conversation.
+  MessageSequence messagesIn(Uuid conversation) {
+    return messagesByConversation.first(conversation);
   }
 
   public void add(UserInterest interest) {
@@ -149,7 +216,7 @@ public final class Model {
     interestByOwnerId.insert(interest.owner, interest);
   }
 
-  public StoreAccessor<Uuid, UserInterest> userInterestById() { return userInterestById; }
+  public LookupAccessor<Uuid, UserInterest> userInterestById() { return userInterestById; }
 
   public StoreAccessor<Uuid, UserInterest> userInterestByUserId() { return userInterestByUserId; }
 
@@ -162,13 +229,13 @@ public final class Model {
     interestByOwnerId.insert(interest.owner, interest);
   }
 
-  public StoreAccessor<Uuid, ConversationInterest> conversationInterestById() { return conversationInterestById; }
+  public LookupAccessor<Uuid, ConversationInterest> conversationInterestById() { return conversationInterestById; }
 
   public StoreAccessor<Uuid, ConversationInterest> conversationInterestByConversationId() {
       return conversationInterestByConversationId;
   }
 
-  public StoreAccessor<Uuid, Interest> interestById() { return interestById; }
+  public LookupAccessor<Uuid, Interest> interestById() { return interestById; }
 
   public StoreAccessor<Uuid, Interest> interestByOwnerId() { return interestByOwnerId; }
 
@@ -20,20 +20,35 @@ import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.ConversationInterest;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Page;
+import codeu.chat.common.Protocol;
 import codeu.chat.common.Relay;
+import codeu.chat.common.SearchQuery;
 import codeu.chat.common.Secret;
 import codeu.chat.common.User;
 import codeu.chat.common.UserInterest;
 import codeu.chat.common.ServerInfo;
+import codeu.chat.common.ServerStats;
+import codeu.chat.util.EncodedCache;
+import codeu.chat.util.Histogram;
 import codeu.chat.util.LogReader;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.LogLoader;
+import codeu.chat.util.connections.Compression;
 import codeu.chat.util.connections.Connection;
-
+import codeu.chat.util.connections.Deadlines;
+import codeu.chat.util.connections.PooledConnectionSource;
+import codeu.chat.util.connections.Frame;
+import codeu.chat.util.connections.Reactor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -42,31 +57,155 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public final class Server {
 
+  // A command reads its whole request before returning the action that
+  // answers it. Only the action may touch the model, so a request can be read
+  // without any locks and one that turns out to be incomplete can simply be
+  // read again once more of it has arrived.
   private interface Command {
-    void onMessage(InputStream in, OutputStream out) throws IOException;
+    Action read(InputStream in) throws IOException;
+  }
+
+  private interface Action {
+    void run(OutputStream out) throws IOException;
   }
 
   private static final Logger.Log LOG = Logger.newLog(Server.class);
 
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
 
+  // The most messages sent back for a single range request.
+  private static final int MAX_MESSAGE_RANGE = 1000;
+
+  // The most messages sent back for a single search.
+  private static final int MAX_SEARCH_RESULTS = 200;
+
+  // The most users or conversations sent back for a single page request.
+  private static final int MAX_PAGE_SIZE = 1000;
+
+  // How many messages may wait to be pushed to a subscriber before it is
+  // considered too slow and disconnected.
+  private static final int SUBSCRIBER_QUEUE_SIZE = 256;
+
+  // How many requests may be waiting for or running on the workers before
+  // new ones are turned away with SERVER_BUSY.
+  public static final int DEFAULT_MAX_PENDING = 1024;
+
+  // How many connections that were not let in may be read, or wait to be
+  // read, at once to see whether they can be let in after all.
+  static final int REJECTER_THREADS = 4;
+  static final int REJECTER_QUEUE_SIZE = 64;
+
+  // Commands that only read from the model. Any number of these may run at
+  // once. Every other command changes the model and runs alone.
+  private static final Set<Integer> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList(
+      NetworkCode.GET_USERS_REQUEST,
+      NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+      NetworkCode.GET_USERS_PAGE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST,
+      NetworkCode.GET_USERS_SINCE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST,
+      NetworkCode.FIND_USERS_BY_NAME_REQUEST,
+      NetworkCode.FIND_CONVERSATIONS_BY_TITLE_REQUEST,
+      NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+      NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+      NetworkCode.GET_MESSAGE_RANGE_REQUEST,
+      NetworkCode.GET_MESSAGE_RANGE_COMPACT_REQUEST,
+      NetworkCode.SEARCH_MESSAGES_REQUEST,
+      NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST,
+      NetworkCode.PERMISSION_JOIN_CONVERSATION_REQUEST,
+      NetworkCode.PING_REQUEST,
+      NetworkCode.SERVER_STATS_REQUEST,
+      NetworkCode.HELLO_REQUEST
+  ));
+
+  // What the server offers in the HELLO handshake. Connections served by the
+  // reactor cannot be compressed or pushed to.
+  private static final Protocol PROTOCOL = Protocol.CURRENT;
+  private static final Protocol REACTOR_PROTOCOL = new Protocol(
+      Protocol.VERSION,
+      Protocol.SESSIONS | Protocol.PAGING | Protocol.STATS | Protocol.COMPACT | Protocol.SEARCH |
+      Protocol.INDEX);
+
   private final Timeline timeline = new Timeline();
 
+  // Requests are run by "workers" - normally a fixed pool of threads, but it
+  // may just as well start a thread per connection. The model is guarded by
+  // "lock": read-only commands share it and everything else - commands that
+  // change the model and updates from the relay - holds it alone. The lock is
+  // fair so that a steady stream of reads cannot keep a write waiting.
+  private final Executor workers;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+  // Every request goes through "admission" on its way to the workers. Once
+  // too many are waiting, new ones are answered with SERVER_BUSY. Plain
+  // connections that were not let in before their type was known are read by
+  // "rejecter" so that openers and writes can still be let in. It only has a
+  // few threads and a short queue - past those, connections are told the
+  // server is busy without being read at all, so an overloaded server does
+  // not take on a blocked thread for every connection it turns away.
+  private final Admission admission;
+  private final Executor rejecter = new ThreadPoolExecutor(
+      REJECTER_THREADS,
+      REJECTER_THREADS,
+      0L,
+      TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(REJECTER_QUEUE_SIZE),
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+          final Thread thread = new Thread(task, "server-rejecter");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
   private final Map<Integer, Command> commands = new HashMap<>();
 
   private final Uuid id;
   private final Secret secret;
 
-  private final Model model = new Model();
-  private final View view = new View(model);
+  private final Model model;
+  private final View view;
   private final Controller controller;
 
+  private final Subscriptions subscriptions = new Subscriptions(SUBSCRIBER_QUEUE_SIZE);
+
+  // Totals over every compressed session.
+  private final Compression.Stats compressionStats = new Compression.Stats();
+
+  // How long each kind of command has taken, by type. Filled in once every
+  // command has been added and never changed after that.
+  private final Map<Integer, Latency> latencies = new TreeMap<>();
+  private final long started = System.nanoTime();
+
+  // The deadlines connections are held to, for reporting their timeouts.
+  private volatile Deadlines deadlines = Deadlines.none();
+
+  // The pool of connections to the relay, if there is one, for reporting how
+  // well it is doing.
+  private volatile PooledConnectionSource relayPool = null;
+
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
@@ -80,10 +219,70 @@ public final class Server {
   private static String serverLogLocation = "C:\\git\\CodeU-Summer-2017\\serverdata\\serverLog.txt";
   public PrintWriter outputStream;
 
-  public Server(final Uuid id, final Secret secret, final Relay relay) throws IOException{
+  public Server(final Uuid id, final Secret secret, final Relay relay) throws IOException {
+    this(id, secret, relay, Runtime.getRuntime().availableProcessors());
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                int threads) throws IOException {
+    this(id, secret, relay, threads, DEFAULT_MAX_PENDING);
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                int threads,
+                int maxPending) throws IOException {
+    this(id, secret, relay, threads, maxPending, new Model());
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                int threads,
+                int maxPending,
+                final Model model) throws IOException {
+    this(id, secret, relay, Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        final Thread thread = new Thread(task, "server-worker");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }), maxPending, model);
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                final Executor workers) throws IOException {
+    this(id, secret, relay, workers, DEFAULT_MAX_PENDING);
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                final Executor workers,
+                int maxPending) throws IOException {
+    this(id, secret, relay, workers, maxPending, new Model());
+  }
+
+  public Server(final Uuid id,
+                final Secret secret,
+                final Relay relay,
+                final Executor workers,
+                int maxPending,
+                final Model model) throws IOException {
+
+    this.workers = workers;
+    this.admission = new Admission(workers, maxPending);
 
     this.id = id;
     this.secret = secret;
+    this.model = model;
+    this.view = new View(model);
     this.controller = new Controller(id, model);
     this.relay = relay;
 
@@ -103,218 +302,432 @@ public final class Server {
     // New Message - A client wants to add a new message to the back end.
     this.commands.put(NetworkCode.NEW_MESSAGE_REQUEST, new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid author = Uuid.SERIALIZER.read(in);
         final Uuid conversation = Uuid.SERIALIZER.read(in);
         final String content = Serializers.STRING.read(in);
 
-        final Message message = controller.newMessage(author, conversation, content);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Message message = controller.newMessage(author, conversation, content);
 
-        Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-        Serializers.nullable(Message.SERIALIZER).write(out, message);
+            Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
+            Serializers.nullable(Message.SERIALIZER).write(out, message);
 
-        timeline.scheduleNow(createSendToRelayEvent(
-            author,
-            conversation,
-            message.id));
+            if (message != null) {
+              subscriptions.publish(conversation, message);
+              timeline.scheduleNow(createSendToRelayEvent(
+                  author,
+                  conversation,
+                  message.id));
+            }
+          }
+        };
       }
     });
 
     // New User - A client wants to add a new user to the back end.
     this.commands.put(NetworkCode.NEW_USER_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final String name = Serializers.STRING.read(in);
-        final User user = controller.newUser(name);
-
-        Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
-        Serializers.nullable(User.SERIALIZER).write(out, user);
 
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final User user = controller.newUser(name);
 
+            Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
+            Serializers.nullable(User.SERIALIZER).write(out, user);
+          }
+        };
       }
     });
 
     // New Conversation - A client wants to add a new conversation to the back end.
     this.commands.put(NetworkCode.NEW_CONVERSATION_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final String title = Serializers.STRING.read(in);
         final Uuid owner = Uuid.SERIALIZER.read(in);
-        final ConversationHeader conversation = controller.newConversation(title, owner);
 
-        Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
-        Serializers.nullable(ConversationHeader.SERIALIZER).write(out, conversation);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final ConversationHeader conversation = controller.newConversation(title, owner);
+
+            Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
+            Serializers.nullable(ConversationHeader.SERIALIZER).write(out, conversation);
+          }
+        };
       }
     });
 
     // Add Member - A creator or owner wants to add a new member to a conversation.
     this.commands.put(NetworkCode.ADD_MEMBER_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
         final Uuid conversationId = Uuid.SERIALIZER.read(in);
         final Uuid member = Uuid.SERIALIZER.read(in);
-        final boolean added = controller.addMember(user, conversationId, member);
 
-        Serializers.INTEGER.write(out, NetworkCode.ADD_MEMBER_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, added);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean added = controller.addMember(user, conversationId, member);
+
+            Serializers.INTEGER.write(out, NetworkCode.ADD_MEMBER_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, added);
+          }
+        };
       }
     });
 
     // Add Owner - A creator wants to add a new owner to a conversation.
     this.commands.put(NetworkCode.ADD_OWNER_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
         final Uuid conversationId = Uuid.SERIALIZER.read(in);
         final Uuid owner = Uuid.SERIALIZER.read(in);
-        final boolean added = controller.addOwner(user, conversationId, owner);
 
-        Serializers.INTEGER.write(out, NetworkCode.ADD_OWNER_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, added);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean added = controller.addOwner(user, conversationId, owner);
 
+            Serializers.INTEGER.write(out, NetworkCode.ADD_OWNER_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, added);
+          }
+        };
       }
     });
 
     // Remove Member - A client wants to remove a member from a conversation from the back end
     this.commands.put(NetworkCode.REMOVE_MEMBER_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
         final Uuid conversationId = Uuid.SERIALIZER.read(in);
         final Uuid member = Uuid.SERIALIZER.read(in);
-        final boolean removed = controller.removeMember(user, conversationId, member);
 
-        Serializers.INTEGER.write(out, NetworkCode.REMOVE_MEMBER_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean removed = controller.removeMember(user, conversationId, member);
+
+            Serializers.INTEGER.write(out, NetworkCode.REMOVE_MEMBER_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+          }
+        };
       }
     });
 
     // Remove Owner - A client wants to remove an owner from a conversation from the back end
     this.commands.put(NetworkCode.REMOVE_OWNER_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
         final Uuid conversationId = Uuid.SERIALIZER.read(in);
         final Uuid owner = Uuid.SERIALIZER.read(in);
-        final boolean removed = controller.removeOwner(user, conversationId, owner);
 
-        Serializers.INTEGER.write(out, NetworkCode.REMOVE_OWNER_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean removed = controller.removeOwner(user, conversationId, owner);
+
+            Serializers.INTEGER.write(out, NetworkCode.REMOVE_OWNER_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+          }
+        };
       }
     });
 
     // Permission Join Conversation - A client checks if they have permission to join a conversation.
     this.commands.put(NetworkCode.PERMISSION_JOIN_CONVERSATION_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
         final Uuid conversation = Uuid.SERIALIZER.read(in);
-        final boolean permission = controller.permissionJoinConversation(user, conversation);
 
-        Serializers.INTEGER.write(out, NetworkCode.PERMISSION_JOIN_CONVERSATION_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, permission);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean permission = controller.permissionJoinConversation(user, conversation);
+
+            Serializers.INTEGER.write(out, NetworkCode.PERMISSION_JOIN_CONVERSATION_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, permission);
+          }
+        };
       }
     });
 
     // New Interest - A client wants to add a new interest in a user to the back end.
     this.commands.put(NetworkCode.NEW_USER_INTEREST_REQUEST,  new Command() {
         @Override
-        public void onMessage(InputStream in, OutputStream out) throws IOException {
+        public Action read(InputStream in) throws IOException {
 
             final Uuid owner = Uuid.SERIALIZER.read(in);
             final Uuid userId = Uuid.SERIALIZER.read(in);
-            final UserInterest interest = controller.newUserInterest(owner, userId);
 
-            Serializers.INTEGER.write(out, NetworkCode.NEW_USER_INTEREST_RESPONSE);
-            Serializers.nullable(UserInterest.SERIALIZER).write(out, interest);
+            return new Action() {
+                @Override
+                public void run(OutputStream out) throws IOException {
+                    final UserInterest interest = controller.newUserInterest(owner, userId);
+
+                    Serializers.INTEGER.write(out, NetworkCode.NEW_USER_INTEREST_RESPONSE);
+                    Serializers.nullable(UserInterest.SERIALIZER).write(out, interest);
+                }
+            };
         }
     });
 
     // New Interest - A client wants to add a new interest in a conversation to the back end
     this.commands.put(NetworkCode.NEW_CONVERSATION_INTEREST_REQUEST,  new Command() {
         @Override
-        public void onMessage(InputStream in, OutputStream out) throws IOException {
+        public Action read(InputStream in) throws IOException {
 
             final Uuid owner = Uuid.SERIALIZER.read(in);
             final Uuid conversationId = Uuid.SERIALIZER.read(in);
-            final ConversationInterest interest = controller.newConversationInterest(owner, conversationId);
 
-            Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE);
-            Serializers.nullable(ConversationInterest.SERIALIZER).write(out, interest);
+            return new Action() {
+                @Override
+                public void run(OutputStream out) throws IOException {
+                    final ConversationInterest interest = controller.newConversationInterest(owner, conversationId);
+
+                    Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_INTEREST_RESPONSE);
+                    Serializers.nullable(ConversationInterest.SERIALIZER).write(out, interest);
+                }
+            };
         }
     });
 
     // Remove Interest - A client wants to remove an interest in a user from the back end
     this.commands.put(NetworkCode.REMOVE_USER_INTEREST_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid owner = Uuid.SERIALIZER.read(in);
         final Uuid userId = Uuid.SERIALIZER.read(in);
-        final boolean removed = controller.removeUserInterest(owner, userId);
 
-        Serializers.INTEGER.write(out, NetworkCode.REMOVE_USER_INTEREST_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean removed = controller.removeUserInterest(owner, userId);
+
+            Serializers.INTEGER.write(out, NetworkCode.REMOVE_USER_INTEREST_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+          }
+        };
       }
     });
 
     // Remove Interest - A client wants to remove an interest in a conversation from the back end
     this.commands.put(NetworkCode.REMOVE_CONVERSATION_INTEREST_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid owner = Uuid.SERIALIZER.read(in);
         final Uuid conversationId = Uuid.SERIALIZER.read(in);
-        final boolean removed = controller.removeConversationInterest(owner, conversationId);
 
-        Serializers.INTEGER.write(out, NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE);
-        Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final boolean removed = controller.removeConversationInterest(owner, conversationId);
+
+            Serializers.INTEGER.write(out, NetworkCode.REMOVE_CONVERSATION_INTEREST_RESPONSE);
+            Serializers.nullable(Serializers.BOOLEAN).write(out, removed);
+          }
+        };
       }
     });
 
     // Status Update - A client wants a status update on their interests from the back end
     this.commands.put(NetworkCode.STATUS_UPDATE_REQUEST,  new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Uuid user = Uuid.SERIALIZER.read(in);
-        final String update = controller.statusUpdate(user);
 
-        Serializers.INTEGER.write(out, NetworkCode.STATUS_UPDATE_RESPONSE);
-        Serializers.nullable(Serializers.STRING).write(out, update);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final String update = controller.statusUpdate(user);
+
+            Serializers.INTEGER.write(out, NetworkCode.STATUS_UPDATE_RESPONSE);
+            Serializers.nullable(Serializers.STRING).write(out, update);
+          }
+        };
       }
     });
 
     // Get Users - A client wants to get all the users from the back end.
     this.commands.put(NetworkCode.GET_USERS_REQUEST, new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
-
-        final Collection<User> users = view.getUsers();
-
-        Serializers.INTEGER.write(out, NetworkCode.GET_USERS_RESPONSE);
-        Serializers.collection(User.SERIALIZER).write(out, users);
+      public Action read(InputStream in) throws IOException {
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<User> users = view.getUsers();
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_USERS_RESPONSE);
+            Serializers.collection(User.SERIALIZER).write(out, users);
+          }
+        };
       }
     });
 
     // Get Conversations - A client wants to get all the conversations from the back end.
     this.commands.put(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST, new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<ConversationHeader> conversations = view.getConversations();
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
+            Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+          }
+        };
+      }
+    });
+
+    // Get Users Page - A client wants the next page of users after a cursor.
+    this.commands.put(NetworkCode.GET_USERS_PAGE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
 
-        final Collection<ConversationHeader> conversations = view.getConversations();
+        final Uuid after = Uuid.SERIALIZER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-        Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Page<User> users = view.getUsers(after, pageSize(limit));
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_USERS_PAGE_RESPONSE);
+            Page.serializer(User.SERIALIZER).write(out, users);
+          }
+        };
+      }
+    });
+
+    // Get Conversations Page - A client wants the next page of conversations
+    // after a cursor.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_PAGE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final Uuid after = Uuid.SERIALIZER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Page<ConversationHeader> conversations = view.getConversations(after, pageSize(limit));
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_PAGE_RESPONSE);
+            Page.serializer(ConversationHeader.SERIALIZER).write(out, conversations);
+          }
+        };
+      }
+    });
+
+    // Get Users Since - A client wants the users created since it last asked.
+    this.commands.put(NetworkCode.GET_USERS_SINCE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final Time from = Serializers.nullable(Time.SERIALIZER).read(in);
+        final int skip = Serializers.INTEGER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<User> users = view.getUsersSince(from, skip, pageSize(limit));
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_USERS_SINCE_RESPONSE);
+            Serializers.collection(User.SERIALIZER).write(out, users);
+          }
+        };
+      }
+    });
+
+    // Get Conversations Since - A client wants the conversations created since
+    // it last asked.
+    this.commands.put(NetworkCode.GET_CONVERSATIONS_SINCE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final Time from = Serializers.nullable(Time.SERIALIZER).read(in);
+        final int skip = Serializers.INTEGER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<ConversationHeader> conversations = view.getConversationsSince(from, skip, pageSize(limit));
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_SINCE_RESPONSE);
+            Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+          }
+        };
+      }
+    });
+
+    // Find Users By Name - A client wants the users with a given name without
+    // getting every user.
+    this.commands.put(NetworkCode.FIND_USERS_BY_NAME_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final String name = Serializers.STRING.read(in);
+        final boolean ignoreCase = Serializers.BOOLEAN.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<User> users = view.findUsers(name, ignoreCase);
+
+            Serializers.INTEGER.write(out, NetworkCode.FIND_USERS_BY_NAME_RESPONSE);
+            Serializers.collection(User.SERIALIZER).write(out, users);
+          }
+        };
+      }
+    });
+
+    // Find Conversations By Title - A client wants the conversations with a
+    // given title, or whose titles start with some text, without getting every
+    // conversation.
+    this.commands.put(NetworkCode.FIND_CONVERSATIONS_BY_TITLE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final String title = Serializers.STRING.read(in);
+        final boolean prefix = Serializers.BOOLEAN.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<ConversationHeader> conversations =
+                view.findConversations(title, prefix, pageSize(limit));
+
+            Serializers.INTEGER.write(out, NetworkCode.FIND_CONVERSATIONS_BY_TITLE_RESPONSE);
+            Serializers.collection(ConversationHeader.SERIALIZER).write(out, conversations);
+          }
+        };
       }
     });
 
@@ -322,44 +735,71 @@ public final class Server {
     // Get User Interests - A client wants to get all the user interests from the back end.
     this.commands.put(NetworkCode.GET_ALL_USER_INTERESTS_REQUEST, new Command() {
         @Override
-        public void onMessage(InputStream in, OutputStream out) throws IOException {
-
-            final Collection<UserInterest> userInterests = view.getUserInterests();
-
-            Serializers.INTEGER.write(out, NetworkCode.GET_ALL_USER_INTERESTS_RESPONSE);
-            Serializers.collection(UserInterest.SERIALIZER).write(out, userInterests);
+        public Action read(InputStream in) throws IOException {
+          return new Action() {
+            @Override
+            public void run(OutputStream out) throws IOException {
+                final Collection<UserInterest> userInterests = view.getUserInterests();
+
+                Serializers.INTEGER.write(out, NetworkCode.GET_ALL_USER_INTERESTS_RESPONSE);
+                Serializers.collection(UserInterest.SERIALIZER).write(out, userInterests);
+            }
+          };
           }
       });
 
     // Get Conversation Interests - A client wants to get all the conversation interests from the back end.
     this.commands.put(NetworkCode.GET_ALL_CONVERSATION_INTERESTS_REQUEST, new Command() {
         @Override
-        public void onMessage(InputStream in, OutputStream out) throws IOException {
-
-            final Collection<ConversationInterest> conversationInterests = view.getConversationInterests();
-
-            Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATION_INTERESTS_RESPONSE);
-            Serializers.collection(ConversationInterest.SERIALIZER).write(out, conversationInterests);
+        public Action read(InputStream in) throws IOException {
+          return new Action() {
+            @Override
+            public void run(OutputStream out) throws IOException {
+                final Collection<ConversationInterest> conversationInterests = view.getConversationInterests();
+
+                Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATION_INTERESTS_RESPONSE);
+                Serializers.collection(ConversationInterest.SERIALIZER).write(out, conversationInterests);
+            }
+          };
           }
       });
       */
 
+    // Ping - A client wants to know that the connection still works. Used by
+    //        connection pools before reusing a connection that has sat idle.
+    this.commands.put(NetworkCode.PING_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            Serializers.INTEGER.write(out, NetworkCode.PING_RESPONSE);
+          }
+        };
+      }
+    });
+
     // Get Server Request - A client whats to get all the request to the server from the back end.
     this.commands.put(NetworkCode.SERVER_INFO_REQUEST, new Command(){
         @Override
-        public void onMessage(InputStream in, OutputStream out) throws IOException{
-            Serializers.INTEGER.write(out, NetworkCode.SERVER_INFO_RESPONSE);
-
-            try{
-              serverInfo = new ServerInfo();
-            }catch (IOException ex){
-              LOG.error(ex, "There was a problem with parsing the ServerInfo.");
-            }
-
-            // Writes out the ServerInfo Version and StartTime to the user
-            //Serializer OUT must be in the same order as Serializer IN
-            Uuid.SERIALIZER.write(out, serverInfo.getVersion());
-            Time.SERIALIZER.write(out, serverInfo.getStartTime());
+        public Action read(InputStream in) throws IOException {
+            return new Action() {
+                @Override
+                public void run(OutputStream out) throws IOException {
+                    Serializers.INTEGER.write(out, NetworkCode.SERVER_INFO_RESPONSE);
+
+                    try{
+                      serverInfo = new ServerInfo();
+                    }catch (IOException ex){
+                      LOG.error(ex, "There was a problem with parsing the ServerInfo.");
+                    }
+
+                    // Writes out the ServerInfo Version and StartTime to the user
+                    //Serializer OUT must be in the same order as Serializer IN
+                    Uuid.SERIALIZER.write(out, serverInfo.getVersion());
+                    Time.SERIALIZER.write(out, serverInfo.getStartTime());
+                }
+            };
         }
     });
 
@@ -372,29 +812,141 @@ public final class Server {
     //                           wants to get a subset of the payloads.
     this.commands.put(NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST, new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<ConversationPayload> conversations = view.getConversationPayloads(ids);
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-        Serializers.collection(ConversationPayload.SERIALIZER).write(out, conversations);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<ConversationPayload> conversations = view.getConversationPayloads(ids);
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
+            Serializers.collection(ConversationPayload.SERIALIZER).write(out, conversations);
+          }
+        };
       }
     });
 
     // Get Messages By Id - A client wants to get a subset of the messages from the back end.
     this.commands.put(NetworkCode.GET_MESSAGES_BY_ID_REQUEST, new Command() {
       @Override
-      public void onMessage(InputStream in, OutputStream out) throws IOException {
+      public Action read(InputStream in) throws IOException {
 
         final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
-        final Collection<Message> messages = view.getMessages(ids);
 
-        Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-        Serializers.collection(Message.SERIALIZER).write(out, messages);
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<Message> messages = view.getMessages(ids);
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
+            Serializers.collection(Message.SERIALIZER).write(out, messages);
+          }
+        };
+      }
+    });
+
+    // Get Message Range - A client wants a run of consecutive messages from a
+    // conversation, such as the next page while reading through it.
+    this.commands.put(NetworkCode.GET_MESSAGE_RANGE_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+        return messageRange(
+            in,
+            NetworkCode.GET_MESSAGE_RANGE_RESPONSE,
+            Serializers.collection(Message.SERIALIZER));
+      }
+    });
+
+    // Get Message Range (compact) - The same as Get Message Range but the
+    //                               messages are sent in the v2 encoding.
+    this.commands.put(NetworkCode.GET_MESSAGE_RANGE_COMPACT_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+        return messageRange(
+            in,
+            NetworkCode.GET_MESSAGE_RANGE_COMPACT_RESPONSE,
+            Message.COMPACT_COLLECTION);
       }
     });
 
+    // Search Messages - A client wants the newest messages that contain some
+    //                   words.
+    this.commands.put(NetworkCode.SEARCH_MESSAGES_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final SearchQuery query = SearchQuery.SERIALIZER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final Collection<Message> messages =
+                view.searchMessages(query.limit(Math.min(query.limit, MAX_SEARCH_RESULTS)));
+
+            Serializers.INTEGER.write(out, NetworkCode.SEARCH_MESSAGES_RESPONSE);
+            Serializers.collection(Message.SERIALIZER).write(out, messages);
+          }
+        };
+      }
+    });
+
+    // Get Messages By Index - A client wants messages by their number in a
+    //                         conversation, such as the last page when it
+    //                         opens the conversation. The count is sent too so
+    //                         the client knows where the page falls.
+    this.commands.put(NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+
+        final Uuid conversation = Uuid.SERIALIZER.read(in);
+        final int first = Serializers.INTEGER.read(in);
+        final int limit = Serializers.INTEGER.read(in);
+
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            final int count = view.getMessageCount(conversation);
+            final Collection<Message> messages =
+                view.getMessagesByIndex(conversation, first, Math.min(limit, MAX_MESSAGE_RANGE));
+
+            Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_INDEX_RESPONSE);
+            Serializers.INTEGER.write(out, count);
+            Serializers.collection(Message.SERIALIZER).write(out, messages);
+          }
+        };
+      }
+    });
+
+    // Hello - A client says which protocol version and capabilities it has and
+    //         wants to know which of them the server shares.
+    this.commands.put(NetworkCode.HELLO_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+        return hello(PROTOCOL, in);
+      }
+    });
+
+    // Server Stats - A client wants to know how quickly the server has been
+    //                answering each kind of request.
+    this.commands.put(NetworkCode.SERVER_STATS_REQUEST, new Command() {
+      @Override
+      public Action read(InputStream in) throws IOException {
+        return new Action() {
+          @Override
+          public void run(OutputStream out) throws IOException {
+            Serializers.INTEGER.write(out, NetworkCode.SERVER_STATS_RESPONSE);
+            ServerStats.SERIALIZER.write(out, stats());
+          }
+        };
+      }
+    });
+
+    for (final int type : commands.keySet()) {
+      latencies.put(type, new Latency());
+    }
+
     // add status update commands
       // view.statusUpdate
 
@@ -406,7 +958,12 @@ public final class Server {
           LOG.info("Reading update from relay...");
 
           for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
+            lock.writeLock().lock();
+            try {
+              onBundle(bundle);
+            } finally {
+              lock.writeLock().unlock();
+            }
             lastSeen = bundle.id();
           }
 
@@ -421,39 +978,468 @@ public final class Server {
     });
   }
 
+  // REPORT TIMEOUTS
+  //
+  // Include the timeouts counted by "deadlines" - normally those of the
+  // source connections come from - in the server's stats.
+  public void reportTimeouts(Deadlines deadlines) {
+    this.deadlines = deadlines;
+  }
+
+  // REPORT RELAY POOL
+  //
+  // Include the hits, misses and waits of "pool" - the connections "relay"
+  // is read through - in the server's stats.
+  public void reportRelayPool(PooledConnectionSource pool) {
+    this.relayPool = pool;
+  }
+
   public void handleConnection(final Connection connection) {
-    timeline.scheduleNow(new Runnable() {
+
+    final long queued = System.nanoTime();
+
+    // The type has not been read yet, so every connection starts out in the
+    // read lane. It is not counted as turned away until it is known that it
+    // cannot be let in some other way.
+    final boolean admitted = admission.admit(false, new Runnable() {
       @Override
       public void run() {
-        try {
+        readConnection(connection, true, queued);
+      }
+    });
 
-          LOG.info("Handling connection...");
+    if (admitted) {
+      return;
+    }
 
-          final int type = Serializers.INTEGER.read(connection.in());
-          final Command command = commands.get(type);
+    try {
+      rejecter.execute(new Runnable() {
+        @Override
+        public void run() {
+          readConnection(connection, false, queued);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      LOG.warning("Server busy. Turned away connection without reading it.");
+      turnAway(connection);
+    }
+  }
 
-          if (command == null) {
-            // The message type cannot be handled so return a dummy message.
-            Serializers.INTEGER.write(connection.out(), NetworkCode.NO_MESSAGE);
-            LOG.info("Connection rejected");
-          } else {
-            command.onMessage(connection.in(), connection.out());
-            LOG.info("Connection accepted");
-          }
+  // READ CONNECTION
+  //
+  // Read what kind of request a connection carries. One that was not admitted
+  // is still served if it opens a session or subscription - those only start
+  // threads of their own - and a write gets a second chance in its own lane.
+  // Anything else is told the server is busy.
+  private void readConnection(final Connection connection, boolean admitted, final long queued) {
 
-        } catch (Exception ex) {
+    final int type;
 
-          LOG.error(ex, "Exception while handling connection.");
+    try {
+      type = Serializers.INTEGER.read(connection.in());
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while reading connection.");
+      closeConnection(connection);
+      return;
+    }
 
-        }
+    if (admitted ||
+        type == NetworkCode.OPEN_SESSION_REQUEST ||
+        type == NetworkCode.OPEN_COMPRESSED_SESSION_REQUEST ||
+        type == NetworkCode.SUBSCRIBE_REQUEST) {
+      serveConnection(connection, type, queued);
+      return;
+    }
+
+    final boolean write = !READ_ONLY_COMMANDS.contains(type);
+
+    if (write && admission.admit(true, new Runnable() {
+      @Override
+      public void run() {
+        serveConnection(connection, type, queued);
+      }
+    })) {
+      return;
+    }
+
+    LOG.warning("Server busy. Turned away request %d.", type);
+    turnAway(connection);
+  }
+
+  // TURN AWAY
+  //
+  // Tell a connection that was not let in that the server is busy.
+  private void turnAway(Connection connection) {
+
+    admission.reject();
+
+    try {
+      connection.out().write(busy());
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while turning away connection.");
+    }
+
+    closeConnection(connection);
+  }
+
+  private void serveConnection(Connection connection, int type, long queued) {
+
+    try {
+
+      LOG.info("Handling connection...");
+
+      // Sessions and subscriptions are read by threads of their own and are
+      // quiet whenever their user is, so they are not held to read deadlines.
 
+      if (type == NetworkCode.OPEN_SESSION_REQUEST) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.OPEN_SESSION_RESPONSE);
+        Deadlines.lift(connection);
+        handleSession(connection, Compression.none());
+        return;
+      }
+
+      if (type == NetworkCode.OPEN_COMPRESSED_SESSION_REQUEST) {
+        // Agree to whatever the client asked for.
+        final boolean prime = Serializers.BOOLEAN.read(connection.in());
+        Serializers.INTEGER.write(connection.out(), NetworkCode.OPEN_COMPRESSED_SESSION_RESPONSE);
+        Serializers.BOOLEAN.write(connection.out(), prime);
+        Deadlines.lift(connection);
+        handleSession(connection, Compression.negotiated(prime, compressionStats));
+        return;
+      }
+
+      if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+        Deadlines.lift(connection);
+        subscriptions.serve(connection, type);
+        return;
+      }
+
+      // Build the response in memory so that the model is not locked
+      // while it is sent.
+      final ByteArrayOutputStream response = new ByteArrayOutputStream();
+      handleCommand(type, connection.in(), response, queued);
+      response.writeTo(connection.out());
+
+    } catch (Exception ex) {
+
+      LOG.error(ex, "Exception while handling connection.");
+
+    }
+
+    closeConnection(connection);
+  }
+
+  private static void closeConnection(Connection connection) {
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+  }
+
+  // HANDLE SESSION
+  //
+  // Serve framed requests on a connection until the client closes it. Frames
+  // are read on a thread of their own so that the client can have several
+  // requests in flight at once. Each one is run by the workers like any other
+  // request and its response is sent back under the frame's id.
+  //
+  // Frames are decoded here, in the order they arrived, and encoded as they
+  // are written, so that a primed compression dictionary stays the same on
+  // both ends.
+  private void handleSession(final Connection connection, final Compression compression) {
+
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
         try {
-          connection.close();
+          while (true) {
+            final Frame encoded = Frame.SERIALIZER.read(connection.in());
+            final Frame frame = new Frame(encoded.id, compression.decode(encoded.body));
+            final long queued = System.nanoTime();
+            final boolean admitted = admission.execute(!READ_ONLY_COMMANDS.contains(typeOf(frame.body)), new Runnable() {
+              @Override
+              public void run() {
+                handleFrame(connection, compression, frame, queued);
+              }
+            });
+            if (!admitted) {
+              writeFrame(connection, compression, frame.id, busy());
+            }
+          }
+        } catch (EOFException ex) {
+          LOG.info("Session closed by client.");
         } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+          LOG.error(ex, "Exception while reading session.");
+        }
+
+        if (compression.enabled()) {
+          LOG.info("Compression so far: %s", compressionStats);
         }
+
+        closeConnection(connection);
       }
-    });
+    }, "session");
+
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void handleFrame(Connection connection, Compression compression, Frame frame, long queued) {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    try {
+      handleRequest(new ByteArrayInputStream(frame.body), out, queued);
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while handling request.");
+      out.reset();
+      try {
+        Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+      } catch (IOException never) {
+        // Writing to memory does not fail.
+      }
+    }
+
+    writeFrame(connection, compression, frame.id, out.toByteArray());
+  }
+
+  private static void writeFrame(Connection connection, Compression compression, int id, byte[] body) {
+    try {
+      synchronized (connection) {
+        Frame.SERIALIZER.write(connection.out(), new Frame(id, compression.encode(body)));
+        connection.out().flush();
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while writing response.");
+    }
+  }
+
+  // The request type at the start of a request body, or NO_MESSAGE if the
+  // body is too short to have one.
+  private static int typeOf(byte[] body) {
+    try {
+      return Serializers.INTEGER.read(new ByteArrayInputStream(body));
+    } catch (IOException ex) {
+      return NetworkCode.NO_MESSAGE;
+    }
+  }
+
+  // The whole response to a request that was turned away.
+  private static byte[] busy() {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      Serializers.INTEGER.write(out, NetworkCode.SERVER_BUSY);
+    } catch (IOException never) {
+      // Writing to memory does not fail.
+    }
+    return out.toByteArray();
+  }
+
+  // HANDLE REQUEST (reactor)
+  //
+  // The reactor hands over whatever has arrived so far. The request is read
+  // here, on the reactor thread, and if it runs out of bytes the rest has not
+  // arrived yet and the reactor is told to wait for more. Only a complete
+  // request goes through admission and on to the workers, so an incomplete
+  // one never waits in line, takes the lock or counts towards the latencies.
+  public void handleRequest(final Reactor.Request request) {
+
+    final long queued = System.nanoTime();
+
+    try {
+
+      final int type = Serializers.INTEGER.read(request.in());
+
+      if (type == NetworkCode.OPEN_SESSION_REQUEST) {
+        Serializers.INTEGER.write(request.out(), NetworkCode.OPEN_SESSION_RESPONSE);
+        request.openSession();
+        return;
+      }
+
+      // The reactor offers less than the other modes. The handshake does not
+      // touch the model, so it is answered here.
+      if (type == NetworkCode.HELLO_REQUEST) {
+        hello(REACTOR_PROTOCOL, request.in()).run(request.out());
+        request.respond();
+        return;
+      }
+
+      final Command command = commands.get(type);
+
+      if (command == null) {
+        Serializers.INTEGER.write(request.out(), NetworkCode.NO_MESSAGE);
+        request.respond();
+        return;
+      }
+
+      final Action action = command.read(request.in());
+
+      final boolean admitted = admission.execute(!READ_ONLY_COMMANDS.contains(type), new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runCommand(type, action, request.out(), queued);
+            request.respond();
+          } catch (Exception ex) {
+            LOG.error(ex, "Exception while handling request.");
+            request.close();
+          }
+        }
+      });
+
+      if (!admitted) {
+        request.out().write(busy());
+        request.respond();
+      }
+
+    } catch (EOFException ex) {
+      request.incomplete();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while handling request.");
+      request.close();
+    }
+  }
+
+  private void handleRequest(InputStream in, OutputStream out, long queued) throws IOException {
+    handleCommand(Serializers.INTEGER.read(in), in, out, queued);
+  }
+
+  // HANDLE COMMAND
+  //
+  // Read a request and run its command, recording how long it waited since
+  // "queued" (from System.nanoTime) and how long it then took. Waiting
+  // includes reading the request and waiting for the lock, as that is time the
+  // client spends waiting too.
+  private void handleCommand(int type, InputStream in, OutputStream out, long queued) throws IOException {
+
+    final Command command = commands.get(type);
+
+    if (command == null) {
+      // The message type cannot be handled so return a dummy message.
+      Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+      LOG.info("Connection rejected");
+      return;
+    }
+
+    runCommand(type, command.read(in), out, queued);
+  }
+
+  private void runCommand(int type, Action action, OutputStream out, long queued) throws IOException {
+
+    final Lock held = READ_ONLY_COMMANDS.contains(type) ? lock.readLock() : lock.writeLock();
+
+    held.lock();
+    final long start = System.nanoTime();
+    try {
+      action.run(out);
+    } finally {
+      held.unlock();
+      latencies.get(type).record(start - queued, System.nanoTime() - start);
+    }
+
+    LOG.info("Connection accepted");
+  }
+
+  // Read a message range request. The action gets the messages it asks for
+  // and sends them back with "serializer".
+  private Action messageRange(InputStream in,
+                              final int response,
+                              final Serializer<Collection<Message>> serializer) throws IOException {
+
+    final Uuid conversation = Uuid.SERIALIZER.read(in);
+    final Uuid start = Uuid.SERIALIZER.read(in);
+    final Time from = Serializers.nullable(Time.SERIALIZER).read(in);
+    final boolean forward = Serializers.BOOLEAN.read(in);
+    final int limit = Serializers.INTEGER.read(in);
+
+    return new Action() {
+      @Override
+      public void run(OutputStream out) throws IOException {
+
+        final Collection<Message> messages = view.getMessageRange(
+            conversation,
+            start,
+            from,
+            forward,
+            Math.min(limit, MAX_MESSAGE_RANGE));
+
+        Serializers.INTEGER.write(out, response);
+        serializer.write(out, messages);
+      }
+    };
+  }
+
+  // HELLO
+  //
+  // Answer a handshake with what both the client and "offered" support.
+  private static Action hello(final Protocol offered, InputStream in) throws IOException {
+
+    final Protocol client = Protocol.SERIALIZER.read(in);
+
+    return new Action() {
+      @Override
+      public void run(OutputStream out) throws IOException {
+
+        final Protocol agreed = offered.negotiate(client);
+
+        Serializers.INTEGER.write(out, NetworkCode.HELLO_RESPONSE);
+        Protocol.SERIALIZER.write(out, agreed);
+
+        LOG.info("Client offered %s. Agreed to %s.", client, agreed);
+      }
+    };
+  }
+
+  private ServerStats stats() {
+
+    final List<ServerStats.Command> commands = new ArrayList<>();
+
+    for (final Map.Entry<Integer, Latency> entry : latencies.entrySet()) {
+      final Histogram queue = entry.getValue().queue;
+      final Histogram run = entry.getValue().run;
+      if (run.count() > 0) {
+        commands.add(new ServerStats.Command(
+            NetworkCode.name(entry.getKey()),
+            run.count(),
+            queue.percentile(50),
+            queue.percentile(99),
+            queue.percentile(99.9),
+            run.percentile(50),
+            run.percentile(99),
+            run.percentile(99.9),
+            run.max()));
+      }
+    }
+
+    return new ServerStats(
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+        admission.pending(),
+        admission.rejected(),
+        compressionStats.toString(),
+        deadlines.toString(),
+        EncodedCache.SHARED.toString(),
+        relayPool == null ? "no relay pool" : relayPool.toString(),
+        commands);
+  }
+
+  // LATENCY
+  //
+  // Times for one kind of command, in microseconds.
+  private static final class Latency {
+
+    final Histogram queue = new Histogram();
+    final Histogram run = new Histogram();
+
+    void record(long queuedNanos, long runNanos) {
+      queue.record(TimeUnit.NANOSECONDS.toMicros(queuedNanos));
+      run.record(TimeUnit.NANOSECONDS.toMicros(runNanos));
+    }
+  }
+
+  // Keep a requested page size between one and the most the server will send.
+  private static int pageSize(int limit) {
+    return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
   }
 
   private void onBundle(Relay.Bundle bundle) {
@@ -489,6 +1475,10 @@ public final class Server {
                                       conversation.id,
                                       relayMessage.text(),
                                       relayMessage.time());
+
+      if (message != null) {
+        subscriptions.publish(conversation.id, message);
+      }
     }
   }
 
@@ -498,9 +1488,17 @@ public final class Server {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final ConversationHeader conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
+        final User user;
+        final ConversationHeader conversation;
+        final Message message;
+        lock.readLock().lock();
+        try {
+          user = view.findUser(userId);
+          conversation = view.findConversation(conversationId);
+          message = view.findMessage(messageId);
+        } finally {
+          lock.readLock().unlock();
+        }
         relay.write(id,
                     secret,
                     relay.pack(user.id, user.name, user.creation),
@@ -0,0 +1,258 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.ThreadPerTaskExecutor;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+// SUBSCRIPTIONS
+//
+// Pushes new messages to clients instead of making them poll for them. A
+// client opens a connection with SUBSCRIBE_REQUEST and keeps it open. From
+// then on it may subscribe to and unsubscribe from conversations at any time,
+// and every new message in a conversation it subscribes to is sent to it as
+// NEW_MESSAGE_PUSH.
+//
+// Messages are published while the server is handling a request, so
+// publishing never waits on the network. Each subscriber has a bounded queue
+// that its own thread drains onto the connection. A subscriber that falls so
+// far behind that its queue fills up is disconnected rather than letting it
+// hold on to ever more memory; it can reconnect and catch up by fetching.
+final class Subscriptions {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  // The most conversations a single connection may subscribe to.
+  private static final int MAX_CONVERSATIONS = 256;
+
+  // Written to a subscriber's queue to stop its writer.
+  private static final byte[] STOP = new byte[0];
+
+  private final int maxQueued;
+  private final Executor threads = new ThreadPerTaskExecutor("subscriber");
+
+  private final ConcurrentMap<Uuid, Set<Subscriber>> byConversation = new ConcurrentHashMap<>();
+
+  Subscriptions(int maxQueued) {
+    this.maxQueued = maxQueued;
+  }
+
+  // SERVE
+  //
+  // Take over a connection whose first request, of type "firstType", has
+  // already been started. The connection stays open until the client closes
+  // it or falls too far behind.
+  void serve(final Connection connection, final int firstType) {
+
+    final Subscriber subscriber = new Subscriber(connection);
+
+    threads.execute(new Runnable() {
+      @Override
+      public void run() {
+        subscriber.write();
+      }
+    });
+
+    threads.execute(new Runnable() {
+      @Override
+      public void run() {
+        subscriber.read(firstType);
+      }
+    });
+  }
+
+  // PUBLISH
+  //
+  // Send a new message to everyone subscribed to its conversation. The message
+  // is encoded once no matter how many subscribers there are.
+  void publish(Uuid conversation, Message message) {
+
+    final Set<Subscriber> subscribers = byConversation.get(conversation);
+
+    if (subscribers == null || subscribers.isEmpty()) {
+      return;
+    }
+
+    final byte[] push;
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_PUSH);
+      Uuid.SERIALIZER.write(out, conversation);
+      Message.SERIALIZER.write(out, message);
+      push = out.toByteArray();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to encode message for subscribers.");
+      return;
+    }
+
+    for (final Subscriber subscriber : subscribers) {
+      subscriber.send(push);
+    }
+  }
+
+  // The number of connections subscribed to a conversation.
+  int subscribers(Uuid conversation) {
+    final Set<Subscriber> subscribers = byConversation.get(conversation);
+    return subscribers == null ? 0 : subscribers.size();
+  }
+
+  private final class Subscriber {
+
+    private final Connection connection;
+    private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(maxQueued + 1);
+    private final Set<Uuid> conversations = Collections.newSetFromMap(new ConcurrentHashMap<Uuid, Boolean>());
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    Subscriber(Connection connection) {
+      this.connection = connection;
+    }
+
+    // Queue bytes for the writer. The queue has one more slot than a
+    // subscriber may use so that STOP always fits.
+    void send(byte[] bytes) {
+      if (closed.get()) {
+        return;
+      }
+      if (queue.size() >= maxQueued || !queue.offer(bytes)) {
+        LOG.warning("Subscriber fell too far behind. Disconnecting.");
+        close();
+      }
+    }
+
+    void read(int type) {
+      try {
+        while (true) {
+
+          if (type == NetworkCode.SUBSCRIBE_REQUEST) {
+            final Uuid conversation = Uuid.SERIALIZER.read(connection.in());
+            final boolean added = conversations.size() < MAX_CONVERSATIONS && add(conversation);
+            send(reply(NetworkCode.SUBSCRIBE_RESPONSE, added));
+          } else if (type == NetworkCode.UNSUBSCRIBE_REQUEST) {
+            final Uuid conversation = Uuid.SERIALIZER.read(connection.in());
+            send(reply(NetworkCode.UNSUBSCRIBE_RESPONSE, remove(conversation)));
+          } else {
+            LOG.warning("Unexpected request %d on subscription. Disconnecting.", type);
+            break;
+          }
+
+          type = Serializers.INTEGER.read(connection.in());
+        }
+      } catch (EOFException ex) {
+        LOG.info("Subscriber disconnected.");
+      } catch (IOException ex) {
+        if (!closed.get()) {
+          LOG.error(ex, "Exception while reading subscription.");
+        }
+      }
+      close();
+    }
+
+    void write() {
+      try {
+        while (true) {
+          final byte[] next = queue.take();
+          if (next == STOP) {
+            return;
+          }
+          connection.out().write(next);
+          // Send once there is nothing more to go with it.
+          if (queue.isEmpty()) {
+            connection.out().flush();
+          }
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } catch (IOException ex) {
+        if (!closed.get()) {
+          LOG.error(ex, "Exception while writing to subscriber.");
+        }
+      }
+      close();
+    }
+
+    void close() {
+
+      if (!closed.compareAndSet(false, true)) {
+        return;
+      }
+
+      for (final Uuid conversation : conversations) {
+        remove(conversation);
+      }
+
+      queue.clear();
+      queue.offer(STOP);
+
+      // Closing may have to wait for a write to a slow client to finish, and
+      // this can be called while publishing, so do it on another thread.
+      threads.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            connection.close();
+          } catch (IOException ex) {
+            LOG.error(ex, "Exception while closing subscription.");
+          }
+        }
+      });
+    }
+
+    private boolean add(Uuid conversation) {
+      if (conversations.add(conversation)) {
+        Set<Subscriber> subscribers = byConversation.get(conversation);
+        if (subscribers == null) {
+          final Set<Subscriber> created =
+              Collections.newSetFromMap(new ConcurrentHashMap<Subscriber, Boolean>());
+          subscribers = byConversation.putIfAbsent(conversation, created);
+          if (subscribers == null) {
+            subscribers = created;
+          }
+        }
+        subscribers.add(this);
+      }
+      return true;
+    }
+
+    private boolean remove(Uuid conversation) {
+      conversations.remove(conversation);
+      final Set<Subscriber> subscribers = byConversation.get(conversation);
+      return subscribers != null && subscribers.remove(this);
+    }
+  }
+
+  private static byte[] reply(int type, boolean value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, type);
+    Serializers.BOOLEAN.write(out, value);
+    return out.toByteArray();
+  }
+}
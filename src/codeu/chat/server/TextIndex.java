@@ -0,0 +1,252 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.SearchQuery;
+import codeu.chat.util.Uuid;
+
+// TEXT INDEX
+//
+// An inverted index over the words of every message. Each message is given a
+// number in the order it was added, and each word keeps a sorted array of the
+// numbers of the messages it appears in - its postings. A search looks up the
+// postings of its words and combines them rather than reading every message.
+//
+// Like Store, it must not be read while it is being added to; the server's
+// model lock sees to that.
+final class TextIndex {
+
+  // Longer words are cut to this many characters, so that one huge "word"
+  // cannot take up a large key in the index.
+  static final int MAX_TERM_LENGTH = 64;
+
+  // A growable array of message numbers, in increasing order.
+  private static final class Postings {
+
+    int[] numbers = new int[2];
+    int size = 0;
+
+    void add(int number) {
+      if (size == numbers.length) {
+        numbers = Arrays.copyOf(numbers, size * 2);
+      }
+      numbers[size++] = number;
+    }
+
+    boolean contains(int number) {
+      return Arrays.binarySearch(numbers, 0, size, number) >= 0;
+    }
+  }
+
+  private static final Comparator<Postings> SHORTEST_FIRST = new Comparator<Postings>() {
+    @Override
+    public int compare(Postings a, Postings b) {
+      return Integer.compare(a.size, b.size);
+    }
+  };
+
+  private final Map<String, Postings> postings = new HashMap<>();
+
+  // By message number: the message, and the number of its conversation.
+  private final List<Message> messages = new ArrayList<>();
+  private int[] conversationOf = new int[16];
+
+  private final Map<Uuid, Integer> conversationNumbers = new HashMap<>();
+
+  // Message numbers, oldest message first, so the head of a bounded queue is
+  // the one to drop. Messages sent in the same millisecond are ordered by
+  // when they were added.
+  private final Comparator<Integer> oldestFirst = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) {
+      final int order = messages.get(a).creation.compareTo(messages.get(b).creation);
+      return order == 0 ? Integer.compare(a, b) : order;
+    }
+  };
+
+  public void add(Message message, Uuid conversation) {
+
+    final int number = messages.size();
+    messages.add(message);
+
+    Integer conversationNumber = conversationNumbers.get(conversation);
+    if (conversationNumber == null) {
+      conversationNumber = conversationNumbers.size();
+      conversationNumbers.put(conversation, conversationNumber);
+    }
+    if (number == conversationOf.length) {
+      conversationOf = Arrays.copyOf(conversationOf, number * 2);
+    }
+    conversationOf[number] = conversationNumber;
+
+    for (final String term : terms(message.content)) {
+      Postings found = postings.get(term);
+      if (found == null) {
+        found = new Postings();
+        postings.put(term, found);
+      }
+      found.add(number);
+    }
+  }
+
+  // The number of distinct words indexed.
+  public int terms() {
+    return postings.size();
+  }
+
+  // SEARCH
+  //
+  // The newest "query.limit" messages that match "query", newest first.
+  public List<Message> search(SearchQuery query) {
+
+    final Set<String> terms = new LinkedHashSet<>();
+    for (final String term : query.terms) {
+      terms.addAll(terms(term));
+    }
+
+    if (terms.isEmpty() || query.limit <= 0) {
+      return Collections.emptyList();
+    }
+
+    final int conversation;
+    if (Uuid.equals(query.conversation, Uuid.NULL)) {
+      conversation = -1;
+    } else {
+      final Integer found = conversationNumbers.get(query.conversation);
+      if (found == null) {
+        return Collections.emptyList();
+      }
+      conversation = found;
+    }
+
+    final List<Postings> lists = new ArrayList<>();
+    for (final String term : terms) {
+      final Postings found = postings.get(term);
+      if (found != null) {
+        lists.add(found);
+      } else if (query.matchAll) {
+        return Collections.emptyList();
+      }
+    }
+
+    if (lists.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final PriorityQueue<Integer> newest = new PriorityQueue<>(query.limit, oldestFirst);
+
+    if (query.matchAll) {
+      // Walk the shortest list and check the others for each number in it.
+      Collections.sort(lists, SHORTEST_FIRST);
+      final Postings shortest = lists.get(0);
+      for (int i = shortest.size - 1; i >= 0; i--) {
+        final int number = shortest.numbers[i];
+        if (inAll(lists, number)) {
+          offer(newest, query, conversation, number);
+        }
+      }
+    } else {
+      final BitSet matches = new BitSet(messages.size());
+      for (final Postings list : lists) {
+        for (int i = 0; i < list.size; i++) {
+          matches.set(list.numbers[i]);
+        }
+      }
+      for (int number = matches.length() - 1; number >= 0; number = matches.previousSetBit(number - 1)) {
+        offer(newest, query, conversation, number);
+      }
+    }
+
+    final Integer[] numbers = newest.toArray(new Integer[newest.size()]);
+    Arrays.sort(numbers, Collections.reverseOrder(oldestFirst));
+
+    final List<Message> found = new ArrayList<>(numbers.length);
+    for (final int number : numbers) {
+      found.add(messages.get(number));
+    }
+    return found;
+  }
+
+  private static boolean inAll(List<Postings> lists, int number) {
+    for (int i = 1; i < lists.size(); i++) {
+      if (!lists.get(i).contains(number)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Keep message "number" among the newest matches if it is in the right
+  // conversation and time.
+  private void offer(PriorityQueue<Integer> newest, SearchQuery query, int conversation, int number) {
+
+    if (conversation >= 0 && conversationOf[number] != conversation) {
+      return;
+    }
+
+    final Message message = messages.get(number);
+
+    if ((query.from != null && message.creation.compareTo(query.from) < 0) ||
+        (query.to != null && message.creation.compareTo(query.to) > 0)) {
+      return;
+    }
+
+    if (newest.size() < query.limit) {
+      newest.add(number);
+    } else if (oldestFirst.compare(number, newest.peek()) > 0) {
+      newest.poll();
+      newest.add(number);
+    }
+  }
+
+  // TERMS
+  //
+  // The distinct words of "text", in lower case and in the order they first
+  // appear. A word is a run of letters and digits; everything else separates
+  // words.
+  static Set<String> terms(String text) {
+
+    final Set<String> terms = new LinkedHashSet<>();
+    final StringBuilder term = new StringBuilder();
+
+    for (int i = 0; i <= text.length(); i++) {
+      final char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        if (term.length() < MAX_TERM_LENGTH) {
+          term.append(Character.toLowerCase(c));
+        }
+      } else if (term.length() > 0) {
+        terms.add(term.toString());
+        term.setLength(0);
+      }
+    }
+
+    return terms;
+  }
+}
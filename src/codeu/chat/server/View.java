@@ -14,9 +14,14 @@
 
 package codeu.chat.server;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import java.io.IOException;
 
@@ -26,12 +31,16 @@ import codeu.chat.common.ConversationPayload;
 import codeu.chat.common.ConversationInterest;
 import codeu.chat.common.Interest;
 import codeu.chat.common.Message;
+import codeu.chat.common.Page;
+import codeu.chat.common.SearchQuery;
 import codeu.chat.common.SinglesView;
 import codeu.chat.common.User;
 import codeu.chat.common.UserInterest;
 import codeu.chat.common.ServerInfo;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.store.LookupAccessor;
 import codeu.chat.util.store.StoreAccessor;
 
 public final class View implements BasicView, SinglesView {
@@ -64,6 +73,79 @@ public final class View implements BasicView, SinglesView {
     return all(model.conversationById());
   }
 
+  @Override
+  public Page<User> getUsers(Uuid after, int limit) {
+    return page(model.userById(), after, limit, new Key<User>() {
+      @Override
+      public Uuid of(User user) { return user.id; }
+    });
+  }
+
+  @Override
+  public Page<ConversationHeader> getConversations(Uuid after, int limit) {
+    return page(model.conversationById(), after, limit, new Key<ConversationHeader>() {
+      @Override
+      public Uuid of(ConversationHeader conversation) { return conversation.id; }
+    });
+  }
+
+  @Override
+  public Collection<User> getUsersSince(Time from, int skip, int limit) {
+    return since(model.userByTime(), from, skip, limit, new Created<User>() {
+      @Override
+      public Time of(User user) { return user.creation; }
+    });
+  }
+
+  @Override
+  public Collection<ConversationHeader> getConversationsSince(Time from, int skip, int limit) {
+    return since(model.conversationByTime(), from, skip, limit, new Created<ConversationHeader>() {
+      @Override
+      public Time of(ConversationHeader conversation) { return conversation.creation; }
+    });
+  }
+
+  @Override
+  public Collection<User> findUsers(String name, boolean ignoreCase) {
+
+    final Collection<User> found = new ArrayList<>();
+
+    // The index ignores case, so it finds every way of writing the name.
+    for (final User user : model.userByText().at(name)) {
+      if (ignoreCase || user.name.equals(name)) {
+        found.add(user);
+      }
+    }
+
+    return found;
+  }
+
+  @Override
+  public Collection<ConversationHeader> findConversations(String title, boolean prefix, int limit) {
+
+    final Collection<ConversationHeader> found = new ArrayList<>();
+
+    // The index ignores case and is ordered, so every title that starts with
+    // the prefix falls between the prefix and the prefix followed by the
+    // largest character.
+    final Iterable<ConversationHeader> candidates = prefix ?
+        model.conversationByText().range(title, title + Character.MAX_VALUE) :
+        model.conversationByText().at(title);
+
+    for (final ConversationHeader conversation : candidates) {
+      if (found.size() == limit) {
+        break;
+      }
+      if (prefix ?
+          conversation.title.regionMatches(true, 0, title, 0, title.length()) :
+          conversation.title.equals(title)) {
+        found.add(conversation);
+      }
+    }
+
+    return found;
+  }
+
   @Override
   public Collection<ConversationPayload> getConversationPayloads(Collection<Uuid> ids) {
     return intersect(model.conversationPayloadById(), ids);
@@ -74,6 +156,83 @@ public final class View implements BasicView, SinglesView {
     return intersect(model.messageById(), ids);
   }
 
+  @Override
+  public List<Message> getMessageRange(Uuid conversation,
+                                       Uuid start,
+                                       Time from,
+                                       boolean forward,
+                                       int limit) {
+
+    final List<Message> range = new ArrayList<>();
+
+    Message message;
+
+    if (Uuid.equals(start, Uuid.NULL)) {
+
+      final ConversationPayload payload = model.conversationPayloadById().first(conversation);
+
+      if (payload == null) {
+        LOG.warning("Unmapped id %s", conversation);
+        return range;
+      }
+
+      final MessageSequence sequence = model.messagesIn(conversation);
+
+      if (from != null && sequence != null) {
+
+        // Rather than walking past every message on the wrong side of "from",
+        // look up where it falls.
+        message = sequence.get(forward ?
+            sequence.firstAtOrAfter(from) :
+            sequence.lastAtOrBefore(from));
+
+      } else {
+
+        message = model.messageById().first(forward ? payload.firstMessage : payload.lastMessage);
+
+        while (message != null && from != null && (forward ?
+               message.creation.compareTo(from) < 0 :
+               message.creation.compareTo(from) > 0)) {
+          message = step(message, forward);
+        }
+      }
+
+    } else {
+      message = model.messageById().first(start);
+    }
+
+    while (message != null && range.size() < limit) {
+      range.add(message);
+      message = step(message, forward);
+    }
+
+    return range;
+  }
+
+  @Override
+  public int getMessageCount(Uuid conversation) {
+    final MessageSequence sequence = model.messagesIn(conversation);
+    return sequence == null ? 0 : sequence.size();
+  }
+
+  @Override
+  public List<Message> getMessagesByIndex(Uuid conversation, int first, int limit) {
+
+    final MessageSequence sequence = model.messagesIn(conversation);
+
+    if (sequence == null) {
+      LOG.warning("Unmapped id %s", conversation);
+      return new ArrayList<>();
+    }
+
+    return sequence.slice(first, limit);
+  }
+
+  @Override
+  public List<Message> searchMessages(SearchQuery query) {
+    return model.messageText().search(query);
+  }
+
   @Override
   public ServerInfo getInfo(){
     return info;
@@ -102,23 +261,96 @@ public final class View implements BasicView, SinglesView {
   @Override
   public ConversationInterest findConversationInterest(Uuid id) { return model.conversationInterestById().first(id); }
 
-  private static <S,T> Collection<T> all(StoreAccessor<S,T> store) {
+  private Message step(Message message, boolean forward) {
+    return model.messageById().first(forward ? message.next : message.previous);
+  }
+
+  // A view of everything in "store" rather than a copy of it, so that a
+  // listing can be written straight from the store's links. It reads the store
+  // as it is when iterated, so it must be used before the model's lock is let
+  // go.
+  private static <S,T> Collection<T> all(final StoreAccessor<S,T> store) {
+
+    return new AbstractCollection<T>() {
+
+      @Override
+      public Iterator<T> iterator() {
+        return store.all().iterator();
+      }
+
+      @Override
+      public int size() {
+        return store.size();
+      }
+    };
+  }
+
+  private interface Key<T> {
+    Uuid of(T value);
+  }
+
+  // Read one page from a store ordered by id. Ids may be negative, so NULL
+  // is not the smallest id and the first page has to start from the front.
+  // "after" finds the first id that is not less than the cursor, so skip the
+  // cursor itself. Reading one value past the limit tells whether there is
+  // another page.
+  private static <T> Page<T> page(StoreAccessor<Uuid, T> store, Uuid after, int limit, Key<T> key) {
 
-    final Collection<T> all = new ArrayList<>();
+    final List<T> found = new ArrayList<>();
 
-    for (final T value : store.all()) {
-        all.add(value);
+    final Iterable<T> values = Uuid.equals(after, Uuid.NULL) ? store.all() : store.after(after);
+
+    for (final T value : values) {
+      if (Uuid.equals(key.of(value), after)) {
+        continue;
+      }
+      if (found.size() == limit) {
+        return new Page<>(found, key.of(found.get(found.size() - 1)));
+      }
+      found.add(value);
     }
 
-    return all;
+    return new Page<>(found, Uuid.NULL);
   }
 
-  private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
+  private interface Created<T> {
+    Time of(T value);
+  }
+
+  // Read up to "limit" values from a store ordered by creation time. Values
+  // created at the same time are kept in the order they were added, and those
+  // at exactly "from" come first, so the first "skip" of them are the ones
+  // the caller already has.
+  private static <T> Collection<T> since(StoreAccessor<Time, T> store,
+                                         Time from,
+                                         int skip,
+                                         int limit,
+                                         Created<T> created) {
+
+    final Collection<T> found = new ArrayList<>();
+    int skipped = 0;
+
+    for (final T value : from == null ? store.all() : store.after(from)) {
+      if (skipped < skip && from != null && created.of(value).compareTo(from) == 0) {
+        skipped++;
+        continue;
+      }
+      if (found.size() == limit) {
+        break;
+      }
+      found.add(value);
+    }
+
+    return found;
+  }
 
-    // Use a set to hold the found users as this will prevent duplicate ids from
-    // yielding duplicates in the result.
+  // Look up each of "ids" in the order they were asked for. Ids that are not
+  // in the store are skipped, as are ids that were already asked for - the
+  // set is of the values found, which the store holds only once each.
+  private static <T> Collection<T> intersect(LookupAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
-    final Collection<T> found = new HashSet<>();
+    final List<T> found = new ArrayList<>(ids.size());
+    final Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>(ids.size()));
 
     for (final Uuid id : ids) {
 
@@ -126,8 +358,8 @@ public final class View implements BasicView, SinglesView {
 
       if (t == null) {
         LOG.warning("Unmapped id %s", id);
-      } else if (found.add(t)) {
-        // do nothing
+      } else if (seen.add(t)) {
+        found.add(t);
       } else {
         LOG.warning("Duplicate id %s", id);
       }
@@ -0,0 +1,244 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// COMPACT SERIALIZERS
+//
+// The v2 wire encodings. They carry the same values as Serializers but spend
+// fewer bytes on them:
+//
+//   - Lengths and counts are LEB128 varints: seven bits per byte, low bits
+//     first, with the top bit set on every byte but the last. Anything under
+//     128 takes a single byte instead of four.
+//   - Signed values that are usually small, such as the gap between two
+//     times, are zig-zag encoded first so that small negative numbers stay
+//     small too.
+//   - A Uuid that shares its root with a known "base" Uuid is sent as just
+//     its last link.
+//
+// Only use these with a peer that has agreed to them.
+public final class CompactSerializers {
+
+  // Values under this take one byte as a varint.
+  private static final int SEVEN_BITS = 0x7F;
+
+  // Tags for a Uuid relative to a base.
+  private static final int UUID_NULL = 0;
+  private static final int UUID_UNDER_BASE = 1;
+  private static final int UUID_FULL = 2;
+
+  // An int as an unsigned varint. Negative values take five bytes.
+  public static final Serializer<Integer> VARINT = new Serializer<Integer>() {
+
+    @Override
+    public void write(OutputStream out, Integer value) throws IOException {
+      writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public Integer read(InputStream in) throws IOException {
+      final long value = readVarLong(in);
+      if ((value >>> 32) != 0) {
+        throw new IOException("Varint is too large for an int.");
+      }
+      return (int) value;
+    }
+  };
+
+  // A long as a zig-zag varint, for values that may be negative.
+  public static final Serializer<Long> ZIGZAG = new Serializer<Long>() {
+
+    @Override
+    public void write(OutputStream out, Long value) throws IOException {
+      writeVarLong(out, zigZag(value));
+    }
+
+    @Override
+    public Long read(InputStream in) throws IOException {
+      return unZigZag(readVarLong(in));
+    }
+  };
+
+  public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+
+    @Override
+    public void write(OutputStream out, byte[] value) throws IOException {
+      VARINT.write(out, value.length);
+      out.write(value);
+    }
+
+    @Override
+    public byte[] read(InputStream in) throws IOException {
+
+      return Serializers.readBytes(in, VARINT.read(in));
+    }
+  };
+
+  // Always UTF-8, whatever the platform's default charset is.
+  public static final Serializer<String> STRING = new Serializer<String>() {
+
+    @Override
+    public void write(OutputStream out, String value) throws IOException {
+      BYTES.write(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String read(InputStream in) throws IOException {
+      return new String(BYTES.read(in), StandardCharsets.UTF_8);
+    }
+  };
+
+  public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
+
+    return new Serializer<Collection<T>>() {
+
+      @Override
+      public void write(OutputStream out, Collection<T> value) throws IOException {
+        VARINT.write(out, value.size());
+        for (final T x : value) {
+          serializer.write(out, x);
+        }
+      }
+
+      @Override
+      public Collection<T> read(InputStream in) throws IOException {
+        final int size = VARINT.read(in);
+        final Collection<T> list = new ArrayList<>(Serializers.capacity(size));
+        for (int i = 0; i < size; i++) {
+          list.add(serializer.read(in));
+        }
+        return list;
+      }
+    };
+  }
+
+  // UUID
+  //
+  // Uuids made by one server all share the server's id as their root, so
+  // within a batch of values from one server only their last link differs.
+  // Given the same "base" on both ends, a Uuid with the same root as "base" is
+  // sent as a tag and its last link - five bytes where the full chain of a
+  // typical id takes thirteen. Any other Uuid, and null, is sent in full.
+  public static Serializer<Uuid> uuid(final Uuid base) {
+
+    return new Serializer<Uuid>() {
+
+      @Override
+      public void write(OutputStream out, Uuid value) throws IOException {
+
+        if (value == null) {
+          out.write(UUID_NULL);
+          return;
+        }
+
+        if (base != null && value.root() != null && Uuid.related(value, base)) {
+          out.write(UUID_UNDER_BASE);
+          Serializers.INTEGER.write(out, value.id());
+          return;
+        }
+
+        out.write(UUID_FULL);
+        int length = 0;
+        for (Uuid current = value; current != null; current = current.root()) {
+          length += 1;
+        }
+        VARINT.write(out, length);
+        for (Uuid current = value; current != null; current = current.root()) {
+          Serializers.INTEGER.write(out, current.id());
+        }
+      }
+
+      @Override
+      public Uuid read(InputStream in) throws IOException {
+
+        final int tag = in.read();
+
+        if (tag == UUID_NULL) {
+          return null;
+        }
+
+        if (tag == UUID_UNDER_BASE) {
+          if (base == null) {
+            throw new IOException("Uuid refers to a base that was not given.");
+          }
+          return new Uuid(base.root(), Serializers.INTEGER.read(in));
+        }
+
+        if (tag == UUID_FULL) {
+          final int length = VARINT.read(in);
+          if (length < 0 || length > 255) {
+            throw new IOException("Bad Uuid chain length " + length);
+          }
+          final int[] chain = new int[length];
+          for (int i = 0; i < length; i++) {
+            chain[i] = Serializers.INTEGER.read(in);
+          }
+          Uuid head = null;
+          for (int i = length - 1; i >= 0; i--) {
+            head = new Uuid(head, chain[i]);
+          }
+          return head;
+        }
+
+        if (tag < 0) {
+          throw new EOFException();
+        }
+
+        throw new IOException("Unknown Uuid tag " + tag);
+      }
+    };
+  }
+
+  public static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~SEVEN_BITS) != 0) {
+      out.write((int) (value & SEVEN_BITS) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  public static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int next = in.read();
+      if (next < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (next & SEVEN_BITS) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint is longer than ten bytes.");
+  }
+
+  // Map signed values onto unsigned ones so that values near zero, negative
+  // or not, stay small: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...
+  public static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  public static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
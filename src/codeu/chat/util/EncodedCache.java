@@ -0,0 +1,137 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// ENCODED CACHE
+//
+// Keeps the encoded bytes of values that never change so that a value read
+// thousands of times is only encoded once. Each value owns a Slot for its
+// bytes; the cache decides what is kept in them. The bytes kept across every
+// slot stay under a budget: once a new entry goes over it, the oldest entries
+// are dropped until it fits again, and their values go back to being encoded
+// on each write until they are cached again.
+public final class EncodedCache {
+
+  public static final long DEFAULT_BUDGET = 16L * 1024 * 1024;
+
+  // The cache used by the wire serializers.
+  public static final EncodedCache SHARED = new EncodedCache(DEFAULT_BUDGET);
+
+  // SLOT
+  //
+  // Where a value's bytes are kept while they are cached. Empty when they
+  // are not.
+  public static final class Slot {
+    private final AtomicReference<byte[]> bytes = new AtomicReference<>();
+  }
+
+  // WRITER
+  //
+  // Writes the fields of a value that are worth caching. Unlike a Serializer
+  // it is never asked to read them back.
+  public interface Writer<T> {
+    void write(OutputStream out, T value) throws IOException;
+  }
+
+  private final ConcurrentLinkedQueue<Slot> order = new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong used = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private volatile long budget;
+
+  public EncodedCache(long budget) {
+    budget(budget);
+  }
+
+  // Change the budget. Zero turns caching off.
+  public void budget(long budget) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Budget cannot be negative.");
+    }
+    this.budget = budget;
+    trim();
+  }
+
+  public long budget() { return budget; }
+
+  // The number of bytes cached right now.
+  public long used() { return used.get(); }
+
+  public long hits() { return hits.get(); }
+
+  public long misses() { return misses.get(); }
+
+  public long evictions() { return evictions.get(); }
+
+  // ENCODE
+  //
+  // The bytes "writer" writes for "value", from "slot" if they are there and
+  // otherwise encoded now and offered to the cache. The caller must not change
+  // the array it is given.
+  public <T> byte[] encode(Slot slot, T value, Writer<T> writer) throws IOException {
+
+    final byte[] cached = slot.bytes.get();
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+
+    misses.incrementAndGet();
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(out, value);
+    final byte[] encoded = out.toByteArray();
+
+    // Another thread may have cached the same value in the meantime, in which
+    // case its copy is the one kept and counted.
+    if (encoded.length <= budget && slot.bytes.compareAndSet(null, encoded)) {
+      used.addAndGet(encoded.length);
+      order.add(slot);
+      trim();
+    }
+
+    return encoded;
+  }
+
+  // Drop the oldest entries until the cache is within its budget.
+  private void trim() {
+    while (used.get() > budget) {
+      final Slot oldest = order.poll();
+      if (oldest == null) {
+        return;
+      }
+      final byte[] dropped = oldest.bytes.getAndSet(null);
+      if (dropped != null) {
+        used.addAndGet(-dropped.length);
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d of %d bytes, %d hits, %d misses and %d evictions",
+                         used(), budget, hits(), misses(), evictions());
+  }
+}
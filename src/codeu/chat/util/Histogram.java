@@ -0,0 +1,119 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// HISTOGRAM
+//
+// Counts how often values of each size are recorded, so that percentiles can
+// be read back without keeping every value. Recording is a couple of atomic
+// increments, so it is cheap enough to do on every request and never blocks.
+//
+// Values are counted in buckets whose width grows with their size: every
+// power of two is split into SUB_BUCKETS equal parts. A percentile is reported
+// as the largest value in its bucket, which is never more than 1/SUB_BUCKETS
+// (12.5%) above the true value. Values below SUB_BUCKETS are counted exactly.
+//
+// A reading taken while values are being recorded may miss the newest of
+// them, but is never torn in a way that matters for monitoring.
+public final class Histogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Enough buckets for every positive long.
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  // Negative values are recorded as zero.
+  public void record(long value) {
+
+    value = Math.max(0, value);
+
+    counts.incrementAndGet(bucket(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public long mean() {
+    final long recorded = count.get();
+    return recorded == 0 ? 0 : total.get() / recorded;
+  }
+
+  // PERCENTILE
+  //
+  // The value that "percentile" percent of the recorded values are at or
+  // below, e.g. 99.9 for p999. Zero if nothing has been recorded.
+  public long percentile(double percentile) {
+
+    final long recorded = count.get();
+
+    if (recorded == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100.0));
+
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return Math.min(highest(bucket), max.get());
+      }
+    }
+
+    // Values were recorded after "count" was read.
+    return max.get();
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = magnitude - SUB_BUCKET_BITS;
+    final int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + sub;
+  }
+
+  // The largest value counted in "bucket".
+  static long highest(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
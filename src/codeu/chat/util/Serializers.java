@@ -14,14 +14,19 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 public final class Serializers {
 
+  // The most room set aside for a value before any of it has been read.
+  private static final int INITIAL_CAPACITY = 8 * 1024;
+
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
 
     @Override
@@ -52,7 +57,7 @@ public final class Serializers {
       int value = 0;
 
       for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | readByte(in);
       }
 
       return value;
@@ -77,7 +82,7 @@ public final class Serializers {
       long value = 0;
 
       for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
+        value = (value << 8) | readByte(in);
       }
 
       return value;
@@ -98,14 +103,7 @@ public final class Serializers {
     @Override
     public byte[] read(InputStream input) throws IOException {
 
-      final int length = INTEGER.read(input);
-      final byte[] array = new byte[length];
-
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
-      }
-
-      return array;
+      return readBytes(input, INTEGER.read(input));
 
     }
   };
@@ -127,6 +125,58 @@ public final class Serializers {
     }
   };
 
+  // Read a single byte, treating the end of the stream as an error. Without
+  // this a closed connection reads as a stream of -1s and is decoded as
+  // garbage rather than being reported.
+  private static int readByte(InputStream in) throws IOException {
+    final int value = in.read();
+    if (value < 0) {
+      throw new EOFException();
+    }
+    return value;
+  }
+
+  // READ BYTES
+  //
+  // Read "length" bytes that the other end said were coming. The length is
+  // whatever the other end sent, so the array grows as the bytes arrive rather
+  // than being made that long up front - a bad length then costs no more memory
+  // than the bytes that were really sent. Reads take as much as the stream has
+  // ready each time rather than a byte at a time.
+  static byte[] readBytes(InputStream input, int length) throws IOException {
+
+    if (length < 0) {
+      throw new IOException("Invalid length " + length);
+    }
+
+    byte[] array = new byte[Math.min(length, Math.max(input.available(), INITIAL_CAPACITY))];
+
+    int read = 0;
+    while (read < length) {
+      if (read == array.length) {
+        array = Arrays.copyOf(array, (int) Math.min(length, 2L * array.length));
+      }
+      final int count = input.read(array, read, array.length - read);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      read += count;
+    }
+
+    return array;
+  }
+
+  // CAPACITY
+  //
+  // How much room to set aside for a collection the other end said has "size"
+  // values. As with lengths, the size is not trusted until the values arrive.
+  public static int capacity(int size) throws IOException {
+    if (size < 0) {
+      throw new IOException("Invalid size " + size);
+    }
+    return Math.min(size, INITIAL_CAPACITY);
+  }
+
   public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
 
     return new Serializer<Collection<T>>() {
@@ -142,7 +192,7 @@ public final class Serializers {
       @Override
       public Collection<T> read(InputStream in) throws IOException {
         final int size = INTEGER.read(in);
-        Collection<T> list = new ArrayList<>(size);
+        Collection<T> list = new ArrayList<>(capacity(size));
         for (int i = 0; i < size; i++) {
           list.add(serializer.read(in));
         }
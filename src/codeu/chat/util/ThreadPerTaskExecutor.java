@@ -0,0 +1,87 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+
+// THREAD PER TASK EXECUTOR
+//
+// Runs every task on a new thread of its own. This lets blocking code - such
+// as a connection handler reading with Serializers - run side by side without
+// having to be rewritten.
+//
+// When the JVM supports virtual threads (JDK 21 and later) they are used, so a
+// blocked task costs very little. Older JVMs fall back to ordinary daemon
+// threads. The virtual thread API is reached through reflection so that the
+// code still builds for older JVMs.
+public final class ThreadPerTaskExecutor implements Executor {
+
+  private final static Logger.Log LOG = Logger.newLog(ThreadPerTaskExecutor.class);
+
+  private final String name;
+
+  // Set when virtual threads are available.
+  private final Object builder;
+  private final Method start;
+
+  public ThreadPerTaskExecutor(String name) {
+
+    this.name = name;
+
+    Object builder = null;
+    Method start = null;
+
+    try {
+      // Methods are looked up on the public Thread.Builder interface rather
+      // than on the builder's own class, which is not accessible.
+      final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+      start = builderClass.getMethod("start", Runnable.class);
+    } catch (Exception ex) {
+      LOG.info("Virtual threads are not available. Using platform threads.");
+      builder = null;
+      start = null;
+    }
+
+    this.builder = builder;
+    this.start = start;
+  }
+
+  // VIRTUAL
+  //
+  // Whether tasks are run on virtual threads.
+  public boolean virtual() {
+    return builder != null;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+
+    if (builder != null) {
+      try {
+        start.invoke(builder, task);
+        return;
+      } catch (Exception ex) {
+        LOG.error(ex, "Failed to start virtual thread. Using a platform thread.");
+      }
+    }
+
+    final Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
@@ -15,8 +15,7 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 
 // CLIENT CONNECTION SOURCE
@@ -24,42 +23,37 @@ import java.net.Socket;
 // Implements the ConnectionSource interface for clients who know what
 // port on the host they will be connecting to.Calls to "connect" will
 // block until a connection is established or timeout.
+//
+// With deadlines, the idle deadline is how long to wait for the server to
+// start answering and connecting may take no longer than it either.
 public final class ClientConnectionSource implements ConnectionSource {
 
   private final String host;
   private final int port;
+  private final Deadlines deadlines;
 
   public ClientConnectionSource(String host, int port) {
+    this(host, port, Deadlines.none());
+  }
+
+  public ClientConnectionSource(String host, int port, Deadlines deadlines) {
     this.host = host;
     this.port = port;
+    this.deadlines = deadlines;
   }
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(new Socket(host, port));
+    final Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(host, port), deadlines.idleMs());
+    } catch (IOException ex) {
+      socket.close();
+      throw ex;
+    }
+    return new SocketConnection(socket, deadlines);
   }
 
   @Override
   public void close() throws IOException { }
-
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
 }
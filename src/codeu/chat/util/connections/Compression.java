@@ -0,0 +1,300 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// COMPRESSION
+//
+// Compresses frame bodies on a session whose two ends have agreed to it. Each
+// body is sent with a leading flag byte: 0 for a body sent as is and 1 for a
+// deflated body, which is followed by its original length. Bodies smaller than
+// COMPRESS_FROM_BYTES are never worth deflating and are sent as is, as is any
+// body that deflating would not make smaller.
+//
+// When "prime" is on, each body is deflated with the most recent bodies sent
+// the same way as a preset dictionary. Chat traffic repeats itself a lot (the
+// same users, conversations and words), so this helps most with small bodies
+// that have little repetition of their own. Both ends keep the same window as
+// bodies are written and read in the same order.
+//
+// One end encodes and the other decodes, and each direction on a session has
+// its own window, so "encode" and "decode" may be called by different threads
+// but neither may be called by two threads at once. The deflater and inflater
+// are not ended explicitly, as a session may still be writing a frame when it
+// is closed; they are freed when the session is collected.
+public final class Compression {
+
+  // Bodies smaller than this are sent as is.
+  public static final int COMPRESS_FROM_BYTES = 256;
+
+  // The largest body a deflated frame may claim to hold, the same as the
+  // largest request the reactor takes. The length is sent by the other end, so
+  // anything more is taken to be garbage rather than made room for.
+  public static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+  // How much recent traffic primes the dictionary. Deflate cannot look
+  // further back than this.
+  private static final int DICTIONARY_BYTES = 32 * 1024;
+
+  private static final byte RAW = 0;
+  private static final byte DEFLATED = 1;
+
+  private final boolean enabled;
+  private final boolean prime;
+  private final Stats stats;
+
+  private final Deflater deflater;
+  private final Inflater inflater;
+
+  private byte[] sent = new byte[0];
+  private byte[] received = new byte[0];
+
+  private Compression(boolean enabled, boolean prime, Stats stats) {
+    this.enabled = enabled;
+    this.prime = prime;
+    this.stats = stats;
+    this.deflater = enabled ? new Deflater() : null;
+    this.inflater = enabled ? new Inflater() : null;
+  }
+
+  // Compression for a session whose two ends have agreed to it. Every body is
+  // counted in "stats".
+  public static Compression negotiated(boolean prime, Stats stats) {
+    return new Compression(true, prime, stats);
+  }
+
+  // No compression. Bodies pass through untouched and without a flag byte.
+  public static Compression none() {
+    return new Compression(false, false, new Stats());
+  }
+
+  public boolean enabled() {
+    return enabled;
+  }
+
+  public boolean primed() {
+    return prime;
+  }
+
+  public byte[] encode(byte[] body) throws IOException {
+
+    if (!enabled) {
+      return body;
+    }
+
+    final long start = System.nanoTime();
+
+    byte[] encoded = null;
+
+    if (body.length >= COMPRESS_FROM_BYTES) {
+
+      deflater.reset();
+      if (prime && sent.length > 0) {
+        deflater.setDictionary(sent);
+      }
+      deflater.setInput(body);
+      deflater.finish();
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+      out.write(DEFLATED);
+      writeInt(out, body.length);
+
+      final byte[] buffer = new byte[4096];
+      while (!deflater.finished() && out.size() <= body.length) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+
+      if (deflater.finished() && out.size() <= body.length) {
+        encoded = out.toByteArray();
+      }
+    }
+
+    if (encoded == null) {
+      encoded = new byte[body.length + 1];
+      encoded[0] = RAW;
+      System.arraycopy(body, 0, encoded, 1, body.length);
+    }
+
+    if (prime) {
+      sent = window(sent, body);
+    }
+
+    stats.record(body.length, encoded.length, encoded[0] == DEFLATED, System.nanoTime() - start);
+
+    return encoded;
+  }
+
+  public byte[] decode(byte[] encoded) throws IOException {
+
+    if (!enabled) {
+      return encoded;
+    }
+
+    if (encoded.length == 0) {
+      throw new IOException("Missing compression flag.");
+    }
+
+    final long start = System.nanoTime();
+
+    final byte[] body;
+
+    if (encoded[0] == RAW) {
+
+      body = new byte[encoded.length - 1];
+      System.arraycopy(encoded, 1, body, 0, body.length);
+
+    } else if (encoded[0] == DEFLATED && encoded.length >= 5) {
+
+      final int length = readInt(encoded, 1);
+      if (length < 0 || length > MAX_BODY_BYTES) {
+        throw new IOException("Bad compressed length " + length);
+      }
+
+      // Grow the body as it is inflated rather than trusting the length up
+      // front, so a frame that claims far more than it holds costs no more
+      // than what it really inflates to.
+      byte[] inflated = new byte[Math.min(length, Math.max(4096, 4 * encoded.length))];
+
+      inflater.reset();
+      inflater.setInput(encoded, 5, encoded.length - 5);
+
+      try {
+        boolean primed = false;
+        int read = 0;
+        while (read < length) {
+          if (read == inflated.length) {
+            inflated = Arrays.copyOf(inflated, (int) Math.min(length, 2L * inflated.length));
+          }
+          final int count = inflater.inflate(inflated, read, inflated.length - read);
+          if (count == 0) {
+            if (inflater.needsDictionary() && prime && !primed) {
+              try {
+                inflater.setDictionary(received);
+              } catch (IllegalArgumentException ex) {
+                throw new IOException("Compression dictionaries do not match.", ex);
+              }
+              primed = true;
+            } else {
+              throw new IOException("Compressed body is shorter than its length.");
+            }
+          }
+          read += count;
+        }
+      } catch (DataFormatException ex) {
+        throw new IOException("Malformed compressed body.", ex);
+      }
+
+      body = inflated;
+
+    } else {
+      throw new IOException("Unknown compression flag " + encoded[0]);
+    }
+
+    if (prime) {
+      received = window(received, body);
+    }
+
+    stats.record(body.length, encoded.length, encoded[0] == DEFLATED, System.nanoTime() - start);
+
+    return body;
+  }
+
+  // Keep the last DICTIONARY_BYTES of everything passed through.
+  private static byte[] window(byte[] window, byte[] body) {
+
+    if (body.length >= DICTIONARY_BYTES) {
+      final byte[] next = new byte[DICTIONARY_BYTES];
+      System.arraycopy(body, body.length - DICTIONARY_BYTES, next, 0, DICTIONARY_BYTES);
+      return next;
+    }
+
+    final int keep = Math.min(window.length, DICTIONARY_BYTES - body.length);
+    final byte[] next = new byte[keep + body.length];
+    System.arraycopy(window, window.length - keep, next, 0, keep);
+    System.arraycopy(body, 0, next, keep, body.length);
+    return next;
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) << 24 |
+           (bytes[offset + 1] & 0xFF) << 16 |
+           (bytes[offset + 2] & 0xFF) << 8 |
+           (bytes[offset + 3] & 0xFF);
+  }
+
+  // STATS
+  //
+  // How well compression is doing and what it costs. Shared by every session
+  // it is given to.
+  public static final class Stats {
+
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong deflatedFrames = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong wireBytes = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    void record(int raw, int wire, boolean deflated, long elapsedNanos) {
+      frames.incrementAndGet();
+      if (deflated) {
+        deflatedFrames.incrementAndGet();
+      }
+      rawBytes.addAndGet(raw);
+      wireBytes.addAndGet(wire);
+      nanos.addAndGet(elapsedNanos);
+    }
+
+    public long frames() { return frames.get(); }
+
+    public long deflatedFrames() { return deflatedFrames.get(); }
+
+    // Bytes before compression.
+    public long rawBytes() { return rawBytes.get(); }
+
+    // Bytes actually sent or received.
+    public long wireBytes() { return wireBytes.get(); }
+
+    // Time spent compressing and decompressing.
+    public long cpuMs() { return TimeUnit.NANOSECONDS.toMillis(nanos.get()); }
+
+    // Bytes sent for every byte of original data. Lower is better.
+    public double ratio() {
+      final long raw = rawBytes.get();
+      return raw == 0 ? 1.0 : (double) wireBytes.get() / raw;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%d frames (%d deflated), %d bytes as %d (ratio %.2f), %d ms",
+          frames(), deflatedFrames(), rawBytes(), wireBytes(), ratio(), cpuMs());
+    }
+  }
+}
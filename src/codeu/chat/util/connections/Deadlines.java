@@ -0,0 +1,152 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Logger;
+
+// DEADLINES
+//
+// How long a socket connection may wait on the other side before it is given
+// up on and closed. Without them a client that connects and sends half a
+// request holds whichever thread is reading from it for good. A value of zero
+// means no deadline.
+//
+//   idle  : how long to wait for the other side to start sending, counted
+//           from when the connection was opened or last written to.
+//   read  : how long the rest may take once the first bytes have arrived.
+//   write : how long a single write may block, e.g. on a client that has
+//           stopped reading its responses.
+//
+// Every connection from a source shares the source's deadlines and counts its
+// timeouts in them.
+public final class Deadlines {
+
+  private final static Logger.Log LOG = Logger.newLog(Deadlines.class);
+
+  // Closes connections whose writes have taken too long. Blocking writes
+  // cannot time out by themselves. Nearly every watch is cancelled long before
+  // it is due, so cancelled watches are taken out of the queue right away
+  // rather than holding on to their sockets until the deadline passes.
+  private static final ScheduledThreadPoolExecutor WATCHDOG = newWatchdog();
+
+  private static ScheduledThreadPoolExecutor newWatchdog() {
+    final ScheduledThreadPoolExecutor watchdog =
+        new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "write-deadlines");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    watchdog.setRemoveOnCancelPolicy(true);
+    return watchdog;
+  }
+
+  private final int readMs;
+  private final int writeMs;
+  private final int idleMs;
+
+  private final AtomicLong readTimeouts = new AtomicLong();
+  private final AtomicLong writeTimeouts = new AtomicLong();
+  private final AtomicLong idleTimeouts = new AtomicLong();
+
+  public Deadlines(int readMs, int writeMs, int idleMs) {
+    if (readMs < 0 || writeMs < 0 || idleMs < 0) {
+      throw new IllegalArgumentException("Deadlines cannot be negative.");
+    }
+    this.readMs = readMs;
+    this.writeMs = writeMs;
+    this.idleMs = idleMs;
+  }
+
+  public static Deadlines none() {
+    return new Deadlines(0, 0, 0);
+  }
+
+  public int readMs() { return readMs; }
+
+  public int writeMs() { return writeMs; }
+
+  public int idleMs() { return idleMs; }
+
+  boolean any() {
+    return readMs > 0 || writeMs > 0 || idleMs > 0;
+  }
+
+  // The number of connections closed for each kind of deadline.
+  public long readTimeouts() { return readTimeouts.get(); }
+
+  public long writeTimeouts() { return writeTimeouts.get(); }
+
+  public long idleTimeouts() { return idleTimeouts.get(); }
+
+  void countRead() { readTimeouts.incrementAndGet(); }
+
+  void countIdle() { idleTimeouts.incrementAndGet(); }
+
+  void countWrite() { writeTimeouts.incrementAndGet(); }
+
+  // WATCH WRITE
+  //
+  // Close "connection" if the write about to start has not finished within
+  // the write deadline. The caller cancels the result once it has.
+  ScheduledFuture<?> watchWrite(final Closeable connection) {
+    return WATCHDOG.schedule(new Runnable() {
+      @Override
+      public void run() {
+        writeTimeouts.incrementAndGet();
+        LOG.warning("Closing connection after a write took over %d ms.", writeMs);
+        try {
+          connection.close();
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while closing connection.");
+        }
+      }
+    }, writeMs, TimeUnit.MILLISECONDS);
+  }
+
+  // The number of write watches still waiting to fire.
+  static int pendingWatches() {
+    return WATCHDOG.getQueue().size();
+  }
+
+  // LIFT
+  //
+  // Stop enforcing the read and idle deadlines on a connection that has
+  // become long-lived and has a thread of its own to read it, such as a
+  // session or a subscription. Those are quiet for as long as their user is.
+  // The write deadline still applies so that a client that stops reading
+  // cannot hold up whoever is writing to it.
+  public static void lift(Connection connection) {
+    if (connection instanceof SocketConnection) {
+      ((SocketConnection) connection).liftReadDeadlines();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d read, %d write and %d idle timeouts",
+                         readTimeouts(), writeTimeouts(), idleTimeouts());
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+
+// FRAME
+//
+// A single request or response inside a session. The body is exactly what
+// would have been sent over a connection of its own. The id is picked by the
+// client and echoed back by the server so that responses can be matched to
+// their requests even when several requests are in flight on one connection
+// and are answered out of order.
+public final class Frame {
+
+  public static final Serializer<Frame> SERIALIZER = new Serializer<Frame>() {
+
+    @Override
+    public void write(OutputStream out, Frame value) throws IOException {
+      Serializers.INTEGER.write(out, value.id);
+      Serializers.BYTES.write(out, value.body);
+    }
+
+    @Override
+    public Frame read(InputStream in) throws IOException {
+      return new Frame(
+          Serializers.INTEGER.read(in),
+          Serializers.BYTES.read(in)
+      );
+    }
+  };
+
+  public final int id;
+  public final byte[] body;
+
+  public Frame(int id, byte[] body) {
+    this.id = id;
+    this.body = body;
+  }
+}
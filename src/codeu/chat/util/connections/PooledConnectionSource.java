@@ -0,0 +1,254 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Logger;
+
+// POOLED CONNECTION SOURCE
+//
+// Keeps connections open between requests instead of paying for a new socket
+// each time. Every pooled socket is carried by a SessionConnectionSource of its
+// own, so the server serves request after request on it and a socket that the
+// other side drops is noticed by the session and replaced on its next use. A
+// connection handed out by the pool carries one request; closing it returns
+// the socket to the pool.
+//
+//   - At most "maxSize" sockets are ever open. Callers wait for one to be
+//     returned once they are all in use.
+//   - Sockets that sit idle for longer than "idleTimeoutMs" are closed.
+//
+// If the other side does not support sessions, each pooled session steps
+// aside and every call opens a new connection as before.
+public final class PooledConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(PooledConnectionSource.class);
+
+  private static final class Pooled {
+
+    final SessionConnectionSource session;
+    long lastUsed = System.currentTimeMillis();
+
+    Pooled(SessionConnectionSource session) {
+      this.session = session;
+    }
+  }
+
+  private final ConnectionSource source;
+  private final int openRequest;
+  private final int openResponse;
+  private final long idleTimeoutMs;
+  private final Semaphore permits;
+
+  // Every pooled session opens its socket through this, and closing a session
+  // must not close the source the others share.
+  private final ConnectionSource shared = new ConnectionSource() {
+    @Override
+    public Connection connect() throws IOException {
+      return source.connect();
+    }
+
+    @Override
+    public void close() { }
+  };
+
+  // Most recently returned last, so the warmest socket is reused first and
+  // the coldest ones are left to time out. Guarded by "this".
+  private final Deque<Pooled> idle = new ArrayDeque<>();
+
+  private volatile boolean closed = false;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+
+  // Sessions are opened with "openRequest", expecting "openResponse" back
+  // (see SessionConnectionSource).
+  public PooledConnectionSource(ConnectionSource source,
+                                int openRequest,
+                                int openResponse,
+                                int maxSize,
+                                long idleTimeoutMs) {
+    this.source = source;
+    this.openRequest = openRequest;
+    this.openResponse = openResponse;
+    this.idleTimeoutMs = idleTimeoutMs;
+    this.permits = new Semaphore(Math.max(1, maxSize), true);
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    if (closed) {
+      throw new IOException("Connection source has been closed.");
+    }
+
+    final long start = System.nanoTime();
+    try {
+      permits.acquire();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection.");
+    }
+    waitNanos.addAndGet(System.nanoTime() - start);
+
+    Pooled pooled = borrow();
+
+    if (pooled != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      pooled = new Pooled(new SessionConnectionSource(shared, openRequest, openResponse));
+    }
+
+    try {
+      return new Lease(pooled, pooled.session.connect());
+    } catch (IOException | RuntimeException ex) {
+      discard(pooled);
+      permits.release();
+      throw ex;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    closed = true;
+
+    synchronized (this) {
+      for (final Pooled pooled : idle) {
+        discard(pooled);
+      }
+      idle.clear();
+    }
+
+    source.close();
+  }
+
+  // The number of requests that reused a pooled socket.
+  public long hits() { return hits.get(); }
+
+  // The number of requests that had to open a new socket.
+  public long misses() { return misses.get(); }
+
+  // The number of sockets closed because they timed out or stopped working.
+  public long discarded() { return discarded.get(); }
+
+  // The total time spent waiting for a free socket.
+  public long waitTimeMs() { return waitNanos.get() / 1000000; }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d misses, %d discarded, %d ms waiting",
+                         hits(), misses(), discarded(), waitTimeMs());
+  }
+
+  // BORROW
+  //
+  // Take the warmest idle socket, closing any that have timed out along the
+  // way.
+  private Pooled borrow() {
+
+    while (true) {
+
+      final Pooled pooled;
+      synchronized (this) {
+        pooled = idle.pollLast();
+      }
+
+      if (pooled == null) {
+        return null;
+      }
+
+      if (System.currentTimeMillis() - pooled.lastUsed > idleTimeoutMs) {
+        discard(pooled);
+      } else {
+        return pooled;
+      }
+    }
+  }
+
+  private void giveBack(Pooled pooled) {
+    pooled.lastUsed = System.currentTimeMillis();
+    synchronized (this) {
+      if (!closed) {
+        idle.addLast(pooled);
+        return;
+      }
+    }
+    discard(pooled);
+  }
+
+  private void discard(Pooled pooled) {
+    discarded.incrementAndGet();
+    try {
+      pooled.session.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing pooled connection.");
+    }
+  }
+
+  // LEASE
+  //
+  // A single request on a pooled socket. Closing it returns the socket to the
+  // pool once the request has gone out.
+  private final class Lease implements Connection {
+
+    private final Pooled pooled;
+    private final Connection exchange;
+
+    private boolean released = false;
+
+    Lease(Pooled pooled, Connection exchange) {
+      this.pooled = pooled;
+      this.exchange = exchange;
+    }
+
+    @Override
+    public InputStream in() throws IOException {
+      return exchange.in();
+    }
+
+    @Override
+    public OutputStream out() throws IOException {
+      return exchange.out();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+      if (released) {
+        return;
+      }
+      released = true;
+
+      try {
+        exchange.close();
+      } finally {
+        giveBack(pooled);
+        permits.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,693 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.util.Logger;
+
+// REACTOR
+//
+// A non-blocking front end for servers. A single selector thread accepts
+// connections and reads whatever bytes are available on each of them, so a
+// slow or stalled client only costs the reactor a buffer - never a thread.
+//
+// The wire protocol has no framing, so the reactor cannot tell on its own when
+// a request is complete. Instead the handler is given everything that has
+// arrived so far. Reading past the end of that throws an EOFException, in which
+// case the handler calls "incomplete" and the reactor waits for more bytes
+// before dispatching the request again. The reactor remembers how far the
+// failed read wanted to go and does not dispatch again until that much has
+// arrived, so a large field is read once rather than once per packet.
+//
+// A connection can also be switched into a session (see "openSession"). From
+// then on the client sends frames - an id and a length-prefixed body - so the
+// reactor can cut requests out itself and hand each one to the handler as
+// soon as it is complete. Many frames may be dispatched at once and their
+// responses are written back in whatever order they finish.
+//
+// A stalled client costs no thread, but it still holds a connection and its
+// buffer, so the reactor enforces the same deadlines as sockets do (see
+// Deadlines) and counts its timeouts there. A few times per shortest deadline
+// it closes every connection that has been idle, part way through sending a
+// request, or part way through taking a response for too long. As with
+// sockets, an open session is only held to the write deadline.
+public final class Reactor implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Reactor.class);
+
+  // Requests larger than this are assumed to be garbage and the connection is
+  // dropped rather than buffering without bound.
+  private static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+  // The most frames a session may have dispatched at once. Past this the
+  // reactor stops reading from the connection until some have been answered.
+  private static final int MAX_FRAMES_IN_FLIGHT = 64;
+
+  // A frame header is the id followed by the length of the body.
+  private static final int FRAME_HEADER_BYTES = 8;
+
+  // How many times per shortest deadline connections are checked against
+  // their deadlines. A connection is closed at most this much late.
+  private static final int CHECKS_PER_DEADLINE = 4;
+
+  public interface Handler {
+
+    // ON REQUEST
+    //
+    // Called on the reactor thread every time new bytes arrive for a request
+    // that is not already being handled. The handler may do its work on any
+    // thread but must finish by calling exactly one of "respond", "incomplete"
+    // or "close" on the request.
+    void onRequest(Request request);
+
+  }
+
+  public interface Request {
+
+    // Everything that has arrived for this request so far.
+    InputStream in();
+
+    // Where the response should be written. Nothing is sent until "respond".
+    OutputStream out();
+
+    // Send everything written to "out". Outside of a session the connection
+    // is closed once the response has been written.
+    void respond();
+
+    // Send everything written to "out" and keep the connection open, reading
+    // framed requests from now on. Inside a session this is the same as
+    // "respond".
+    void openSession();
+
+    // The request was cut short. Wait for more bytes - at least as many as
+    // the read that ran out wanted - and try again. A frame is always
+    // complete so inside a session this drops the connection.
+    void incomplete();
+
+    // Drop the connection without responding.
+    void close();
+
+  }
+
+  private enum State { READING, DISPATCHED, WRITING, SESSION, CLOSED }
+
+  // PEER
+  //
+  // The read/write state machine for a single connection. Only the reactor
+  // thread may touch a peer.
+  private final class Peer {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    private byte[] input = new byte[256];
+    private int length = 0;
+
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+
+    private State state = State.READING;
+
+    // The number of frames handed to the handler and not yet answered.
+    private int inFlight = 0;
+
+    // Set when bytes arrive while a request is dispatched so that an
+    // incomplete request can be retried right away.
+    private boolean more = false;
+
+    // How many bytes the last incomplete attempt needed. The request is not
+    // dispatched again until at least this many have arrived.
+    private int needed = 1;
+
+    // When, from System.nanoTime, the connection was opened or last finished
+    // writing, when the first byte of the request being read arrived, and
+    // when waiting output last made progress.
+    private long quietSince = System.nanoTime();
+    private long readingSince;
+    private long writingSince;
+
+    Peer(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    void onReadable() throws IOException {
+
+      if (length == 0) {
+        readingSince = System.nanoTime();
+      }
+
+      int read;
+      while ((read = channel.read(scratch)) > 0) {
+        scratch.flip();
+        append(scratch);
+        scratch.clear();
+      }
+
+      if (read < 0) {
+        // The client went away before the response could be sent.
+        close();
+      } else if (state == State.SESSION) {
+        dispatchFrames();
+      } else if (length > MAX_REQUEST_BYTES) {
+        LOG.warning("Dropping connection with oversized request (%d bytes)", length);
+        close();
+      } else if (state == State.DISPATCHED) {
+        more = true;
+      } else if (state == State.READING && length >= needed) {
+        dispatch();
+      }
+    }
+
+    void onWritable() throws IOException {
+
+      // Send everything that is waiting with one gathering write.
+      if (channel.write(output.toArray(new ByteBuffer[output.size()])) > 0) {
+        writingSince = System.nanoTime();
+      }
+
+      while (!output.isEmpty() && !output.peek().hasRemaining()) {
+        output.poll();
+      }
+
+      if (!output.isEmpty()) {
+        return;
+      }
+
+      quietSince = System.nanoTime();
+
+      if (state == State.WRITING) {
+        close();
+      } else if (state == State.SESSION) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      }
+    }
+
+    void dispatch() {
+      state = State.DISPATCHED;
+      more = false;
+      handler.onRequest(new PeerRequest(this, input, length, -1, false));
+    }
+
+    // DISPATCH FRAMES
+    //
+    // Hand every complete frame that has arrived to the handler. Each body is
+    // copied out so the input buffer can be reused for the frames after it.
+    void dispatchFrames() {
+
+      int at = 0;
+
+      while (inFlight < MAX_FRAMES_IN_FLIGHT && length - at >= FRAME_HEADER_BYTES) {
+
+        final int id = readInt(input, at);
+        final int size = readInt(input, at + 4);
+
+        if (size < 0 || size > MAX_REQUEST_BYTES) {
+          LOG.warning("Dropping session with bad frame length (%d bytes)", size);
+          close();
+          return;
+        }
+
+        if (length - at - FRAME_HEADER_BYTES < size) {
+          break;
+        }
+
+        final int start = at + FRAME_HEADER_BYTES;
+        final byte[] body = Arrays.copyOfRange(input, start, start + size);
+        at = start + size;
+
+        inFlight++;
+        handler.onRequest(new PeerRequest(this, body, body.length, id, true));
+      }
+
+      discard(at);
+
+      // Stop reading while too many frames are outstanding so a client that
+      // never reads its responses cannot make the server buffer without end.
+      final int ops = key.interestOps();
+      key.interestOps(inFlight < MAX_FRAMES_IN_FLIGHT ?
+          ops | SelectionKey.OP_READ :
+          ops & ~SelectionKey.OP_READ);
+    }
+
+    void onIncomplete(int needed) {
+      if (state != State.DISPATCHED) {
+        return;
+      }
+      if (needed > MAX_REQUEST_BYTES) {
+        LOG.warning("Dropping connection with oversized request (%d bytes)", needed);
+        close();
+        return;
+      }
+      this.needed = needed;
+      if (more && length >= needed) {
+        dispatch();
+      } else {
+        state = State.READING;
+      }
+    }
+
+    void onRespond(byte[] response) {
+      if (state != State.DISPATCHED) {
+        return;
+      }
+      state = State.WRITING;
+      send(ByteBuffer.wrap(response));
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    void onOpenSession(byte[] response, int consumed) {
+      if (state != State.DISPATCHED) {
+        return;
+      }
+      state = State.SESSION;
+      send(ByteBuffer.wrap(response));
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      // The client may not have waited for the handshake before sending its
+      // first frames.
+      discard(consumed);
+      dispatchFrames();
+    }
+
+    void onFrameResponse(int id, byte[] response) {
+      if (state != State.SESSION) {
+        return;
+      }
+      // The body is sent straight from the handler's array next to its header
+      // rather than being copied into one buffer with it.
+      final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+      header.putInt(id).putInt(response.length);
+      header.flip();
+      send(header);
+      send(ByteBuffer.wrap(response));
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      inFlight--;
+      dispatchFrames();
+    }
+
+    void onBadFrame() {
+      if (state == State.SESSION) {
+        LOG.warning("Dropping session with malformed request.");
+        close();
+      }
+    }
+
+    // CHECK DEADLINES
+    //
+    // Close the connection if it has missed a deadline by "now". A request
+    // that is being handled is the server's to finish, so it is never timed
+    // out, and a session may be quiet for as long as its user is.
+    void checkDeadlines(long now) {
+
+      if (!output.isEmpty()) {
+        if (expired(writingSince, now, deadlines.writeMs())) {
+          LOG.warning("Closing connection after a write took over %d ms.", deadlines.writeMs());
+          deadlines.countWrite();
+          close();
+        }
+        return;
+      }
+
+      if (state != State.READING) {
+        return;
+      }
+
+      if (length == 0 && expired(quietSince, now, deadlines.idleMs())) {
+        LOG.warning("Closing connection idle for over %d ms.", deadlines.idleMs());
+        deadlines.countIdle();
+        close();
+      } else if (length > 0 && expired(readingSince, now, deadlines.readMs())) {
+        LOG.warning("Closing connection after a read took over %d ms.", deadlines.readMs());
+        deadlines.countRead();
+        close();
+      }
+    }
+
+    void close() {
+      if (state == State.CLOSED) {
+        return;
+      }
+      state = State.CLOSED;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing connection.");
+      }
+    }
+
+    private void send(ByteBuffer bytes) {
+      if (output.isEmpty()) {
+        writingSince = System.nanoTime();
+      }
+      output.add(bytes);
+    }
+
+    private void append(ByteBuffer bytes) {
+      final int needed = length + bytes.remaining();
+      if (needed > input.length) {
+        // Grow into a new array rather than in place. A dispatched request
+        // keeps reading from the old array, which never changes below the
+        // length it was given.
+        input = Arrays.copyOf(input, Math.max(needed, input.length * 2));
+      }
+      bytes.get(input, length, bytes.remaining());
+      length = needed;
+    }
+
+    // Drop the first "count" bytes of input. Only safe once no dispatched
+    // request is reading from the buffer.
+    private void discard(int count) {
+      if (count > 0) {
+        System.arraycopy(input, count, input, 0, length - count);
+        length -= count;
+      }
+    }
+  }
+
+  private static boolean expired(long since, long now, int deadlineMs) {
+    return deadlineMs > 0 && now - since > TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+  }
+
+  private static int readInt(byte[] bytes, int at) {
+    return ((0xFF & bytes[at]) << 24) |
+           ((0xFF & bytes[at + 1]) << 16) |
+           ((0xFF & bytes[at + 2]) << 8) |
+           (0xFF & bytes[at + 3]);
+  }
+
+  private final class PeerRequest implements Request {
+
+    private final Peer peer;
+    private final RequestStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final int frame;
+    private final boolean framed;
+
+    PeerRequest(Peer peer, byte[] bytes, int length, int frame, boolean framed) {
+      this.peer = peer;
+      this.in = new RequestStream(bytes, length);
+      this.frame = frame;
+      this.framed = framed;
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void respond() {
+      final byte[] response = out.toByteArray();
+      post(new Runnable() {
+        @Override
+        public void run() {
+          if (framed) {
+            peer.onFrameResponse(frame, response);
+          } else {
+            peer.onRespond(response);
+          }
+        }
+      });
+    }
+
+    @Override
+    public void openSession() {
+      if (framed) {
+        respond();
+        return;
+      }
+      final byte[] response = out.toByteArray();
+      final int consumed = in.consumed();
+      post(new Runnable() {
+        @Override
+        public void run() { peer.onOpenSession(response, consumed); }
+      });
+    }
+
+    @Override
+    public void incomplete() {
+      final int needed = in.needed();
+      post(new Runnable() {
+        @Override
+        public void run() {
+          if (framed) {
+            peer.onBadFrame();
+          } else {
+            peer.onIncomplete(needed);
+          }
+        }
+      });
+    }
+
+    @Override
+    public void close() {
+      post(new Runnable() {
+        @Override
+        public void run() { peer.close(); }
+      });
+    }
+  }
+
+  // REQUEST STREAM
+  //
+  // Reads the bytes that have arrived so far. Unlike a ByteArrayInputStream,
+  // running out of bytes is an error (EOFException) rather than a -1 so that
+  // serializers cannot mistake a partial request for a complete one.
+  //
+  // Running out also records how many bytes the read wanted in all, which is
+  // as far as the request is known to go.
+  private static final class RequestStream extends InputStream {
+
+    private final byte[] bytes;
+    private final int length;
+    private int at = 0;
+    private int needed;
+
+    RequestStream(byte[] bytes, int length) {
+      this.bytes = bytes;
+      this.length = length;
+      this.needed = length + 1;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (at >= length) {
+        throw new EOFException();
+      }
+      return 0xFF & bytes[at++];
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+      if (count == 0) {
+        return 0;
+      }
+      if (at >= length) {
+        // Serializers read a field's bytes in a loop, so by now this is the
+        // rest of the field.
+        needed = Math.max(needed, (int) Math.min((long) at + count, Integer.MAX_VALUE));
+        throw new EOFException();
+      }
+      final int copied = Math.min(count, length - at);
+      System.arraycopy(bytes, at, buffer, offset, copied);
+      at += copied;
+      return copied;
+    }
+
+    @Override
+    public int available() {
+      return length - at;
+    }
+
+    int consumed() {
+      return at;
+    }
+
+    int needed() {
+      return needed;
+    }
+  }
+
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final Handler handler;
+  private final Deadlines deadlines;
+
+  // How often, in milliseconds, connections are checked against their
+  // deadlines. Zero when there are none.
+  private final long checkMs;
+  private long lastCheck = System.nanoTime();
+
+  private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer scratch = ByteBuffer.allocateDirect(64 * 1024);
+
+  public Reactor(int port, Handler handler) throws IOException {
+    this(port, handler, Deadlines.none());
+  }
+
+  public Reactor(int port, Handler handler, Deadlines deadlines) throws IOException {
+    this.handler = handler;
+    this.deadlines = deadlines;
+    this.checkMs = deadlines.any() ? Math.max(1, shortest(deadlines) / CHECKS_PER_DEADLINE) : 0;
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(port));
+    this.server.configureBlocking(false);
+    this.server.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  // PORT
+  //
+  // The port the reactor is accepting connections on. This is useful when the
+  // reactor was created on port 0 and the system picked the port.
+  public int port() {
+    return server.socket().getLocalPort();
+  }
+
+  // RUN
+  //
+  // Run the selector loop on the calling thread. This only returns once the
+  // reactor has been closed.
+  public void run() {
+    while (selector.isOpen()) {
+      try {
+        selector.select(checkMs);
+
+        for (Runnable task = pending.poll(); task != null; task = pending.poll()) {
+          try {
+            task.run();
+          } catch (Throwable ex) {
+            LOG.error(ex, "Exception while finishing request.");
+          }
+        }
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          onReady(key);
+        }
+
+        if (checkMs > 0) {
+          checkDeadlines();
+        }
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception in reactor loop.");
+      } catch (RuntimeException ex) {
+        // The selector has been closed from another thread.
+        if (selector.isOpen()) {
+          LOG.error(ex, "Exception in reactor loop.");
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.close();
+    selector.close();
+  }
+
+  private void onReady(SelectionKey key) {
+
+    if (!key.isValid()) {
+      return;
+    }
+
+    if (key.isAcceptable()) {
+      accept();
+      return;
+    }
+
+    final Peer peer = (Peer) key.attachment();
+
+    // Whatever goes wrong with one connection - even a handler that runs out
+    // of memory - only costs that connection, never the reactor thread.
+    try {
+      if (key.isReadable()) {
+        peer.onReadable();
+      }
+      if (key.isValid() && key.isWritable()) {
+        peer.onWritable();
+      }
+    } catch (Throwable ex) {
+      LOG.error(ex, "Exception while handling connection.");
+      peer.close();
+    }
+  }
+
+  private void checkDeadlines() {
+
+    final long now = System.nanoTime();
+    if (now - lastCheck < TimeUnit.MILLISECONDS.toNanos(checkMs)) {
+      return;
+    }
+    lastCheck = now;
+
+    for (final SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.attachment() instanceof Peer) {
+        ((Peer) key.attachment()).checkDeadlines(now);
+      }
+    }
+  }
+
+  // The shortest of the deadlines that are on, or zero if none are.
+  private static long shortest(Deadlines deadlines) {
+    long shortest = Long.MAX_VALUE;
+    for (final int ms : new int[] { deadlines.readMs(), deadlines.writeMs(), deadlines.idleMs() }) {
+      if (ms > 0) {
+        shortest = Math.min(shortest, ms);
+      }
+    }
+    return shortest == Long.MAX_VALUE ? 0 : shortest;
+  }
+
+  private void accept() {
+    try {
+      for (SocketChannel channel = server.accept(); channel != null; channel = server.accept()) {
+        channel.configureBlocking(false);
+        new Peer(channel);
+        LOG.info("Connection established.");
+      }
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to establish connection.");
+    }
+  }
+
+  private void post(Runnable task) {
+    pending.add(task);
+    selector.wakeup();
+  }
+}
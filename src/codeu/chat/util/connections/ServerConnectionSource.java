@@ -15,27 +15,27 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
 
 // SERVER CONNECTION SOURCE
 //
 // Implements the ConnectionSource interface for servers who need to host
 // one of their ports so that clients can connect to it. Calls to "connect"
-// will block until a connection is established.
+// will block until a connection is established. Every accepted connection
+// is held to the source's deadlines.
 public final class ServerConnectionSource implements ConnectionSource {
 
   private final ServerSocket serverSocket;
+  private final Deadlines deadlines;
 
-  private ServerConnectionSource(ServerSocket serverSocket) {
+  private ServerConnectionSource(ServerSocket serverSocket, Deadlines deadlines) {
     this.serverSocket = serverSocket;
+    this.deadlines = deadlines;
   }
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(serverSocket.accept());
+    return new SocketConnection(serverSocket.accept(), deadlines);
   }
 
   @Override
@@ -43,28 +43,11 @@ public final class ServerConnectionSource implements ConnectionSource {
     serverSocket.close();
   }
 
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
+  public static ConnectionSource forPort(int port) throws IOException {
+    return forPort(port, Deadlines.none());
   }
 
-  public static ConnectionSource forPort(int port) throws IOException {
-    return new ServerConnectionSource(new ServerSocket(port));
+  public static ConnectionSource forPort(int port, Deadlines deadlines) throws IOException {
+    return new ServerConnectionSource(new ServerSocket(port), deadlines);
   }
 }
@@ -0,0 +1,379 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+
+// SESSION CONNECTION SOURCE
+//
+// Carries every connection over one long-lived session instead of opening a
+// socket per request. Each "connection" handed out by this source is a single
+// request/response exchange: the request is buffered until the caller starts
+// reading the response or closes the connection, then sent as one frame with
+// a fresh id. Any number of
+// exchanges may be in flight at once - a reader thread matches the response
+// frames to them by id.
+//
+// Callers do not need to change - they still connect, write, read and close.
+//
+// If the server does not know how to open a session it answers the handshake
+// like any other unknown request, and this source falls back to opening a new
+// connection per request.
+//
+// A source may also ask for the session to be compressed (see Compression).
+// The request says whether to prime the compression with recent traffic and
+// the server answers with what it agreed to. A server that does not know the
+// request refuses it like any other, and a plain session is opened instead.
+public final class SessionConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(SessionConnectionSource.class);
+
+  private final ConnectionSource source;
+  private final int openRequest;
+  private final int openResponse;
+  private final int openCompressedRequest;
+  private final int openCompressedResponse;
+  private final boolean prime;
+
+  private final Compression.Stats compressionStats = new Compression.Stats();
+
+  // Guarded by "this".
+  private Session session;
+  private boolean supported = true;
+  private boolean compressionSupported;
+  private boolean closed = false;
+
+  public SessionConnectionSource(ConnectionSource source, int openRequest, int openResponse) {
+    this(source, openRequest, openResponse, 0, 0, false);
+  }
+
+  // Ask for compressed sessions with "openCompressedRequest", expecting
+  // "openCompressedResponse" back if the server agrees.
+  public SessionConnectionSource(ConnectionSource source,
+                                 int openRequest,
+                                 int openResponse,
+                                 int openCompressedRequest,
+                                 int openCompressedResponse,
+                                 boolean prime) {
+    this.source = source;
+    this.openRequest = openRequest;
+    this.openResponse = openResponse;
+    this.openCompressedRequest = openCompressedRequest;
+    this.openCompressedResponse = openCompressedResponse;
+    this.prime = prime;
+    this.compressionSupported = openCompressedRequest != 0;
+  }
+
+  // How well compression has done over every session this source has opened.
+  public Compression.Stats compressionStats() {
+    return compressionStats;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+    final Session current = session();
+    return current == null ? source.connect() : current.exchange();
+  }
+
+  @Override
+  public void close() throws IOException {
+    final Session current;
+    synchronized (this) {
+      closed = true;
+      current = session;
+      session = null;
+    }
+    if (current != null) {
+      current.close(new IOException("Session closed."));
+    }
+    source.close();
+  }
+
+  // SESSION
+  //
+  // Get the current session, opening a new one if there is none or the last
+  // one failed. Returns null if the server does not support sessions.
+  private synchronized Session session() throws IOException {
+
+    if (closed) {
+      throw new IOException("Connection source has been closed.");
+    }
+
+    if (session != null && session.alive()) {
+      return session;
+    }
+
+    session = null;
+
+    if (!supported) {
+      return null;
+    }
+
+    if (compressionSupported) {
+      session = openCompressed();
+      if (session != null) {
+        session.start();
+        return session;
+      }
+    }
+
+    final Connection connection = source.connect();
+
+    try {
+      Serializers.INTEGER.write(connection.out(), openRequest);
+      if (Serializers.INTEGER.read(connection.in()) != openResponse) {
+        LOG.info("Server does not support sessions. Using a connection per request.");
+        supported = false;
+        connection.close();
+        return null;
+      }
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+
+    session = new Session(connection, Compression.none());
+    session.start();
+
+    return session;
+  }
+
+  // Try to open a compressed session. Returns null if the server refuses.
+  private Session openCompressed() throws IOException {
+
+    final Connection connection = source.connect();
+
+    try {
+      Serializers.INTEGER.write(connection.out(), openCompressedRequest);
+      Serializers.BOOLEAN.write(connection.out(), prime);
+      if (Serializers.INTEGER.read(connection.in()) != openCompressedResponse) {
+        LOG.info("Server does not support compression. Opening a plain session.");
+        compressionSupported = false;
+        connection.close();
+        return null;
+      }
+      final boolean primed = Serializers.BOOLEAN.read(connection.in());
+      return new Session(connection, Compression.negotiated(primed, compressionStats));
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+  }
+
+  private static final class Session {
+
+    private final Connection connection;
+    private final Compression compression;
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Exchange> waiting = new ConcurrentHashMap<>();
+
+    private volatile IOException failure;
+
+    Session(Connection connection, Compression compression) {
+      this.connection = connection;
+      this.compression = compression;
+    }
+
+    boolean alive() {
+      return failure == null;
+    }
+
+    void start() {
+      final Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            while (true) {
+              final Frame frame = Frame.SERIALIZER.read(connection.in());
+              // Every frame is decoded, even one nobody is waiting for, so
+              // that the dictionary stays the same as the server's.
+              final byte[] body = compression.decode(frame.body);
+              final Exchange exchange = waiting.remove(frame.id);
+              if (exchange != null) {
+                exchange.complete(body);
+              }
+            }
+          } catch (IOException ex) {
+            close(ex);
+          }
+        }
+      }, "session-reader");
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    Exchange exchange() {
+      return new Exchange(this, nextId.getAndIncrement());
+    }
+
+    void send(Exchange exchange, byte[] request) throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      waiting.put(exchange.id, exchange);
+      try {
+        synchronized (connection) {
+          Frame.SERIALIZER.write(connection.out(), new Frame(exchange.id, compression.encode(request)));
+          connection.out().flush();
+        }
+      } catch (IOException ex) {
+        close(ex);
+        throw ex;
+      }
+      // The reader may have failed before the exchange was registered, in
+      // which case nothing will ever complete it.
+      if (failure != null) {
+        waiting.remove(exchange.id);
+        throw failure;
+      }
+    }
+
+    void forget(Exchange exchange) {
+      waiting.remove(exchange.id);
+    }
+
+    void close(IOException reason) {
+      if (failure != null) {
+        return;
+      }
+      failure = reason;
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing session.");
+      }
+      for (final Exchange exchange : waiting.values()) {
+        exchange.fail(reason);
+      }
+      waiting.clear();
+    }
+  }
+
+  // EXCHANGE
+  //
+  // One request and its response. Looks like a connection to the caller.
+  private static final class Exchange implements Connection {
+
+    private final Session session;
+    private final int id;
+
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+    // Guarded by "this".
+    private boolean sent = false;
+    private byte[] response;
+    private IOException failure;
+
+    private final InputStream in = new InputStream() {
+
+      private InputStream body;
+
+      @Override
+      public int read() throws IOException {
+        return body().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int count) throws IOException {
+        return body().read(buffer, offset, count);
+      }
+
+      private InputStream body() throws IOException {
+        if (body == null) {
+          body = new ByteArrayInputStream(await());
+        }
+        return body;
+      }
+    };
+
+    Exchange(Session session, int id) {
+      this.session = session;
+      this.id = id;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return request;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // A request that was written but whose response was never read still
+      // has to go out. Nobody is going to read the response so there is no
+      // reason to keep waiting for it.
+      try {
+        if (request.size() > 0) {
+          send();
+        }
+      } finally {
+        session.forget(this);
+      }
+    }
+
+    synchronized void complete(byte[] body) {
+      response = body;
+      notifyAll();
+    }
+
+    synchronized void fail(IOException reason) {
+      failure = reason;
+      notifyAll();
+    }
+
+    private byte[] await() throws IOException {
+      send();
+      synchronized (this) {
+        while (response == null && failure == null) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response.");
+          }
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        return response;
+      }
+    }
+
+    private void send() throws IOException {
+      synchronized (this) {
+        if (sent) {
+          return;
+        }
+        sent = true;
+      }
+      session.send(this, request.toByteArray());
+    }
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// SOCKET CONNECTION
+//
+// A connection over a socket with buffered streams. Serializers read and write
+// a byte at a time, which on the raw socket streams is a system call per byte.
+// Buffering turns a whole request or response into a single write.
+//
+// Everything written is sent when the caller turns to reading (the other side
+// cannot answer before it has the whole request) and when the connection is
+// closed. Callers that write without reading, such as a session sending a
+// frame, flush for themselves.
+//
+// Reads and writes may be given deadlines (see Deadlines).
+final class SocketConnection implements Connection {
+
+  private static final int BUFFER_BYTES = 8 * 1024;
+
+  private final Socket socket;
+  private final Deadlines deadlines;
+  private final InputStream in;
+  private final OutputStream out;
+
+  // When the bytes now arriving started to arrive (from System.nanoTime), or
+  // NOT_STARTED if nothing has arrived since the connection was opened or last
+  // written to.
+  private static final long NOT_STARTED = -1;
+  private volatile long started = NOT_STARTED;
+  private volatile boolean readDeadlinesLifted = false;
+
+  SocketConnection(Socket socket) throws IOException {
+    this(socket, Deadlines.none());
+  }
+
+  SocketConnection(Socket socket, Deadlines deadlines) throws IOException {
+    this.socket = socket;
+    this.deadlines = deadlines;
+    // Requests and responses are written whole, so there is nothing to gain
+    // from waiting for more bytes before sending.
+    this.socket.setTcpNoDelay(true);
+    // The deadlines are checked underneath the buffers, so they are only
+    // paid for when the socket is actually read from or written to.
+    this.in = new BufferedInputStream(
+        deadlines.any() ? new DeadlineInputStream(socket.getInputStream()) : socket.getInputStream(),
+        BUFFER_BYTES);
+    this.out = new BufferedOutputStream(
+        deadlines.any() ? new DeadlineOutputStream(socket.getOutputStream()) : socket.getOutputStream(),
+        BUFFER_BYTES);
+  }
+
+  @Override
+  public InputStream in() throws IOException {
+    out.flush();
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  void liftReadDeadlines() {
+    readDeadlinesLifted = true;
+  }
+
+  // DEADLINE INPUT STREAM
+  //
+  // Sets the socket timeout before every read to whatever is left of the
+  // deadline that applies. Once a deadline passes the connection is closed.
+  private final class DeadlineInputStream extends FilterInputStream {
+
+    DeadlineInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+
+      final long begun = started;
+      final boolean idle = begun == NOT_STARTED;
+
+      int timeout = 0;
+      if (!readDeadlinesLifted) {
+        if (idle) {
+          timeout = deadlines.idleMs();
+        } else if (deadlines.readMs() > 0) {
+          final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begun);
+          timeout = (int) Math.max(1, deadlines.readMs() - elapsed);
+        }
+      }
+
+      socket.setSoTimeout(timeout);
+
+      final int read;
+      try {
+        read = super.read(buffer, offset, count);
+      } catch (SocketTimeoutException ex) {
+        if (idle) {
+          deadlines.countIdle();
+        } else {
+          deadlines.countRead();
+        }
+        socket.close();
+        throw new SocketTimeoutException(idle ?
+            "Nothing was sent for " + deadlines.idleMs() + " ms." :
+            "Nothing more was sent " + deadlines.readMs() + " ms after the first bytes.");
+      }
+
+      if (read > 0 && idle) {
+        started = System.nanoTime();
+      }
+
+      return read;
+    }
+  }
+
+  // DEADLINE OUTPUT STREAM
+  //
+  // Watches every write to the socket and closes the connection if one takes
+  // too long. Writing also means the other side has something to answer, so
+  // the idle deadline starts again.
+  private final class DeadlineOutputStream extends FilterOutputStream {
+
+    DeadlineOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int value) throws IOException {
+      write(new byte[] { (byte) value }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+
+      started = NOT_STARTED;
+
+      if (deadlines.writeMs() == 0) {
+        out.write(buffer, offset, count);
+        return;
+      }
+
+      final ScheduledFuture<?> watch = deadlines.watchWrite(socket);
+      try {
+        out.write(buffer, offset, count);
+      } finally {
+        watch.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// CONCURRENT STORE
+//
+// A store that may be read while it is written to, without a lock. Keys are
+// kept in a ConcurrentSkipListMap and the values under each key in a
+// ConcurrentLinkedQueue, in the order they were inserted. Both are lock-free
+// and only ever publish fully built entries, so a reader never sees a value
+// half added.
+//
+// Iterators are weakly consistent: they never fail and never return a value
+// twice, and they see every value that was there when they were made. Values
+// added while one is in use may or may not be seen. "size" is exact once
+// inserts have finished and may lag a moment behind ones in flight.
+public final class ConcurrentStore<KEY, VALUE> implements MutableStore<KEY, VALUE> {
+
+  private final ConcurrentNavigableMap<KEY, Queue<VALUE>> index;
+
+  private final Comparator<KEY> comparator;
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  @Override
+  public void insert(KEY key, VALUE value) {
+
+    Queue<VALUE> run = index.get(key);
+
+    if (run == null) {
+      // Two writers may add the first value for a key at once. Only one
+      // queue is kept, and the other writer adds to that one instead.
+      final Queue<VALUE> created = new ConcurrentLinkedQueue<>();
+      run = index.putIfAbsent(key, created);
+      if (run == null) {
+        run = created;
+      }
+    }
+
+    run.add(value);
+    size.incrementAndGet();
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final Queue<VALUE> run = index.get(key);
+    return run == null ? null : run.peek();
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return flatten(index);
+  }
+
+  @Override
+  public Iterable<VALUE> at(KEY key) {
+    final Queue<VALUE> run = index.get(key);
+    return run == null ? Collections.<VALUE>emptyList() : Collections.unmodifiableCollection(run);
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return flatten(index.tailMap(start, true));
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return flatten(index.headMap(end, true));
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    // The skip list refuses a range that ends before it starts. Store gives
+    // back nothing for one, so do the same.
+    if (comparator.compare(start, end) > 0) {
+      return Collections.emptyList();
+    }
+    return flatten(index.subMap(start, true, end, true));
+  }
+
+  // Every value under every key of "runs", in key order and then in the
+  // order they were added.
+  private static <KEY, VALUE> Iterable<VALUE> flatten(
+      final ConcurrentNavigableMap<KEY, Queue<VALUE>> runs) {
+
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+
+        final Iterator<Queue<VALUE>> keys = runs.values().iterator();
+
+        return new Iterator<VALUE>() {
+
+          private Iterator<VALUE> values = Collections.<VALUE>emptyList().iterator();
+
+          @Override
+          public boolean hasNext() {
+            while (!values.hasNext()) {
+              if (!keys.hasNext()) {
+                return false;
+              }
+              values = keys.next().iterator();
+            }
+            return true;
+          }
+
+          @Override
+          public VALUE next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return values.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
@@ -32,7 +32,9 @@ final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
   @Override
   public boolean hasNext() {
-    return current != null && comparator.compare(current.key, last.key) <= 0;
+    // "last" is null when nothing in the store comes before the end of the
+    // range, in which case the range is empty.
+    return current != null && last != null && comparator.compare(current.key, last.key) <= 0;
   }
 
   @Override
@@ -0,0 +1,30 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+// LOOKUP ACCESSOR
+//
+// The reads a store can answer from a key alone. Stores kept without an order,
+// such as UuidStore, offer only these; StoreAccessor adds the ordered reads.
+public interface LookupAccessor<KEY, VALUE> {
+
+  VALUE first(KEY key);
+
+  // The number of values in the store, counting every value under a key.
+  int size();
+
+  Iterable<VALUE> at(KEY key);
+
+}
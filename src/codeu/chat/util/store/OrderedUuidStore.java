@@ -0,0 +1,74 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import codeu.chat.util.Uuid;
+
+// ORDERED UUID STORE
+//
+// A UuidStore for point lookups alongside an ordered store for everything
+// else. "first" goes to the hash index; "at", "all", "after", "before" and
+// "range" go to the ordered store, which is kept up to date with it.
+public final class OrderedUuidStore<VALUE> implements MutableStore<Uuid, VALUE> {
+
+  private final UuidStore<VALUE> lookups = new UuidStore<>();
+  private final MutableStore<Uuid, VALUE> ordered;
+
+  // "ordered" must start empty and only be added to through this store.
+  public OrderedUuidStore(MutableStore<Uuid, VALUE> ordered) {
+    this.ordered = ordered;
+  }
+
+  @Override
+  public void insert(Uuid key, VALUE value) {
+    ordered.insert(key, value);
+    lookups.insert(key, value);
+  }
+
+  @Override
+  public VALUE first(Uuid key) {
+    return lookups.first(key);
+  }
+
+  @Override
+  public int size() {
+    return lookups.size();
+  }
+
+  @Override
+  public Iterable<VALUE> at(Uuid key) {
+    return ordered.at(key);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return ordered.all();
+  }
+
+  @Override
+  public Iterable<VALUE> after(Uuid start) {
+    return ordered.after(start);
+  }
+
+  @Override
+  public Iterable<VALUE> before(Uuid end) {
+    return ordered.before(end);
+  }
+
+  @Override
+  public Iterable<VALUE> range(Uuid start, Uuid end) {
+    return ordered.range(start, end);
+  }
+}
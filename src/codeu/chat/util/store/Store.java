@@ -19,58 +19,80 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 
-public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+public final class Store<KEY, VALUE> implements MutableStore<KEY, VALUE> {
 
   // To make the code simpler - use a dummy link for the first link in this
   // list. The root link is never read from. To avoid reading from this link
   // the "next" value is used more than the "this" or "current" reference.
   private final StoreLink<KEY, VALUE> rootLink = new StoreLink<>(null, null, null);
 
-  private final NavigableMap<KEY, StoreLink<KEY, VALUE>> index;
+  // RUN
+  //
+  // The links of every value with one key. They sit next to each other in the
+  // chain, in the order they were inserted. Keeping the last one as well as
+  // the first means a new value for a key that is already there goes straight
+  // to the end of its run instead of walking past every value before it.
+  private static final class Run<KEY, VALUE> {
+
+    final StoreLink<KEY, VALUE> first;
+    StoreLink<KEY, VALUE> last;
+
+    Run(StoreLink<KEY, VALUE> link) {
+      this.first = link;
+      this.last = link;
+    }
+  }
+
+  // One run per key. The index class does not handle duplicate keys, and the
+  // iterators only need to find the first link of a key as the rest follow it.
+  private final NavigableMap<KEY, Run<KEY, VALUE>> index;
 
   private final Comparator<KEY> comparator;
 
+  private int size = 0;
+
   public Store(Comparator<KEY> comparator) {
     this.index = new TreeMap<>(comparator);
     this.comparator = comparator;
   }
 
+  @Override
   public void insert(KEY key, VALUE value) {
 
-    final StoreLink<KEY, VALUE> closestLink = floor(key);
+    final Map.Entry<KEY, Run<KEY, VALUE>> closest = index.floorEntry(key);
 
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
-    }
+    if (closest != null && comparator.compare(closest.getKey(), key) == 0) {
+
+      // The key is already here, so the value goes at the end of its run.
+      final Run<KEY, VALUE> run = closest.getValue();
+      final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, run.last.next);
+      run.last.next = newLink;
+      run.last = newLink;
 
-    // "current.next" may be null, but "current" can never be null. So it
-    // should always be safe to call to current.
-    final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
-    current.next = newLink;
-
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
+    } else {
+
+      // A new key comes straight after the run of the closest key before it,
+      // or at the front if there is none. Either way nothing in between has
+      // to be walked.
+      final StoreLink<KEY, VALUE> before =
+          (closest == null) ? (rootLink) : (closest.getValue().last);
+      final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, before.next);
+      before.next = newLink;
+      index.put(key, new Run<>(newLink));
     }
+
+    size += 1;
   }
 
   @Override
   public VALUE first(KEY key) {
-    final StoreLink<KEY, VALUE> link = index.get(key);
-    return link == null ? null : link.value;
+    final Run<KEY, VALUE> run = index.get(key);
+    return run == null ? null : run.first.value;
+  }
+
+  @Override
+  public int size() {
+    return size;
   }
 
   @Override
@@ -114,7 +136,7 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     return extract(index.floorEntry(key));
   }
 
-  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, StoreLink<KEY, VALUE>> entry) {
-    return entry == null ? null : entry.getValue();
+  private StoreLink<KEY, VALUE> extract(Map.Entry<KEY, Run<KEY, VALUE>> entry) {
+    return entry == null ? null : entry.getValue().first;
   }
 }
@@ -14,14 +14,10 @@
 
 package codeu.chat.util.store;
 
-public interface StoreAccessor<KEY, VALUE> {
-
-  VALUE first(KEY key);
+public interface StoreAccessor<KEY, VALUE> extends LookupAccessor<KEY, VALUE> {
 
   Iterable<VALUE> all();
 
-  Iterable<VALUE> at(KEY key);
-
   Iterable<VALUE> after(KEY start);
 
   Iterable<VALUE> before(KEY end);
@@ -0,0 +1,151 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import codeu.chat.util.Uuid;
+
+// UUID INDEX
+//
+// A hash table from Uuid to the first value added under it, for the point
+// lookups that ordered stores spend a tree walk and a comparator on. It uses
+// open addressing with linear probing: entries sit in one array and a lookup
+// reads the slots from the key's hash onwards until it finds the key or an
+// empty slot. The table is kept at most half full so that runs stay short.
+//
+// Readers take no lock. Each slot holds an entry that is complete before it
+// is stored, and a table that has grown is only swapped in once it holds every
+// entry, so a reader sees either an entry in full or no entry at all. Writers
+// take turns.
+final class UuidIndex<VALUE> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final class Entry<VALUE> {
+
+    final Uuid key;
+    final int hash;
+    final VALUE value;
+
+    Entry(Uuid key, int hash, VALUE value) {
+      this.key = key;
+      this.hash = hash;
+      this.value = value;
+    }
+  }
+
+  private volatile AtomicReferenceArray<Entry<VALUE>> table =
+      new AtomicReferenceArray<>(INITIAL_CAPACITY);
+
+  // Only changed by writers, while they hold the lock on "this".
+  private int count = 0;
+
+  public VALUE get(Uuid key) {
+
+    final int hash = hash(key);
+    final AtomicReferenceArray<Entry<VALUE>> table = this.table;
+    final int mask = table.length() - 1;
+
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      final Entry<VALUE> entry = table.get(i);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.hash == hash && Uuid.equals(entry.key, key)) {
+        return entry.value;
+      }
+    }
+  }
+
+  // Add "value" under "key" unless the key is already there. Returns whether
+  // it was added.
+  public synchronized boolean putIfAbsent(Uuid key, VALUE value) {
+
+    final int hash = hash(key);
+
+    if (find(table, key, hash) >= 0) {
+      return false;
+    }
+
+    if ((count + 1) * 2 > table.length()) {
+      grow();
+    }
+
+    final AtomicReferenceArray<Entry<VALUE>> table = this.table;
+    table.set(-find(table, key, hash) - 1, new Entry<>(key, hash, value));
+    count += 1;
+
+    return true;
+  }
+
+  public synchronized int size() {
+    return count;
+  }
+
+  // The slot holding "key" if it is there, or otherwise minus one minus the
+  // empty slot where it would go.
+  private static <VALUE> int find(AtomicReferenceArray<Entry<VALUE>> table, Uuid key, int hash) {
+
+    final int mask = table.length() - 1;
+
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      final Entry<VALUE> entry = table.get(i);
+      if (entry == null) {
+        return -i - 1;
+      }
+      if (entry.hash == hash && Uuid.equals(entry.key, key)) {
+        return i;
+      }
+    }
+  }
+
+  private void grow() {
+
+    final AtomicReferenceArray<Entry<VALUE>> old = table;
+    final AtomicReferenceArray<Entry<VALUE>> bigger = new AtomicReferenceArray<>(old.length() * 2);
+
+    for (int i = 0; i < old.length(); i++) {
+      final Entry<VALUE> entry = old.get(i);
+      if (entry != null) {
+        bigger.set(-find(bigger, entry.key, entry.hash) - 1, entry);
+      }
+    }
+
+    table = bigger;
+  }
+
+  // Every link of the chain goes into the hash, and the result is mixed so
+  // that ids that differ only in their low bits still land far apart. Uuid's
+  // own hashCode boxes each link and XORs them together, so two ids with the
+  // same links in a different order would collide.
+  static int hash(Uuid key) {
+
+    int hash = 0;
+    for (Uuid current = key; current != null; current = current.root()) {
+      hash = 31 * hash + current.id();
+    }
+
+    // The finishing step of MurmurHash3.
+    hash ^= hash >>> 16;
+    hash *= 0x85ebca6b;
+    hash ^= hash >>> 13;
+    hash *= 0xc2b2ae35;
+    hash ^= hash >>> 16;
+
+    return hash;
+  }
+}
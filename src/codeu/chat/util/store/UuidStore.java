@@ -0,0 +1,59 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import codeu.chat.util.Uuid;
+
+// UUID STORE
+//
+// A store keyed by Uuid that answers "first" and "at" from a UuidIndex rather
+// than from an ordered index, which saves the cost of keeping an order up on
+// every insert. It has no ordered reads; a store that needs them as well is an
+// OrderedUuidStore.
+//
+// Meant for ids, which are unique. Only the first value under a key is kept in
+// the index, so later values under the same key are counted by "size" but
+// cannot be read back.
+public final class UuidStore<VALUE> implements LookupAccessor<Uuid, VALUE> {
+
+  private final UuidIndex<VALUE> index = new UuidIndex<>();
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  // Add "value" under "key" unless there is a value under it already.
+  public void insert(Uuid key, VALUE value) {
+    index.putIfAbsent(key, value);
+    size.incrementAndGet();
+  }
+
+  @Override
+  public VALUE first(Uuid key) {
+    return index.get(key);
+  }
+
+  @Override
+  public int size() {
+    return size.get();
+  }
+
+  @Override
+  public Iterable<VALUE> at(Uuid key) {
+    final VALUE value = index.get(key);
+    return value == null ? Collections.<VALUE>emptyList() : Collections.singletonList(value);
+  }
+}
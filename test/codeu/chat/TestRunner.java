@@ -22,14 +22,33 @@ public final class TestRunner {
   public static void main(String[] args) {
      final Result result =
          JUnitCore.runClasses(
+             codeu.chat.common.MessageTest.class,
              codeu.chat.common.SecretTest.class,
              codeu.chat.relay.ServerTest.class,
+             codeu.chat.server.AdmissionTest.class,
              codeu.chat.server.BasicControllerTest.class,
+             codeu.chat.server.MessageSequenceTest.class,
              codeu.chat.server.RawControllerTest.class,
+             codeu.chat.server.ServerTest.class,
+             codeu.chat.server.SubscriptionsTest.class,
+             codeu.chat.server.TextIndexTest.class,
+             codeu.chat.server.ViewTest.class,
+             codeu.chat.util.CompactSerializersTest.class,
+             codeu.chat.util.EncodedCacheTest.class,
+             codeu.chat.util.HistogramTest.class,
+             codeu.chat.util.SerializersTest.class,
+             codeu.chat.util.ThreadPerTaskExecutorTest.class,
              codeu.chat.util.TimeTest.class,
              codeu.chat.util.TokenizerTest.class,
              codeu.chat.util.UuidTest.class,
-             codeu.chat.util.store.StoreTest.class
+             codeu.chat.util.connections.CompressionTest.class,
+             codeu.chat.util.connections.DeadlinesTest.class,
+             codeu.chat.util.connections.PooledConnectionSourceTest.class,
+             codeu.chat.util.connections.ReactorTest.class,
+             codeu.chat.util.connections.SessionConnectionSourceTest.class,
+             codeu.chat.util.store.ConcurrentStoreTest.class,
+             codeu.chat.util.store.StoreTest.class,
+             codeu.chat.util.store.UuidStoreTest.class
          );
       for (final Failure failure : result.getFailures()) {
          System.out.println(failure.toString());
@@ -0,0 +1,50 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.util.List;
+
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// MESSAGE ENCODING BENCHMARK
+//
+// Prints how many bytes a message takes on the wire in a range response, in
+// the v1 encoding and in the compact v2 one, for a few batch sizes. It is not
+// a test and is not run by TestRunner; run it by hand with:
+//
+//   java -cp bin codeu.chat.common.MessageEncodingBenchmark
+public final class MessageEncodingBenchmark {
+
+  private static final int[] BATCHES = { 1, 10, 100, 1000 };
+
+  public static void main(String[] args) throws IOException {
+
+    System.out.format("%8s %12s %12s %8s%n", "batch", "v1 B/msg", "v2 B/msg", "saved");
+
+    for (final int batch : BATCHES) {
+
+      final List<Message> messages =
+          MessageTest.chain(new Uuid(0x5EED), batch, System.currentTimeMillis());
+
+      final double v1 = (double) MessageTest.encode(
+          Serializers.collection(Message.SERIALIZER), messages).length / batch;
+      final double v2 = (double) MessageTest.encode(
+          Message.COMPACT_COLLECTION, messages).length / batch;
+
+      System.out.format("%8d %12.1f %12.1f %7.0f%%%n", batch, v1, v2, 100 * (1 - v2 / v1));
+    }
+  }
+}
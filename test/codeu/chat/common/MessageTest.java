@@ -0,0 +1,140 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageTest {
+
+  @Test
+  public void testCompactMatchesSerializer() throws IOException {
+
+    final List<Message> messages = chain(new Uuid(3), 50, 1500000000000L);
+
+    // A message from somewhere else and one from before the others, so that
+    // both the full Uuid form and a negative time gap are used.
+    messages.add(new Message(
+        new Uuid(new Uuid(9), 1), null, null, Time.fromMs(1400000000000L), null, "elsewhere"));
+
+    assertSame(messages, decode(Message.COMPACT_COLLECTION, messages),
+                         decode(Serializers.collection(Message.SERIALIZER), messages));
+  }
+
+  @Test
+  public void testCachedWriteSeesNewNext() throws IOException {
+
+    final Uuid server = new Uuid(3);
+    final Message message = new Message(
+        new Uuid(server, 1), Uuid.NULL, Uuid.NULL, Time.fromMs(1000), new Uuid(server, 2), "hi");
+
+    final Collection<Message> one = Collections.singletonList(message);
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    // Fill the cache, then link the message to a new one the way the
+    // controller does.
+    encode(serializer, one);
+    message.next = new Uuid(new Uuid(4), 5);
+
+    final Message read = serializer.read(new ByteArrayInputStream(encode(serializer, one)))
+        .iterator().next();
+
+    assertTrue(Uuid.equals(message.next, read.next));
+    assertTrue(Uuid.equals(message.id, read.id));
+    assertTrue(Uuid.equals(message.previous, read.previous));
+    assertTrue(Uuid.equals(message.author, read.author));
+    assertEquals(message.content, read.content);
+  }
+
+  @Test
+  public void testCompactEmpty() throws IOException {
+    final Collection<Message> empty = Collections.emptyList();
+    assertTrue(decode(Message.COMPACT_COLLECTION, empty).isEmpty());
+    assertEquals(1, encode(Message.COMPACT_COLLECTION, empty).length);
+  }
+
+  @Test
+  public void testCompactIsSmaller() throws IOException {
+    final List<Message> messages = chain(new Uuid(3), 100, 1500000000000L);
+    assertTrue(encode(Message.COMPACT_COLLECTION, messages).length * 4 <
+               encode(Serializers.collection(Message.SERIALIZER), messages).length * 3);
+  }
+
+  // A conversation's worth of linked messages, a few seconds apart.
+  static List<Message> chain(Uuid server, int count, long start) {
+
+    final List<Message> messages = new ArrayList<>();
+    final Uuid author = new Uuid(server, 1);
+
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(
+          new Uuid(server, 1000 + i),
+          i + 1 < count ? new Uuid(server, 1000 + i + 1) : Uuid.NULL,
+          i > 0 ? new Uuid(server, 1000 + i - 1) : Uuid.NULL,
+          Time.fromMs(start + i * 3217L),
+          author,
+          "message number " + i));
+    }
+
+    return messages;
+  }
+
+  static byte[] encode(Serializer<Collection<Message>> serializer,
+                       Collection<Message> messages) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, messages);
+    return out.toByteArray();
+  }
+
+  private static Collection<Message> decode(Serializer<Collection<Message>> serializer,
+                                            Collection<Message> messages) throws IOException {
+    return serializer.read(new ByteArrayInputStream(encode(serializer, messages)));
+  }
+
+  private static void assertSame(Collection<Message> expected,
+                                 Collection<Message> compact,
+                                 Collection<Message> plain) {
+
+    assertEquals(expected.size(), compact.size());
+    assertEquals(expected.size(), plain.size());
+
+    final Iterator<Message> a = compact.iterator();
+    final Iterator<Message> b = plain.iterator();
+
+    while (a.hasNext()) {
+      final Message x = a.next();
+      final Message y = b.next();
+      assertTrue(Uuid.equals(x.id, y.id));
+      assertTrue(Uuid.equals(x.next, y.next));
+      assertTrue(Uuid.equals(x.previous, y.previous));
+      assertTrue(Uuid.equals(x.author, y.author));
+      assertEquals(x.creation.inMs(), y.creation.inMs());
+      assertEquals(x.content, y.content);
+    }
+  }
+}
@@ -287,4 +287,47 @@ public final class ServerTest {
       assertTrue(Uuid.equals(bundle.id(), new Uuid(3)));
     }
   }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+
+    final Server relay = new Server(1024, 1024);
+
+    final Uuid team = new Uuid(3);
+    final Secret secret = new Secret((byte)0x00, (byte)0x01, (byte)0x02);
+
+    assertTrue(relay.addTeam(team, secret));
+
+    final Thread[] writers = new Thread[8];
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 100; j++) {
+            relay.write(team,
+                        secret,
+                        relay.pack(new Uuid(4), "User", Time.now()),
+                        relay.pack(new Uuid(5), "Conversation", Time.now()),
+                        relay.pack(new Uuid(6), "Hello World", Time.now()));
+          }
+        }
+      };
+      writers[i].start();
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    // Every write should be in the history and the ids should still be in
+    // order with no gaps. The generator moves past its start before handing
+    // out the first id, so the first bundle is 2.
+    final Collection<Relay.Bundle> read = relay.read(team, secret, Uuid.NULL, 1024);
+    assertEquals(800, read.size());
+
+    int expected = 2;
+    for (final Relay.Bundle bundle : read) {
+      assertTrue(Uuid.equals(bundle.id(), new Uuid(expected++)));
+    }
+  }
 }
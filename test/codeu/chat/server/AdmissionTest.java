@@ -0,0 +1,143 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public final class AdmissionTest {
+
+  // Holds on to whatever it is given until the test runs it.
+  private final List<Runnable> submitted = new ArrayList<>();
+  private final Executor workers = new Executor() {
+    @Override
+    public void execute(Runnable task) {
+      submitted.add(task);
+    }
+  };
+
+  private final List<String> ran = new ArrayList<>();
+
+  private Admission admission;
+
+  @Before
+  public void doBefore() {
+    submitted.clear();
+    ran.clear();
+    admission = new Admission(workers, 4);
+  }
+
+  @Test
+  public void testReadsLeaveRoomForWrites() {
+
+    assertTrue(admission.execute(false, record("read 1")));
+    assertTrue(admission.execute(false, record("read 2")));
+    assertTrue(admission.execute(false, record("read 3")));
+    assertFalse(admission.execute(false, record("read 4")));
+
+    assertTrue(admission.execute(true, record("write 1")));
+    assertFalse(admission.execute(true, record("write 2")));
+
+    assertEquals(4, admission.pending());
+    assertEquals(2, admission.rejected());
+  }
+
+  @Test
+  public void testOnlyRejectionsAreCounted() {
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(admission.execute(false, record("read")));
+    }
+
+    // Not let in as a read, but let in as a write.
+    assertFalse(admission.admit(false, record("unknown")));
+    assertTrue(admission.admit(true, record("write")));
+    assertEquals(0, admission.rejected());
+
+    // Not let in at all.
+    assertFalse(admission.admit(false, record("unknown")));
+    assertFalse(admission.admit(true, record("write")));
+    admission.reject();
+    assertEquals(1, admission.rejected());
+  }
+
+  @Test
+  public void testWritesRunFirst() {
+
+    admission.execute(false, record("read 1"));
+    admission.execute(false, record("read 2"));
+    admission.execute(true, record("write 1"));
+
+    runAll();
+
+    assertEquals(Arrays.asList("write 1", "read 1", "read 2"), ran);
+  }
+
+  @Test
+  public void testRoomIsFreedOnceRun() {
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(admission.execute(false, record("read")));
+    }
+    assertFalse(admission.execute(false, record("read")));
+
+    runAll();
+    assertEquals(0, admission.pending());
+    assertTrue(admission.execute(false, record("read")));
+  }
+
+  @Test
+  public void testRoomIsFreedWhenTaskFails() {
+
+    admission.execute(true, new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException();
+      }
+    });
+
+    try {
+      runAll();
+      fail("The failure should reach the worker.");
+    } catch (IllegalStateException ex) {
+      // Expected.
+    }
+
+    assertEquals(0, admission.pending());
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        ran.add(name);
+      }
+    };
+  }
+
+  private void runAll() {
+    final List<Runnable> tasks = new ArrayList<>(submitted);
+    submitted.clear();
+    for (final Runnable task : tasks) {
+      task.run();
+    }
+  }
+}
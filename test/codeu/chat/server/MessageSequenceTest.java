@@ -0,0 +1,139 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageSequenceTest {
+
+  private MessageSequence sequence;
+  private int next;
+
+  @Before
+  public void doBefore() {
+    sequence = new MessageSequence();
+    next = 0;
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, sequence.size());
+    assertNull(sequence.get(0));
+    assertTrue(sequence.slice(-10, 10).isEmpty());
+    assertEquals(0, sequence.firstAtOrAfter(Time.fromMs(0)));
+    assertEquals(-1, sequence.lastAtOrBefore(Time.fromMs(0)));
+  }
+
+  @Test
+  public void testGetAndSlice() {
+
+    for (int i = 0; i < 100; i++) {
+      add(i * 10);
+    }
+
+    assertEquals(100, sequence.size());
+    assertEquals("0", sequence.get(0).content);
+    assertEquals("990", sequence.get(99).content);
+    assertNull(sequence.get(100));
+    assertNull(sequence.get(-1));
+
+    assertContents(sequence.slice(10, 3), "100", "110", "120");
+    assertContents(sequence.slice(-3, 3), "970", "980", "990");
+    assertContents(sequence.slice(-3, 10), "970", "980", "990");
+    assertContents(sequence.slice(98, 10), "980", "990");
+
+    // Counting back past the start starts at the start.
+    assertContents(sequence.slice(-1000, 2), "0", "10");
+
+    assertTrue(sequence.slice(100, 10).isEmpty());
+    assertTrue(sequence.slice(0, 0).isEmpty());
+    assertEquals(100, sequence.slice(0, Integer.MAX_VALUE).size());
+  }
+
+  @Test
+  public void testTimeLookups() {
+
+    add(10);
+    add(20);
+    add(20);
+    add(30);
+
+    assertEquals(0, sequence.firstAtOrAfter(Time.fromMs(5)));
+    assertEquals(1, sequence.firstAtOrAfter(Time.fromMs(20)));
+    assertEquals(3, sequence.firstAtOrAfter(Time.fromMs(21)));
+    assertEquals(4, sequence.firstAtOrAfter(Time.fromMs(31)));
+
+    assertEquals(-1, sequence.lastAtOrBefore(Time.fromMs(5)));
+    assertEquals(2, sequence.lastAtOrBefore(Time.fromMs(20)));
+    assertEquals(2, sequence.lastAtOrBefore(Time.fromMs(29)));
+    assertEquals(3, sequence.lastAtOrBefore(Time.fromMs(100)));
+  }
+
+  @Test
+  public void testLateMessagesMatchWalking() {
+
+    // Messages sent out of order, as a relay might deliver them.
+    final long[] times = { 10, 50, 20, 60, 30, 70, 40, 80, 15, 90 };
+    for (final long time : times) {
+      add(time);
+    }
+
+    for (long ms = 0; ms <= 100; ms++) {
+      assertEquals("first at or after " + ms, walkForward(ms), sequence.firstAtOrAfter(Time.fromMs(ms)));
+      assertEquals("last at or before " + ms, walkBackward(ms), sequence.lastAtOrBefore(Time.fromMs(ms)));
+    }
+  }
+
+  // What View did before the sequence: walk from the start past every
+  // message sent before "ms".
+  private int walkForward(long ms) {
+    int number = 0;
+    while (number < sequence.size() && sequence.get(number).creation.inMs() < ms) {
+      number += 1;
+    }
+    return number;
+  }
+
+  // And walk from the end past every message sent after "ms".
+  private int walkBackward(long ms) {
+    int number = sequence.size() - 1;
+    while (number >= 0 && sequence.get(number).creation.inMs() > ms) {
+      number -= 1;
+    }
+    return number;
+  }
+
+  private void add(long ms) {
+    sequence.add(new Message(new Uuid(++next), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, Long.toString(ms)));
+  }
+
+  private static void assertContents(List<Message> messages, String... contents) {
+    final List<String> found = new ArrayList<>();
+    for (final Message message : messages) {
+      found.add(message.content);
+    }
+    assertEquals(Arrays.asList(contents), found);
+  }
+}
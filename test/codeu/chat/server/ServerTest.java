@@ -0,0 +1,746 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import codeu.chat.client.core.Context;
+import codeu.chat.client.core.ConversationContext;
+import codeu.chat.client.core.MessageContext;
+import codeu.chat.client.core.UserContext;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Protocol;
+import codeu.chat.common.Secret;
+import codeu.chat.common.ServerStats;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.PooledConnectionSource;
+
+public final class ServerTest {
+
+  private static final int THREADS = 8;
+
+  private Model model;
+  private Server server;
+  private LoopbackSource source;
+  private Context context;
+
+  @Before
+  public void doBefore() throws IOException {
+    model = new Model();
+    server = new Server(Uuid.parse("100.101"), Secret.parse("ABABAB"), new NoOpRelay(),
+                        THREADS, Server.DEFAULT_MAX_PENDING, model);
+    source = new LoopbackSource(server);
+    context = new Context(source);
+  }
+
+  @Test
+  public void testMessagesArePaged() {
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+
+    final int count = 300;
+    final List<String> sent = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      sent.add("message " + i);
+      conversation.add(sent.get(i));
+    }
+
+    source.requests.set(0);
+
+    final List<String> forward = new ArrayList<>();
+    for (MessageContext message = conversation.firstMessage();
+         message != null;
+         message = message.next()) {
+      forward.add(message.message.content);
+    }
+
+    assertEquals(sent, forward);
+    // A request for each page of 128 rather than one per message.
+    assertEquals(3, source.requests.get());
+
+    final List<String> backward = new ArrayList<>();
+    for (MessageContext message = conversation.lastMessage();
+         message != null;
+         message = message.previous()) {
+      backward.add(0, message.message.content);
+    }
+
+    assertEquals(sent, backward);
+    assertEquals(6, source.requests.get());
+  }
+
+  @Test
+  public void testMessagesArePagedCompactly() {
+
+    // After the handshake pages come back in the compact encoding.
+    assertTrue(context.protocol().has(Protocol.COMPACT));
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+
+    final List<String> sent = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      sent.add("message " + i);
+      conversation.add(sent.get(i));
+    }
+
+    final List<String> forward = new ArrayList<>();
+    for (MessageContext message = conversation.firstMessage();
+         message != null;
+         message = message.next()) {
+      forward.add(message.message.content);
+    }
+
+    assertEquals(sent, forward);
+
+    long compact = 0;
+    for (final ServerStats.Command command : context.getStats().commands) {
+      if ("GET_MESSAGE_RANGE_COMPACT_REQUEST".equals(command.name)) {
+        compact = command.count;
+      }
+    }
+    assertEquals(2, compact);
+  }
+
+  @Test
+  public void testSearchMessages() {
+
+    assertTrue(context.protocol().has(Protocol.SEARCH));
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+    final ConversationContext other = user.start("other");
+
+    conversation.add("lunch at noon?");
+    conversation.add("noon works");
+    conversation.add("see you then");
+    other.add("noon elsewhere");
+
+    final List<String> found = new ArrayList<>();
+    for (final MessageContext message : conversation.search(Arrays.asList("NOON"), 10)) {
+      found.add(message.message.content);
+    }
+
+    assertEquals(Arrays.asList("noon works", "lunch at noon?"), found);
+  }
+
+  @Test
+  public void testTailAndCount() {
+
+    assertTrue(context.protocol().has(Protocol.INDEX));
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+
+    assertEquals(0, conversation.messageCount());
+    assertFalse(conversation.tail(5).iterator().hasNext());
+
+    for (int i = 0; i < 30; i++) {
+      conversation.add("message " + i);
+    }
+
+    assertEquals(30, conversation.messageCount());
+
+    final List<String> found = new ArrayList<>();
+    for (final MessageContext message : conversation.tail(3)) {
+      found.add(message.message.content);
+    }
+    assertEquals(Arrays.asList("message 27", "message 28", "message 29"), found);
+
+    // Asking for more than there are gets them all.
+    assertEquals(30, size(conversation.tail(100)));
+  }
+
+  @Test
+  public void testUsersAndConversationsArePagedLazily() throws IOException {
+
+    // Added straight to the model so that the counts below are this test's.
+    final Model model = new Model();
+    final Uuid root = new Uuid(201);
+    final User owner = new User(new Uuid(root, 0), "owner", Time.now());
+    model.add(owner);
+    for (int i = 1; i <= 600; i++) {
+      model.add(new User(new Uuid(root, i), "user " + i, Time.now()));
+      model.add(new ConversationHeader(new Uuid(root, 1000 + i), owner.id, Time.now(), "c" + i));
+    }
+
+    final Server paged = new Server(Uuid.parse("100.104"), Secret.parse("ABABAB"),
+                                    new NoOpRelay(), THREADS, Server.DEFAULT_MAX_PENDING, model);
+    final LoopbackSource pagedSource = new LoopbackSource(paged);
+    final Context client = new Context(pagedSource);
+    final UserContext user = client.findUser("owner");
+
+    // Stopping after the first of each only fetches the first page.
+    pagedSource.requests.set(0);
+    assertNotNull(client.allUsers().iterator().next());
+    assertNotNull(user.conversations().iterator().next());
+    assertEquals(2, pagedSource.requests.get());
+
+    long users = 0;
+    long conversations = 0;
+    for (final ServerStats.Command command : client.getStats().commands) {
+      if ("GET_USERS_PAGE_REQUEST".equals(command.name)) {
+        users = command.count;
+      } else if ("GET_CONVERSATIONS_PAGE_REQUEST".equals(command.name)) {
+        conversations = command.count;
+      }
+    }
+    assertEquals(1, users);
+    assertEquals(1, conversations);
+
+    // Going on from there reads the rest of the pages.
+    assertEquals(model.userById().size(), size(client.allUsers()));
+    assertEquals(model.conversationById().size(), size(user.conversations()));
+  }
+
+  @Test
+  public void testUsersAreSyncedByDelta() {
+
+    for (int i = 0; i < 600; i++) {
+      assertNotNull(context.create("user " + i));
+    }
+
+    // Every server in this JVM loads what earlier ones wrote to the log, so
+    // count what this one holds.
+    final int count = model.userById().size();
+
+    source.requests.set(0);
+    assertEquals(count, size(context.allUsers()));
+    // The first sync is done in pages of 256.
+    assertTrue(source.requests.get() >= 3);
+
+    // Nothing has changed, so one request is enough.
+    source.requests.set(0);
+    assertEquals(count, size(context.allUsers()));
+    assertEquals(1, source.requests.get());
+
+    for (int i = 0; i < 5; i++) {
+      assertNotNull(context.create("late user " + i));
+    }
+
+    source.requests.set(0);
+    final Set<Uuid> ids = new HashSet<>();
+    for (final UserContext user : context.allUsers()) {
+      assertTrue("Check that users are not repeated", ids.add(user.user.id));
+    }
+    assertEquals(count + 5, ids.size());
+    assertEquals(1, source.requests.get());
+  }
+
+  @Test
+  public void testUsersCreatedAtOnceAreAllSynced() throws IOException {
+
+    // More users share a creation time than fit in a page. They are added
+    // straight to the model so that the counts below are this test's.
+    final Model model = new Model();
+    final Time now = Time.now();
+    for (int i = 0; i < 600; i++) {
+      model.add(new User(new Uuid(new Uuid(200), i), "user " + i, now));
+    }
+
+    final Server crowded = new Server(Uuid.parse("100.103"), Secret.parse("ABABAB"),
+                                      new NoOpRelay(), THREADS, Server.DEFAULT_MAX_PENDING, model);
+    final Context client = new Context(new LoopbackSource(crowded));
+
+    assertEquals(model.userById().size(), size(client.allUsers()));
+
+    for (int i = 600; i < 900; i++) {
+      model.add(new User(new Uuid(new Uuid(200), i), "user " + i, now));
+    }
+
+    assertEquals(model.userById().size(), size(client.allUsers()));
+  }
+
+  @Test
+  public void testFindUserByName() {
+
+    // The server may have loaded users from an earlier run, so every name is
+    // made unique to this one.
+    final String run = " " + System.nanoTime();
+
+    final UserContext upper = context.create("Alice" + run);
+    final UserContext lower = context.create("alice" + run);
+    context.create("bob" + run);
+
+    source.requests.set(0);
+
+    assertEquals(upper.user.id, context.findUser("Alice" + run).user.id);
+    assertEquals(lower.user.id, context.findUser("alice" + run).user.id);
+    assertNull(context.findUser("ALICE" + run));
+    assertNull(context.findUser("aaron" + run));
+    assertNull(context.findUser("carol" + run));
+
+    // Each lookup is a single request that does not list every user.
+    assertEquals(5, source.requests.get());
+  }
+
+  @Test
+  public void testFindConversationByTitle() {
+
+    // The server may have loaded conversations from an earlier run, so every
+    // title starts with something unique to this one.
+    final String run = System.nanoTime() + " ";
+
+    final UserContext user = context.create("user");
+    final ConversationContext general = user.start(run + "general");
+    user.start(run + "General Chat");
+    user.start(run + "games");
+    user.start(run + "help");
+
+    source.requests.set(0);
+
+    assertEquals(general.conversation.id, user.conversation(run + "general").conversation.id);
+    assertNull(user.conversation(run + "gen"));
+
+    final List<String> titles = new ArrayList<>();
+    for (final ConversationContext conversation : user.conversations(run + "GEN", 10)) {
+      titles.add(conversation.conversation.title);
+    }
+    assertEquals(2, titles.size());
+    assertTrue(titles.contains(run + "general"));
+    assertTrue(titles.contains(run + "General Chat"));
+
+    assertEquals(1, size(user.conversations(run + "g", 1)));
+
+    assertEquals(4, source.requests.get());
+  }
+
+  @Test
+  public void testConcurrentMessages() throws Exception {
+
+    final UserContext user = context.create("user");
+    final ConversationContext conversation = user.start("conversation");
+
+    final int perThread = 25;
+
+    runInParallel(new Task() {
+      @Override
+      public void run(int thread) {
+        for (int i = 0; i < perThread; i++) {
+          conversation.add(thread + ":" + i);
+          // Read while others are writing.
+          conversation.lastMessage();
+        }
+      }
+    });
+
+    // Every message should be in the conversation exactly once and the chain
+    // should be intact from front to back.
+    final Set<String> seen = new HashSet<>();
+    MessageContext last = null;
+    for (MessageContext message = conversation.firstMessage();
+         message != null;
+         message = message.next()) {
+      assertTrue("Check that messages are not repeated", seen.add(message.message.content));
+      last = message;
+    }
+
+    assertEquals(THREADS * perThread, seen.size());
+    assertEquals(conversation.lastMessage().message.id, last.message.id);
+  }
+
+  @Test
+  public void testConcurrentUsers() throws Exception {
+
+    final int perThread = 10;
+    final String prefix = "concurrent-" + System.nanoTime() + "-";
+
+    runInParallel(new Task() {
+      @Override
+      public void run(int thread) {
+        for (int i = 0; i < perThread; i++) {
+          assertNotNull(context.create(prefix + thread + "-" + i));
+          size(context.allUsers());
+        }
+      }
+    });
+
+    final Set<Uuid> ids = new HashSet<>();
+    for (final UserContext user : context.allUsers()) {
+      if (user.user.name.startsWith(prefix)) {
+        ids.add(user.user.id);
+      }
+    }
+
+    assertEquals(THREADS * perThread, ids.size());
+  }
+
+  private static int size(Iterable<?> values) {
+    int size = 0;
+    for (final Object value : values) {
+      size++;
+    }
+    return size;
+  }
+
+  private interface Task {
+    void run(int thread);
+  }
+
+  private static void runInParallel(final Task task) throws Exception {
+
+    final Thread[] threads = new Thread[THREADS];
+    final Throwable[] failures = new Throwable[THREADS];
+
+    for (int i = 0; i < THREADS; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            task.run(index);
+          } catch (Throwable ex) {
+            failures[index] = ex;
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (int i = 0; i < THREADS; i++) {
+      threads[i].join();
+      if (failures[i] != null) {
+        throw new AssertionError(failures[i]);
+      }
+    }
+  }
+
+  // LOOPBACK SOURCE
+  //
+  @Test
+  public void testHandshake() throws IOException {
+
+    final Protocol agreed = context.protocol();
+    assertEquals(Protocol.VERSION, agreed.version);
+    assertTrue(agreed.has(Protocol.SESSIONS | Protocol.COMPRESSION | Protocol.PUSH));
+
+    // A newer client offering something the server has never heard of only
+    // gets what the server has.
+    final long unknown = 1L << 40;
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.HELLO_REQUEST);
+      Protocol.SERIALIZER.write(connection.out(), new Protocol(Protocol.VERSION + 1, Protocol.PAGING | unknown));
+      assertEquals(NetworkCode.HELLO_RESPONSE, (int) Serializers.INTEGER.read(connection.in()));
+      final Protocol answer = Protocol.SERIALIZER.read(connection.in());
+      assertEquals(Protocol.VERSION, answer.version);
+      assertEquals(Protocol.PAGING, answer.capabilities);
+    }
+  }
+
+  @Test
+  public void testStatsAreRecorded() {
+
+    for (int i = 0; i < 10; i++) {
+      assertNotNull(context.create("user " + i));
+    }
+
+    final ServerStats stats = context.getStats();
+    assertNotNull(stats);
+
+    ServerStats.Command newUser = null;
+    for (final ServerStats.Command command : stats.commands) {
+      if ("NEW_USER_REQUEST".equals(command.name)) {
+        newUser = command;
+      }
+    }
+
+    assertNotNull(newUser);
+    assertEquals(10, newUser.count);
+    assertTrue(newUser.runP50 <= newUser.runP99);
+    assertTrue(newUser.runP99 <= newUser.runMax);
+    assertEquals(0, stats.rejected);
+    assertEquals("no relay pool", stats.relayPool);
+  }
+
+  @Test
+  public void testRelayPoolIsReported() throws IOException {
+
+    try (final PooledConnectionSource pool = new PooledConnectionSource(
+        new LoopbackSource(server), NetworkCode.OPEN_SESSION_REQUEST, NetworkCode.OPEN_SESSION_RESPONSE, 1, 1000)) {
+
+      server.reportRelayPool(pool);
+
+      final ServerStats stats = context.getStats();
+      assertNotNull(stats);
+      assertEquals(pool.toString(), stats.relayPool);
+    }
+  }
+
+  @Test
+  public void testBusyServerTurnsRequestsAway() throws Exception {
+
+    // Workers that hold every request until "gate" opens.
+    final CountDownLatch gate = new CountDownLatch(1);
+    final AtomicInteger submitted = new AtomicInteger();
+    final Executor workers = new Executor() {
+      @Override
+      public void execute(final Runnable task) {
+        submitted.incrementAndGet();
+        new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              gate.await();
+            } catch (InterruptedException ex) {
+              return;
+            }
+            task.run();
+          }
+        }).start();
+      }
+    };
+
+    // Room for two requests, only one of which may be a read. The server may
+    // have loaded users from an earlier run, so only new ones are counted.
+    final Model busyModel = new Model();
+    final Server busy = new Server(Uuid.parse("100.102"), Secret.parse("ABABAB"), new NoOpRelay(), workers, 2, busyModel);
+    final int before = busyModel.userById().size();
+    final LoopbackSource busySource = new LoopbackSource(busy);
+
+    final Thread first = newUserInBackground(busySource, "first");
+    waitFor(submitted, 1);
+
+    // The read lane is full, but a write still gets in.
+    final Thread second = newUserInBackground(busySource, "second");
+    waitFor(submitted, 2);
+
+    // Now there is no room for a read...
+    try (final Connection connection = busySource.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_REQUEST);
+      assertEquals(NetworkCode.SERVER_BUSY, (int) Serializers.INTEGER.read(connection.in()));
+    }
+
+    // ...or a write, so a client waits and tries again until there is.
+    final LoopbackSource clientSource = new LoopbackSource(busy);
+    final Context client = new Context(clientSource);
+    final AtomicReference<UserContext> created = new AtomicReference<>();
+    final Thread third = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        created.set(client.create("third"));
+      }
+    });
+    third.start();
+
+    waitFor(clientSource.requests, 2);
+    gate.countDown();
+
+    third.join(10000);
+    first.join(10000);
+    second.join(10000);
+
+    assertNotNull(created.get());
+    assertEquals("third", created.get().user.name);
+    assertEquals(before + 3, size(client.allUsers()));
+  }
+
+  @Test
+  public void testBusyServerDoesNotReadEveryConnection() throws Exception {
+
+    // Workers that never run anything, so the only read slot stays taken.
+    final Executor workers = new Executor() {
+      @Override
+      public void execute(Runnable task) { }
+    };
+    final Server busy = new Server(Uuid.parse("100.103"), Secret.parse("ABABAB"), new NoOpRelay(), workers, 1);
+
+    // Connections that never say what they want, until "release" opens.
+    final CountDownLatch release = new CountDownLatch(1);
+    final InputStream silent = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          throw new InterruptedIOException();
+        }
+        throw new EOFException();
+      }
+    };
+
+    try {
+      // One is let in and the rest fill the threads and queue that read
+      // connections which were not let in.
+      for (int i = 0; i < 1 + Server.REJECTER_THREADS + Server.REJECTER_QUEUE_SIZE; i++) {
+        busy.handleConnection(new FakeConnection(silent, new ByteArrayOutputStream()));
+      }
+
+      // Past that, a connection is told the server is busy without being read.
+      final AtomicInteger reads = new AtomicInteger();
+      final InputStream counted = new InputStream() {
+        @Override
+        public int read() {
+          reads.incrementAndGet();
+          return -1;
+        }
+      };
+      final ByteArrayOutputStream response = new ByteArrayOutputStream();
+      final FakeConnection last = new FakeConnection(counted, response);
+      busy.handleConnection(last);
+
+      assertTrue(last.closed);
+      assertEquals(0, reads.get());
+      assertEquals(
+          NetworkCode.SERVER_BUSY,
+          (int) Serializers.INTEGER.read(new ByteArrayInputStream(response.toByteArray())));
+    } finally {
+      release.countDown();
+    }
+  }
+
+  private static Thread newUserInBackground(final ConnectionSource source, final String name) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try (final Connection connection = source.connect()) {
+          Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+          Serializers.STRING.write(connection.out(), name);
+          Serializers.INTEGER.read(connection.in());
+        } catch (IOException ex) {
+          // The user count checked by the test will be short.
+        }
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static void waitFor(AtomicInteger counter, int value) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (counter.get() < value) {
+      assertTrue("Timed out waiting for " + value, System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  private static final class FakeConnection implements Connection {
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    volatile boolean closed = false;
+
+    FakeConnection(InputStream in, OutputStream out) {
+      this.in = in;
+      this.out = out;
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public void close() { closed = true; }
+  }
+
+  // Hands each request straight to the server without a socket. The request is
+  // collected until the client starts reading, and the response is ready once
+  // the server closes the connection.
+  private static final class LoopbackSource implements ConnectionSource {
+
+    private final Server server;
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    LoopbackSource(Server server) {
+      this.server = server;
+    }
+
+    @Override
+    public Connection connect() {
+
+      requests.incrementAndGet();
+
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      final ByteArrayOutputStream response = new ByteArrayOutputStream();
+      final CountDownLatch done = new CountDownLatch(1);
+
+      final Connection serverSide = new Connection() {
+
+        private InputStream in;
+
+        @Override
+        public InputStream in() {
+          if (in == null) {
+            in = new ByteArrayInputStream(request.toByteArray());
+          }
+          return in;
+        }
+
+        @Override
+        public OutputStream out() { return response; }
+
+        @Override
+        public void close() { done.countDown(); }
+      };
+
+      return new Connection() {
+
+        private InputStream in;
+
+        @Override
+        public InputStream in() throws IOException {
+          if (in == null) {
+            server.handleConnection(serverSide);
+            try {
+              done.await();
+            } catch (InterruptedException ex) {
+              throw new InterruptedIOException();
+            }
+            in = new ByteArrayInputStream(response.toByteArray());
+          }
+          return in;
+        }
+
+        @Override
+        public OutputStream out() { return request; }
+
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import codeu.chat.client.core.Context;
+import codeu.chat.client.core.ConversationContext;
+import codeu.chat.client.core.Subscription;
+import codeu.chat.client.core.UserContext;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.Secret;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+
+public final class SubscriptionsTest {
+
+  private ServerSocket serverSocket;
+
+  @Before
+  public void doBefore() throws IOException {
+    serverSocket = new ServerSocket(0);
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    serverSocket.close();
+  }
+
+  @Test
+  public void testPush() throws Exception {
+
+    final Server server = new Server(Uuid.parse("100.101"), Secret.parse("ABABAB"), new NoOpRelay());
+
+    accept(new Acceptor() {
+      @Override
+      public void onConnection(Connection connection) {
+        server.handleConnection(connection);
+      }
+    });
+
+    final ClientConnectionSource source =
+        new ClientConnectionSource("localhost", serverSocket.getLocalPort());
+    final Context context = new Context(source, source);
+
+    final UserContext user = context.create("user");
+    final ConversationContext followed = user.start("followed");
+    final ConversationContext other = user.start("other");
+
+    final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+    try (final Subscription subscription = context.subscribe(new Subscription.Listener() {
+      @Override
+      public void onMessage(Uuid conversation, Message message) {
+        received.add(message.content);
+      }
+
+      @Override
+      public void onClosed() { }
+    })) {
+
+      assertTrue(subscription.subscribe(followed.conversation.id));
+
+      other.add("not followed");
+      followed.add("hello");
+
+      assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+
+      assertTrue(subscription.unsubscribe(followed.conversation.id));
+      assertFalse(subscription.unsubscribe(followed.conversation.id));
+
+      followed.add("after unsubscribing");
+
+      // Subscribing again is answered after anything that would have been
+      // pushed before it.
+      assertTrue(subscription.subscribe(other.conversation.id));
+      assertTrue(received.isEmpty());
+    }
+  }
+
+  @Test
+  public void testSlowSubscriberIsDisconnected() throws Exception {
+
+    final Subscriptions subscriptions = new Subscriptions(2);
+
+    accept(new Acceptor() {
+      @Override
+      public void onConnection(Connection connection) {
+        try {
+          subscriptions.serve(connection, Serializers.INTEGER.read(connection.in()));
+        } catch (IOException ex) {
+          fail(ex.toString());
+        }
+      }
+    });
+
+    final Uuid conversation = Uuid.parse("1");
+
+    try (final Connection client =
+             new ClientConnectionSource("localhost", serverSocket.getLocalPort()).connect()) {
+
+      Serializers.INTEGER.write(client.out(), NetworkCode.SUBSCRIBE_REQUEST);
+      Uuid.SERIALIZER.write(client.out(), conversation);
+
+      assertEquals(NetworkCode.SUBSCRIBE_RESPONSE, (int) Serializers.INTEGER.read(client.in()));
+      assertTrue(Serializers.BOOLEAN.read(client.in()));
+      assertEquals(1, subscriptions.subscribers(conversation));
+
+      // Stop reading. Once the socket buffers are full the queue fills up and
+      // the subscriber is dropped.
+      final char[] content = new char[64 * 1024];
+      Arrays.fill(content, 'x');
+      final Message message = new Message(
+          Uuid.parse("2"), Uuid.NULL, Uuid.NULL, Time.now(), Uuid.parse("3"), new String(content));
+
+      for (int i = 0; i < 1000 && subscriptions.subscribers(conversation) > 0; i++) {
+        subscriptions.publish(conversation, message);
+        Thread.sleep(1);
+      }
+
+      assertEquals(0, subscriptions.subscribers(conversation));
+    }
+  }
+
+  private interface Acceptor {
+    void onConnection(Connection connection);
+  }
+
+  private void accept(final Acceptor acceptor) {
+    final Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            acceptor.onConnection(new TestConnection(serverSocket.accept()));
+          }
+        } catch (IOException ex) {
+          // The server socket was closed.
+        }
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private static final class TestConnection implements Connection {
+
+    private final Socket socket;
+
+    TestConnection(Socket socket) {
+      this.socket = socket;
+    }
+
+    @Override
+    public InputStream in() throws IOException {
+      return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream out() throws IOException {
+      return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+}
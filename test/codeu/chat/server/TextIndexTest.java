@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.SearchQuery;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextIndexTest {
+
+  private static final Uuid FIRST = new Uuid(1);
+  private static final Uuid SECOND = new Uuid(2);
+
+  private TextIndex index;
+  private int next;
+
+  @Before
+  public void doBefore() {
+    index = new TextIndex();
+    next = 0;
+  }
+
+  @Test
+  public void testTerms() {
+    assertEquals(
+        Arrays.asList("hello", "world", "it", "s", "2017"),
+        new ArrayList<>(TextIndex.terms("Hello, world! It's 2017... HELLO")));
+  }
+
+  @Test
+  public void testMatchAllAndAny() {
+
+    add(FIRST, 10, "the quick brown fox");
+    add(FIRST, 20, "the lazy dog");
+    add(FIRST, 30, "a quick dog");
+
+    assertContents(search(true, Uuid.NULL, null, null, 10, "quick", "dog"), "a quick dog");
+    assertContents(search(false, Uuid.NULL, null, null, 10, "fox", "lazy"),
+                   "the lazy dog", "the quick brown fox");
+
+    // A word that is nowhere fails an "all" search but not an "any" one.
+    assertContents(search(true, Uuid.NULL, null, null, 10, "quick", "cat"));
+    assertContents(search(false, Uuid.NULL, null, null, 10, "quick", "cat"),
+                   "a quick dog", "the quick brown fox");
+  }
+
+  @Test
+  public void testCaseAndPunctuationAreIgnored() {
+    add(FIRST, 10, "Meeting at NOON, ok?");
+    assertContents(search(true, Uuid.NULL, null, null, 10, "noon", "OK!"), "Meeting at NOON, ok?");
+  }
+
+  @Test
+  public void testConversationScope() {
+
+    add(FIRST, 10, "ship it");
+    add(SECOND, 20, "ship it now");
+
+    assertContents(search(true, FIRST, null, null, 10, "ship"), "ship it");
+    assertContents(search(true, SECOND, null, null, 10, "ship"), "ship it now");
+    assertContents(search(true, new Uuid(3), null, null, 10, "ship"));
+  }
+
+  @Test
+  public void testTimeBounds() {
+
+    for (int i = 1; i <= 5; i++) {
+      add(FIRST, i * 10, "tick " + i);
+    }
+
+    assertContents(search(true, Uuid.NULL, Time.fromMs(20), Time.fromMs(40), 10, "tick"),
+                   "tick 4", "tick 3", "tick 2");
+    assertContents(search(true, Uuid.NULL, Time.fromMs(45), null, 10, "tick"), "tick 5");
+    assertContents(search(true, Uuid.NULL, null, Time.fromMs(10), 10, "tick"), "tick 1");
+  }
+
+  @Test
+  public void testNewestComeFirst() {
+
+    // Added out of order, as messages from a relay may be.
+    add(FIRST, 30, "news 3");
+    add(FIRST, 10, "news 1");
+    add(FIRST, 50, "news 5");
+    add(FIRST, 20, "news 2");
+    add(FIRST, 40, "news 4");
+
+    assertContents(search(true, Uuid.NULL, null, null, 3, "news"), "news 5", "news 4", "news 3");
+  }
+
+  private void add(Uuid conversation, long ms, String content) {
+    next += 1;
+    index.add(new Message(new Uuid(next), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, content),
+              conversation);
+  }
+
+  private List<Message> search(boolean all, Uuid conversation, Time from, Time to, int limit,
+                               String... terms) {
+    return index.search(new SearchQuery(Arrays.asList(terms), all, conversation, from, to, limit));
+  }
+
+  private static void assertContents(List<Message> messages, String... expected) {
+    final List<String> contents = new ArrayList<>();
+    for (final Message message : messages) {
+      contents.add(message.content);
+    }
+    assertEquals(Arrays.asList(expected), contents);
+  }
+}
@@ -0,0 +1,88 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.BasicController;
+import codeu.chat.common.ConversationHeader;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private Model model;
+  private BasicController controller;
+  private View view;
+
+  @Before
+  public void doBefore() throws IOException {
+    model = new Model();
+    controller = new Controller(Uuid.NULL, model);
+    view = new View(model);
+  }
+
+  @Test
+  public void testListingReadsTheStore() {
+
+    // The controller may have loaded users from an earlier run.
+    final int before = view.getUsers().size();
+
+    for (int i = 0; i < 5; i++) {
+      controller.newUser("user " + i);
+    }
+
+    final Collection<User> users = view.getUsers();
+    assertEquals(before + 5, users.size());
+
+    int count = 0;
+    for (final User user : users) {
+      assertNotNull(user);
+      count += 1;
+    }
+    assertEquals(users.size(), count);
+  }
+
+  @Test
+  public void testMessagesComeBackInTheOrderAsked() {
+
+    final User user = controller.newUser("user");
+    final ConversationHeader conversation = controller.newConversation("conversation", user.id);
+
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      messages.add(controller.newMessage(user.id, conversation.id, "message " + i));
+    }
+
+    // Out of order, with a duplicate and an id that does not exist.
+    final Collection<Message> found = view.getMessages(Arrays.asList(
+        messages.get(2).id,
+        messages.get(0).id,
+        new Uuid(12345),
+        messages.get(3).id,
+        messages.get(0).id));
+
+    final List<Message> expected = Arrays.asList(messages.get(2), messages.get(0), messages.get(3));
+    assertEquals(expected, new ArrayList<>(found));
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class CompactSerializersTest {
+
+  @Test
+  public void testVarintSizes() throws IOException {
+    assertEquals(1, encode(CompactSerializers.VARINT, 0).length);
+    assertEquals(1, encode(CompactSerializers.VARINT, 127).length);
+    assertEquals(2, encode(CompactSerializers.VARINT, 128).length);
+    assertEquals(3, encode(CompactSerializers.VARINT, 1 << 14).length);
+    assertEquals(5, encode(CompactSerializers.VARINT, Integer.MAX_VALUE).length);
+    assertEquals(5, encode(CompactSerializers.VARINT, -1).length);
+  }
+
+  @Test
+  public void testVarintRoundTrip() throws IOException {
+    final int[] values = {
+        0, 1, 127, 128, 255, 300, 1 << 14, (1 << 21) - 1, Integer.MAX_VALUE, -1, Integer.MIN_VALUE
+    };
+    for (final int value : values) {
+      assertEquals(value, (int) roundTrip(CompactSerializers.VARINT, value));
+    }
+  }
+
+  @Test
+  public void testZigZagKeepsSmallValuesSmall() throws IOException {
+
+    assertEquals(0, CompactSerializers.zigZag(0));
+    assertEquals(1, CompactSerializers.zigZag(-1));
+    assertEquals(2, CompactSerializers.zigZag(1));
+    assertEquals(3, CompactSerializers.zigZag(-2));
+
+    assertEquals(1, encode(CompactSerializers.ZIGZAG, -64L).length);
+    assertEquals(1, encode(CompactSerializers.ZIGZAG, 63L).length);
+    assertEquals(10, encode(CompactSerializers.ZIGZAG, Long.MIN_VALUE).length);
+  }
+
+  @Test
+  public void testZigZagRoundTrip() throws IOException {
+    final long[] values = {
+        0, 1, -1, 63, -64, 1000, -1000, Long.MAX_VALUE, Long.MIN_VALUE, System.currentTimeMillis()
+    };
+    for (final long value : values) {
+      assertEquals(value, (long) roundTrip(CompactSerializers.ZIGZAG, value));
+    }
+  }
+
+  @Test
+  public void testStringMatchesSerializers() throws IOException {
+    final String[] values = { "", "hello", new String(new char[1000]) };
+    for (final String value : values) {
+      assertEquals(roundTrip(Serializers.STRING, value), roundTrip(CompactSerializers.STRING, value));
+    }
+    // Four bytes of length in v1, one in v2.
+    assertEquals(encode(Serializers.STRING, "hello").length - 3,
+                 encode(CompactSerializers.STRING, "hello").length);
+  }
+
+  @Test
+  public void testStringIsUtf8() throws IOException {
+    final String value = "caf\u00e9 \u4e16\u754c";
+    assertEquals(value, roundTrip(CompactSerializers.STRING, value));
+    assertEquals(1 + 5 + 1 + 6, encode(CompactSerializers.STRING, value).length);
+  }
+
+  @Test
+  public void testCollectionRoundTrip() throws IOException {
+    final Collection<Integer> value = Arrays.asList(1, 200, 30000, -5);
+    assertEquals(
+        value,
+        roundTrip(CompactSerializers.collection(CompactSerializers.VARINT), value));
+  }
+
+  @Test
+  public void testUuidRoundTrip() throws IOException {
+
+    final Uuid server = new Uuid(7);
+    final Uuid base = new Uuid(server, 100);
+
+    final Uuid[] values = {
+        null,
+        Uuid.NULL,
+        server,
+        base,
+        new Uuid(server, -42),
+        new Uuid(new Uuid(8), 5),
+        new Uuid(new Uuid(new Uuid(1), 2), 3)
+    };
+
+    for (final Uuid value : values) {
+      final Uuid expected = roundTrip(Uuid.SERIALIZER, value);
+      assertTrue(Uuid.equals(expected, roundTrip(CompactSerializers.uuid(base), value)));
+      assertTrue(Uuid.equals(expected, roundTrip(CompactSerializers.uuid(null), value)));
+    }
+  }
+
+  @Test
+  public void testUuidUnderBaseIsShort() throws IOException {
+
+    final Uuid server = new Uuid(7);
+    final Uuid base = new Uuid(server, 100);
+    final Uuid sibling = new Uuid(server, 101);
+
+    assertEquals(9, encode(Uuid.SERIALIZER, sibling).length);
+    assertEquals(5, encode(CompactSerializers.uuid(base), sibling).length);
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedVarint() throws IOException {
+    CompactSerializers.VARINT.read(new ByteArrayInputStream(new byte[] { (byte) 0x80 }));
+  }
+
+  @Test(expected = IOException.class)
+  public void testOverlongVarint() throws IOException {
+    final byte[] bytes = new byte[11];
+    Arrays.fill(bytes, (byte) 0x80);
+    CompactSerializers.VARINT.read(new ByteArrayInputStream(bytes));
+  }
+
+  private static <T> byte[] encode(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.write(out, value);
+    return out.toByteArray();
+  }
+
+  private static <T> T roundTrip(Serializer<T> serializer, T value) throws IOException {
+    final ByteArrayInputStream in = new ByteArrayInputStream(encode(serializer, value));
+    final T result = serializer.read(in);
+    assertEquals("Bytes were left over.", 0, in.available());
+    return result;
+  }
+}
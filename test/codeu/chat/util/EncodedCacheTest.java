@@ -0,0 +1,106 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class EncodedCacheTest {
+
+  // Writes "size" bytes for a value of "size" and counts how often it did.
+  private static final class Sized implements EncodedCache.Writer<Integer> {
+
+    int writes = 0;
+
+    @Override
+    public void write(OutputStream out, Integer value) throws IOException {
+      writes += 1;
+      out.write(new byte[value]);
+    }
+  }
+
+  @Test
+  public void testValueIsEncodedOnce() throws IOException {
+
+    final EncodedCache cache = new EncodedCache(1024);
+    final EncodedCache.Slot slot = new EncodedCache.Slot();
+    final Sized serializer = new Sized();
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(100, cache.encode(slot, 100, serializer).length);
+    }
+
+    assertEquals(1, serializer.writes);
+    assertEquals(9, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(100, cache.used());
+  }
+
+  @Test
+  public void testOldestEntriesAreDropped() throws IOException {
+
+    final EncodedCache cache = new EncodedCache(250);
+    final Sized serializer = new Sized();
+
+    final EncodedCache.Slot first = new EncodedCache.Slot();
+    final EncodedCache.Slot second = new EncodedCache.Slot();
+    final EncodedCache.Slot third = new EncodedCache.Slot();
+
+    cache.encode(first, 100, serializer);
+    cache.encode(second, 100, serializer);
+    cache.encode(third, 100, serializer);
+
+    assertEquals(200, cache.used());
+    assertEquals(1, cache.evictions());
+
+    // "first" was dropped so it is encoded again; "third" is still there.
+    cache.encode(third, 100, serializer);
+    assertEquals(3, serializer.writes);
+    cache.encode(first, 100, serializer);
+    assertEquals(4, serializer.writes);
+    assertTrue(cache.used() <= cache.budget());
+  }
+
+  @Test
+  public void testValuesOverBudgetAreNotKept() throws IOException {
+
+    final EncodedCache cache = new EncodedCache(10);
+    final EncodedCache.Slot slot = new EncodedCache.Slot();
+    final Sized serializer = new Sized();
+
+    cache.encode(slot, 100, serializer);
+    cache.encode(slot, 100, serializer);
+
+    assertEquals(2, serializer.writes);
+    assertEquals(0, cache.used());
+  }
+
+  @Test
+  public void testShrinkingBudgetDropsEntries() throws IOException {
+
+    final EncodedCache cache = new EncodedCache(1000);
+    final Sized serializer = new Sized();
+    for (int i = 0; i < 5; i++) {
+      cache.encode(new EncodedCache.Slot(), 100, serializer);
+    }
+    assertEquals(500, cache.used());
+
+    cache.budget(0);
+    assertEquals(0, cache.used());
+    assertEquals(5, cache.evictions());
+  }
+}
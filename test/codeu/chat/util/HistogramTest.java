@@ -0,0 +1,99 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class HistogramTest {
+
+  @Test
+  public void testEmpty() {
+    final Histogram histogram = new Histogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentile(50));
+    assertEquals(0, histogram.max());
+  }
+
+  @Test
+  public void testSmallValuesAreExact() {
+
+    final Histogram histogram = new Histogram();
+    for (int value = 1; value <= 4; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(4, histogram.count());
+    assertEquals(2, histogram.percentile(50));
+    assertEquals(4, histogram.percentile(100));
+    assertEquals(2, histogram.mean());
+  }
+
+  @Test
+  public void testPercentilesAreClose() {
+
+    final Histogram histogram = new Histogram();
+    for (int value = 1; value <= 100000; value++) {
+      histogram.record(value);
+    }
+
+    assertClose(50000, histogram.percentile(50));
+    assertClose(99000, histogram.percentile(99));
+    assertClose(99900, histogram.percentile(99.9));
+    assertEquals(100000, histogram.max());
+  }
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    for (long value : new long[] { 0, 7, 8, 15, 16, 1000, 1L << 40, Long.MAX_VALUE }) {
+      final int bucket = Histogram.bucket(value);
+      assertTrue(Histogram.highest(bucket) >= value);
+      assertTrue(bucket == 0 || Histogram.highest(bucket - 1) < value);
+    }
+  }
+
+  @Test
+  public void testConcurrentRecording() throws InterruptedException {
+
+    final Histogram histogram = new Histogram();
+    final Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int value = 0; value < 10000; value++) {
+            histogram.record(value);
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(40000, histogram.count());
+    assertEquals(9999, histogram.max());
+  }
+
+  // Reported values may be up to an eighth above the true value and never
+  // below it.
+  private static void assertClose(long expected, long actual) {
+    assertTrue(actual + " should be at least " + expected, actual >= expected);
+    assertTrue(actual + " should be close to " + expected, actual <= expected + expected / 8);
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class SerializersTest {
+
+  @Test
+  public void testBytesArrivingInPieces() throws IOException {
+
+    final byte[] value = new byte[10000];
+    for (int i = 0; i < value.length; i++) {
+      value[i] = (byte) i;
+    }
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.BYTES.write(out, value);
+
+    // A socket hands over whatever has arrived, which is often less than was
+    // asked for.
+    final InputStream in = new ByteArrayInputStream(out.toByteArray()) {
+      @Override
+      public synchronized int read(byte[] buffer, int offset, int count) {
+        return super.read(buffer, offset, Math.min(count, 7));
+      }
+    };
+
+    assertArrayEquals(value, Serializers.BYTES.read(in));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedBytes() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.BYTES.write(out, new byte[] { 1, 2, 3, 4 });
+
+    final byte[] truncated = new byte[out.size() - 1];
+    System.arraycopy(out.toByteArray(), 0, truncated, 0, truncated.length);
+
+    Serializers.BYTES.read(new ByteArrayInputStream(truncated));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testTruncatedInteger() throws IOException {
+    Serializers.INTEGER.read(new ByteArrayInputStream(new byte[] { 0, 0 }));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testHugeLengthIsNotTrusted() throws IOException {
+
+    // Claims almost 2GB but sends a handful of bytes. Making room for all of
+    // it up front would run out of memory before the EOF could be found.
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, Integer.MAX_VALUE - 16);
+    out.write(new byte[] { 1, 2, 3 });
+
+    Serializers.BYTES.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  @Test(expected = EOFException.class)
+  public void testHugeSizeIsNotTrusted() throws IOException {
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(out, Integer.MAX_VALUE);
+    Serializers.INTEGER.write(out, 1);
+
+    Serializers.collection(Serializers.INTEGER).read(new ByteArrayInputStream(out.toByteArray()));
+  }
+}
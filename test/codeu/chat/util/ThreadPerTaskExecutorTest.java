@@ -0,0 +1,53 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class ThreadPerTaskExecutorTest {
+
+  @Test
+  public void testBlockedTasksDoNotHoldUpOthers() throws Exception {
+
+    final ThreadPerTaskExecutor executor = new ThreadPerTaskExecutor("test");
+
+    final int tasks = 200;
+    final CountDownLatch started = new CountDownLatch(tasks);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    // Every task blocks until all of them have started. This can only finish
+    // if each task has a thread of its own.
+    for (int i = 0; i < tasks; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    release.countDown();
+  }
+}
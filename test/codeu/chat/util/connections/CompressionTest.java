@@ -0,0 +1,163 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class CompressionTest {
+
+  @Test
+  public void testNoneIsUntouched() throws IOException {
+
+    final Compression none = Compression.none();
+    final byte[] body = text(1000, 1);
+
+    assertSame(body, none.encode(body));
+    assertSame(body, none.decode(body));
+  }
+
+  @Test
+  public void testSmallBodiesAreNotDeflated() throws IOException {
+
+    final Compression.Stats stats = new Compression.Stats();
+    final Compression sender = Compression.negotiated(false, stats);
+    final Compression receiver = Compression.negotiated(false, new Compression.Stats());
+
+    final byte[] body = text(Compression.COMPRESS_FROM_BYTES - 1, 2);
+
+    assertArrayEquals(body, receiver.decode(sender.encode(body)));
+    assertEquals(0, stats.deflatedFrames());
+    assertEquals(body.length + 1, stats.wireBytes());
+  }
+
+  @Test
+  public void testLargeBodiesAreDeflated() throws IOException {
+
+    final Compression.Stats stats = new Compression.Stats();
+    final Compression sender = Compression.negotiated(false, stats);
+    final Compression receiver = Compression.negotiated(false, new Compression.Stats());
+
+    final byte[] body = text(20000, 3);
+
+    assertArrayEquals(body, receiver.decode(sender.encode(body)));
+    assertEquals(1, stats.deflatedFrames());
+    assertTrue(stats.ratio() < 0.5);
+  }
+
+  @Test
+  public void testIncompressibleBodiesAreSentAsIs() throws IOException {
+
+    final Compression.Stats stats = new Compression.Stats();
+    final Compression sender = Compression.negotiated(false, stats);
+    final Compression receiver = Compression.negotiated(false, new Compression.Stats());
+
+    final byte[] body = new byte[4096];
+    new Random(4).nextBytes(body);
+
+    assertArrayEquals(body, receiver.decode(sender.encode(body)));
+    assertEquals(0, stats.deflatedFrames());
+  }
+
+  @Test
+  public void testPrimingHelpsSmallBodies() throws IOException {
+
+    final double unprimed = sendMessages(false);
+    final double primed = sendMessages(true);
+
+    assertTrue("primed " + primed + " unprimed " + unprimed, primed < unprimed);
+  }
+
+  @Test(expected = IOException.class)
+  public void testMismatchedDictionariesAreDetected() throws IOException {
+
+    final Compression sender = Compression.negotiated(true, new Compression.Stats());
+    final Compression receiver = Compression.negotiated(true, new Compression.Stats());
+
+    // The receiver never sees the first body, so its dictionary is different.
+    sender.encode(text(1000, 5));
+    receiver.decode(sender.encode(text(1000, 6)));
+  }
+
+  @Test
+  public void testHighlyCompressedBodiesAreInflated() throws IOException {
+
+    final Compression sender = Compression.negotiated(false, new Compression.Stats());
+    final Compression receiver = Compression.negotiated(false, new Compression.Stats());
+
+    // Deflates to a tiny fraction of its size, so the body grows many times
+    // while it is inflated.
+    final byte[] body = new byte[1024 * 1024];
+
+    assertArrayEquals(body, receiver.decode(sender.encode(body)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testOversizedLengthIsRejected() throws IOException {
+    Compression.negotiated(false, new Compression.Stats()).decode(deflated(Compression.MAX_BODY_BYTES + 1));
+  }
+
+  @Test(expected = IOException.class)
+  public void testLengthLongerThanBodyIsRejected() throws IOException {
+    Compression.negotiated(false, new Compression.Stats()).decode(deflated(Compression.MAX_BODY_BYTES));
+  }
+
+  // A deflated frame that claims to hold "length" bytes but holds a few.
+  private static byte[] deflated(int length) throws IOException {
+
+    final Compression sender = Compression.negotiated(false, new Compression.Stats());
+    final byte[] encoded = sender.encode(text(1000, 7));
+    assertEquals("deflated", 1, encoded[0]);
+
+    encoded[1] = (byte) (length >>> 24);
+    encoded[2] = (byte) (length >>> 16);
+    encoded[3] = (byte) (length >>> 8);
+    encoded[4] = (byte) length;
+    return encoded;
+  }
+
+  // Send a run of small, similar bodies and return the compression ratio.
+  private static double sendMessages(boolean prime) throws IOException {
+
+    final Compression.Stats stats = new Compression.Stats();
+    final Compression sender = Compression.negotiated(prime, stats);
+    final Compression receiver = Compression.negotiated(prime, new Compression.Stats());
+
+    for (int i = 0; i < 50; i++) {
+      final byte[] body = text(400, i);
+      assertArrayEquals(body, receiver.decode(sender.encode(body)));
+    }
+
+    return stats.ratio();
+  }
+
+  // Text made of a small vocabulary, like chat messages.
+  private static byte[] text(int length, int seed) {
+
+    final String[] words = { "hello", "conversation", "message", "user", "the", "server", "chat" };
+    final Random random = new Random(seed);
+    final StringBuilder builder = new StringBuilder();
+
+    while (builder.length() < length) {
+      builder.append(words[random.nextInt(words.length)]).append(' ');
+    }
+
+    return builder.substring(0, length).getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,174 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import codeu.chat.util.Serializers;
+
+public final class DeadlinesTest {
+
+  private ServerSocket serverSocket;
+  private Socket client;
+
+  @Before
+  public void doBefore() throws IOException {
+    serverSocket = new ServerSocket(0);
+    client = new Socket("localhost", serverSocket.getLocalPort());
+  }
+
+  @After
+  public void doAfter() throws IOException {
+    client.close();
+    serverSocket.close();
+  }
+
+  @Test
+  public void testIdleConnectionIsClosed() throws IOException {
+
+    final Deadlines deadlines = new Deadlines(0, 0, 100);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    try {
+      Serializers.INTEGER.read(connection.in());
+      fail("Nothing was sent.");
+    } catch (SocketTimeoutException ex) {
+      // Expected.
+    }
+
+    assertEquals(1, deadlines.idleTimeouts());
+    assertEquals(0, deadlines.readTimeouts());
+  }
+
+  @Test
+  public void testHalfSentRequestIsClosed() throws IOException {
+
+    final Deadlines deadlines = new Deadlines(100, 0, 0);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    // Half of an integer.
+    client.getOutputStream().write(new byte[] { 0, 0 });
+
+    try {
+      Serializers.INTEGER.read(connection.in());
+      fail("The request was never finished.");
+    } catch (SocketTimeoutException ex) {
+      // Expected.
+    }
+
+    assertEquals(1, deadlines.readTimeouts());
+    assertEquals(0, deadlines.idleTimeouts());
+  }
+
+  @Test
+  public void testSlowButSteadyRequestIsRead() throws Exception {
+
+    final Deadlines deadlines = new Deadlines(1000, 0, 1000);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    final Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          final OutputStream out = client.getOutputStream();
+          for (int i = 0; i < 4; i++) {
+            Thread.sleep(50);
+            out.write(i == 3 ? 7 : 0);
+          }
+        } catch (Exception ex) {
+          // The read below will fail.
+        }
+      }
+    });
+    sender.start();
+
+    assertEquals(7, (int) Serializers.INTEGER.read(connection.in()));
+    sender.join();
+  }
+
+  @Test
+  public void testLiftedConnectionMayIdle() throws Exception {
+
+    final Deadlines deadlines = new Deadlines(100, 0, 100);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    Deadlines.lift(connection);
+
+    final Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(300);
+          Serializers.INTEGER.write(client.getOutputStream(), 42);
+        } catch (Exception ex) {
+          // The read below will fail.
+        }
+      }
+    });
+    sender.start();
+
+    assertEquals(42, (int) Serializers.INTEGER.read(connection.in()));
+    sender.join();
+
+    assertEquals(0, deadlines.idleTimeouts());
+  }
+
+  @Test
+  public void testStalledWriteIsClosed() throws IOException {
+
+    final Deadlines deadlines = new Deadlines(0, 100, 0);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    // The client never reads, so the socket buffers fill up and the write
+    // blocks until the deadline closes the connection.
+    final byte[] chunk = new byte[64 * 1024];
+    try {
+      for (int i = 0; i < 4096; i++) {
+        connection.out().write(chunk);
+      }
+      fail("Everything was written to a client that never reads.");
+    } catch (IOException ex) {
+      // Expected.
+    }
+
+    assertEquals(1, deadlines.writeTimeouts());
+  }
+
+  @Test
+  public void testFinishedWritesLeaveNoWatches() throws IOException {
+
+    final Deadlines deadlines = new Deadlines(0, 60000, 0);
+    final Connection connection = new SocketConnection(serverSocket.accept(), deadlines);
+
+    final int before = Deadlines.pendingWatches();
+    for (int i = 0; i < 1000; i++) {
+      Serializers.INTEGER.write(connection.out(), i);
+      connection.out().flush();
+    }
+
+    // Each write was watched, but none of them is still queued for a minute.
+    assertEquals(before, Deadlines.pendingWatches());
+    assertEquals(0, deadlines.writeTimeouts());
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class PooledConnectionSourceTest {
+
+  private static final int OPEN_REQUEST = -1;
+  private static final int OPEN_RESPONSE = -2;
+
+  // Asking the server to add this drops the connection instead.
+  private static final int HANG_UP = -3;
+
+  // Asking the server to add this counts it in "recorded" instead.
+  private static final int RECORD = -4;
+
+  private Reactor reactor;
+  private Thread thread;
+
+  private final AtomicInteger sessions = new AtomicInteger();
+  private final AtomicInteger recorded = new AtomicInteger();
+
+  @Before
+  public void doBefore() throws IOException {
+
+    // Opens sessions and answers requests to add two integers.
+    reactor = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        try {
+          final int a = Serializers.INTEGER.read(request.in());
+          if (a == OPEN_REQUEST) {
+            sessions.incrementAndGet();
+            Serializers.INTEGER.write(request.out(), OPEN_RESPONSE);
+            request.openSession();
+          } else if (a == HANG_UP) {
+            request.close();
+          } else if (a == RECORD) {
+            recorded.incrementAndGet();
+            Serializers.INTEGER.write(request.out(), RECORD);
+            request.respond();
+          } else {
+            final int b = Serializers.INTEGER.read(request.in());
+            Serializers.INTEGER.write(request.out(), a + b);
+            request.respond();
+          }
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    });
+
+    thread = new Thread() {
+      @Override
+      public void run() { reactor.run(); }
+    };
+    thread.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    reactor.close();
+    thread.join();
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+
+    final PooledConnectionSource pool = newPool(4, 60000);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i + 1, add(pool, i, 1));
+    }
+
+    // One request had to open a socket and every other reused it.
+    assertEquals(1, sessions.get());
+    assertEquals(1, pool.misses());
+    assertEquals(9, pool.hits());
+    assertTrue(pool.toString().startsWith("9 hits, 1 misses"));
+
+    pool.close();
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+
+    final PooledConnectionSource pool = newPool(2, 60000);
+
+    final Thread[] threads = new Thread[8];
+    final AtomicInteger failures = new AtomicInteger();
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              if (add(pool, j, 2) != j + 2) {
+                failures.incrementAndGet();
+              }
+            }
+          } catch (IOException ex) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, failures.get());
+    assertTrue(sessions.get() <= 2);
+    assertEquals(160, pool.hits() + pool.misses());
+
+    pool.close();
+  }
+
+  @Test
+  public void testIdleTimeout() throws Exception {
+
+    final PooledConnectionSource pool = newPool(4, 50);
+
+    assertEquals(3, add(pool, 1, 2));
+    Thread.sleep(100);
+    assertEquals(3, add(pool, 1, 2));
+
+    // The first socket timed out and was replaced.
+    assertEquals(2, sessions.get());
+    assertEquals(1, pool.discarded());
+
+    pool.close();
+  }
+
+  @Test
+  public void testBrokenConnectionIsNotReused() throws IOException {
+
+    final PooledConnectionSource pool = newPool(4, 60000);
+
+    assertEquals(3, add(pool, 1, 2));
+
+    try (final Connection connection = pool.connect()) {
+      Serializers.INTEGER.write(connection.out(), HANG_UP);
+      Serializers.INTEGER.read(connection.in());
+      fail("The server should have dropped the connection");
+    } catch (IOException ex) {
+      // Expected.
+    }
+
+    assertEquals(3, add(pool, 1, 2));
+    assertEquals(2, sessions.get());
+
+    pool.close();
+  }
+
+  @Test
+  public void testUnreadRequestIsSent() throws Exception {
+
+    final PooledConnectionSource pool = newPool(1, 60000);
+
+    // Written and closed without ever reading the response.
+    try (final Connection connection = pool.connect()) {
+      Serializers.INTEGER.write(connection.out(), RECORD);
+    }
+
+    final long deadline = System.currentTimeMillis() + 10000;
+    while (recorded.get() == 0) {
+      assertTrue("The request was never sent.", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+
+    // The socket went back to the pool all the same.
+    assertEquals(3, add(pool, 1, 2));
+    assertEquals(1, sessions.get());
+
+    pool.close();
+  }
+
+  private PooledConnectionSource newPool(int maxSize, long idleTimeoutMs) {
+    return new PooledConnectionSource(
+        new ClientConnectionSource("localhost", reactor.port()),
+        OPEN_REQUEST,
+        OPEN_RESPONSE,
+        maxSize,
+        idleTimeoutMs);
+  }
+
+  private static int add(PooledConnectionSource pool, int a, int b) throws IOException {
+    try (final Connection connection = pool.connect()) {
+      Serializers.INTEGER.write(connection.out(), a);
+      Serializers.INTEGER.write(connection.out(), b);
+      return Serializers.INTEGER.read(connection.in());
+    }
+  }
+}
@@ -0,0 +1,273 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class ReactorTest {
+
+  private Reactor reactor;
+  private Thread thread;
+
+  @Before
+  public void doBefore() throws IOException {
+
+    // Reads two integers and responds with their sum. All the work is done on
+    // the reactor thread, which is fine for a test.
+    reactor = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        try {
+          final int a = Serializers.INTEGER.read(request.in());
+          final int b = Serializers.INTEGER.read(request.in());
+          Serializers.INTEGER.write(request.out(), a + b);
+          request.respond();
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    });
+
+    thread = new Thread() {
+      @Override
+      public void run() { reactor.run(); }
+    };
+    thread.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    reactor.close();
+    thread.join();
+  }
+
+  @Test
+  public void testWholeRequest() throws IOException {
+    try (final Socket socket = new Socket("localhost", reactor.port())) {
+      Serializers.INTEGER.write(socket.getOutputStream(), 3);
+      Serializers.INTEGER.write(socket.getOutputStream(), 4);
+      assertEquals(7, (int) Serializers.INTEGER.read(socket.getInputStream()));
+    }
+  }
+
+  @Test
+  public void testSplitRequest() throws Exception {
+    try (final Socket socket = new Socket("localhost", reactor.port())) {
+      final OutputStream out = socket.getOutputStream();
+
+      out.write(new byte[] { 0, 0, 0, 3, 0, 0 });
+      out.flush();
+      Thread.sleep(50);
+      out.write(new byte[] { 0, 4 });
+      out.flush();
+
+      assertEquals(7, (int) Serializers.INTEGER.read(socket.getInputStream()));
+    }
+  }
+
+  @Test
+  public void testStalledClientDoesNotBlockOthers() throws IOException {
+    try (final Socket stalled = new Socket("localhost", reactor.port());
+         final Socket socket = new Socket("localhost", reactor.port())) {
+
+      // Send half a request and never finish it.
+      stalled.getOutputStream().write(new byte[] { 0, 0, 0, 1 });
+      stalled.getOutputStream().flush();
+
+      Serializers.INTEGER.write(socket.getOutputStream(), 10);
+      Serializers.INTEGER.write(socket.getOutputStream(), 20);
+      assertEquals(30, (int) Serializers.INTEGER.read(socket.getInputStream()));
+    }
+  }
+
+  @Test
+  public void testConnectionClosedAfterResponse() throws IOException {
+    try (final Socket socket = new Socket("localhost", reactor.port())) {
+      Serializers.INTEGER.write(socket.getOutputStream(), 1);
+      Serializers.INTEGER.write(socket.getOutputStream(), 1);
+
+      final InputStream in = socket.getInputStream();
+      assertEquals(2, (int) Serializers.INTEGER.read(in));
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testLargeFieldIsReadOnceItHasArrived() throws Exception {
+
+    final AtomicInteger attempts = new AtomicInteger();
+
+    // Responds with the length of a string, counting every attempt to read it.
+    final Reactor strings = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        attempts.incrementAndGet();
+        try {
+          final String value = Serializers.STRING.read(request.in());
+          Serializers.INTEGER.write(request.out(), value.length());
+          request.respond();
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    });
+
+    final Thread runner = new Thread() {
+      @Override
+      public void run() { strings.run(); }
+    };
+    runner.start();
+
+    final int pieces = 100;
+    final int size = 1000;
+
+    try (final Socket socket = new Socket("localhost", strings.port())) {
+      final OutputStream out = socket.getOutputStream();
+
+      Serializers.INTEGER.write(out, pieces * size);
+      for (int i = 0; i < pieces; i++) {
+        out.write(new byte[size]);
+        out.flush();
+        Thread.sleep(2);
+      }
+
+      assertEquals(pieces * size, (int) Serializers.INTEGER.read(socket.getInputStream()));
+    } finally {
+      strings.close();
+      runner.join();
+    }
+
+    // The reactor waits for as much as the last attempt asked for, and each
+    // attempt asks for at least twice what the one before it read, so the
+    // string is read a few times rather than once for every piece.
+    assertTrue(attempts.get() <= 10);
+  }
+
+  @Test
+  public void testFailingHandlerOnlyCostsItsConnection() throws Exception {
+
+    // Fails as badly as it can for a request of 0 and echoes anything else.
+    final Reactor failing = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        try {
+          final int value = Serializers.INTEGER.read(request.in());
+          if (value == 0) {
+            throw new OutOfMemoryError();
+          }
+          Serializers.INTEGER.write(request.out(), value);
+          request.respond();
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    });
+
+    final Thread runner = new Thread() {
+      @Override
+      public void run() { failing.run(); }
+    };
+    runner.start();
+
+    try {
+      try (final Socket bad = new Socket("localhost", failing.port())) {
+        Serializers.INTEGER.write(bad.getOutputStream(), 0);
+        assertEquals(-1, bad.getInputStream().read());
+      }
+
+      try (final Socket socket = new Socket("localhost", failing.port())) {
+        Serializers.INTEGER.write(socket.getOutputStream(), 5);
+        assertEquals(5, (int) Serializers.INTEGER.read(socket.getInputStream()));
+      }
+    } finally {
+      failing.close();
+      runner.join();
+    }
+  }
+
+  @Test
+  public void testStalledClientsAreTimedOut() throws Exception {
+
+    final Deadlines deadlines = new Deadlines(200, 200, 200);
+
+    // Echoes an integer.
+    final Reactor timed = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(Reactor.Request request) {
+        try {
+          Serializers.INTEGER.write(request.out(), Serializers.INTEGER.read(request.in()));
+          request.respond();
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    }, deadlines);
+
+    final Thread runner = new Thread() {
+      @Override
+      public void run() { timed.run(); }
+    };
+    runner.start();
+
+    try (final Socket idle = new Socket("localhost", timed.port());
+         final Socket partial = new Socket("localhost", timed.port())) {
+
+      // Half a request and never the rest.
+      partial.getOutputStream().write(new byte[] { 0, 0 });
+      partial.getOutputStream().flush();
+
+      // Both are closed without a response...
+      idle.setSoTimeout(5000);
+      partial.setSoTimeout(5000);
+      assertEquals(-1, idle.getInputStream().read());
+      assertEquals(-1, partial.getInputStream().read());
+
+      assertEquals(1, deadlines.idleTimeouts());
+      assertEquals(1, deadlines.readTimeouts());
+
+      // ...while a client that keeps up is still served.
+      final Socket late = new Socket("localhost", timed.port());
+      try {
+        Serializers.INTEGER.write(late.getOutputStream(), 9);
+        assertEquals(9, (int) Serializers.INTEGER.read(late.getInputStream()));
+      } finally {
+        late.close();
+      }
+    } finally {
+      timed.close();
+      runner.join();
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+
+public final class SessionConnectionSourceTest {
+
+  private static final int OPEN_REQUEST = -1;
+  private static final int OPEN_RESPONSE = -2;
+  private static final int NO_SESSIONS = 0;
+  private static final int OPEN_COMPRESSED_REQUEST = -3;
+  private static final int OPEN_COMPRESSED_RESPONSE = -4;
+
+  private Reactor reactor;
+  private Thread thread;
+
+  private final AtomicInteger sessions = new AtomicInteger();
+
+  // Starts a reactor that sums pairs of integers. Each sum is answered from a
+  // thread of its own after a short delay so that responses within a session
+  // come back out of order.
+  private void start(final boolean allowSessions) throws IOException {
+
+    reactor = new Reactor(0, new Reactor.Handler() {
+      @Override
+      public void onRequest(final Reactor.Request request) {
+        try {
+          final int a = Serializers.INTEGER.read(request.in());
+          if (a == OPEN_REQUEST) {
+            if (allowSessions) {
+              sessions.incrementAndGet();
+              Serializers.INTEGER.write(request.out(), OPEN_RESPONSE);
+              request.openSession();
+            } else {
+              Serializers.INTEGER.write(request.out(), NO_SESSIONS);
+              request.respond();
+            }
+            return;
+          }
+          if (a == OPEN_COMPRESSED_REQUEST) {
+            // Refuse like a server that does not know the request.
+            Serializers.INTEGER.write(request.out(), NO_SESSIONS);
+            request.respond();
+            return;
+          }
+          final int b = Serializers.INTEGER.read(request.in());
+          new Thread() {
+            @Override
+            public void run() {
+              try {
+                Thread.sleep(Math.abs(a * 7 % 20));
+                Serializers.INTEGER.write(request.out(), a + b);
+                request.respond();
+              } catch (Exception ex) {
+                request.close();
+              }
+            }
+          }.start();
+        } catch (EOFException ex) {
+          request.incomplete();
+        } catch (IOException ex) {
+          request.close();
+        }
+      }
+    });
+
+    thread = new Thread() {
+      @Override
+      public void run() { reactor.run(); }
+    };
+    thread.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    reactor.close();
+    thread.join();
+  }
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+
+    start(true);
+
+    final SessionConnectionSource source = new SessionConnectionSource(
+        new ClientConnectionSource("localhost", reactor.port()),
+        OPEN_REQUEST,
+        OPEN_RESPONSE);
+
+    final int[] results = sumInParallel(source, 16);
+
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(i + 1000, results[i]);
+    }
+
+    // Every request went over the same connection.
+    assertEquals(1, sessions.get());
+
+    source.close();
+  }
+
+  @Test
+  public void testCompressionRefused() throws Exception {
+
+    start(true);
+
+    final SessionConnectionSource source = new SessionConnectionSource(
+        new ClientConnectionSource("localhost", reactor.port()),
+        OPEN_REQUEST,
+        OPEN_RESPONSE,
+        OPEN_COMPRESSED_REQUEST,
+        OPEN_COMPRESSED_RESPONSE,
+        true);
+
+    final int[] results = sumInParallel(source, 16);
+
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(i + 1000, results[i]);
+    }
+
+    // The server refused compression so a plain session was opened instead.
+    assertEquals(1, sessions.get());
+    assertEquals(0, source.compressionStats().frames());
+
+    source.close();
+  }
+
+  @Test
+  public void testFallbackWithoutSessions() throws Exception {
+
+    start(false);
+
+    final SessionConnectionSource source = new SessionConnectionSource(
+        new ClientConnectionSource("localhost", reactor.port()),
+        OPEN_REQUEST,
+        OPEN_RESPONSE);
+
+    final int[] results = sumInParallel(source, 4);
+
+    for (int i = 0; i < results.length; i++) {
+      assertEquals(i + 1000, results[i]);
+    }
+
+    assertEquals(0, sessions.get());
+
+    source.close();
+  }
+
+  private static int[] sumInParallel(final ConnectionSource source, int count) throws Exception {
+
+    final int[] results = new int[count];
+    final Thread[] threads = new Thread[count];
+
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try (final Connection connection = source.connect()) {
+            Serializers.INTEGER.write(connection.out(), index);
+            Serializers.INTEGER.write(connection.out(), 1000);
+            results[index] = Serializers.INTEGER.read(connection.in());
+          } catch (IOException ex) {
+            results[index] = -1;
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    return results;
+  }
+}
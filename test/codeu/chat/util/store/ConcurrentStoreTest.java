@@ -0,0 +1,169 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderPingPongOrderInsert() {
+
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(3, 30);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+    assertEquals(5, store.size());
+  }
+
+  @Test
+  public void testBeforeAfterAndRange() {
+    store.insert(0, 0);
+    store.insert(1, 10);
+    store.insert(2, 20);
+    store.insert(3, 30);
+    store.insert(4, 40);
+
+    assertOrder(store.before(2), new int[] { 0, 10, 20 });
+    assertOrder(store.after(2), new int[] { 20, 30, 40 });
+    assertOrder(store.range(1, 3), new int[] { 10, 20, 30 });
+
+    // A range that ends before it starts is empty, as it is for Store.
+    assertOrder(store.range(3, 1), new int[] { });
+  }
+
+  @Test
+  public void testAt() {
+    store.insert(0, 0);
+    store.insert(2, 20);
+    store.insert(1, 10);
+    store.insert(2, 21);
+    store.insert(2, 22);
+
+    assertOrder(store.at(2), new int[] { 20, 21, 22 });
+    assertOrder(store.at(3), new int[] { });
+    assertOrder(store.all(), new int[] { 0, 10, 20, 21, 22 });
+    assertTrue(store.first(2) == 20);
+    assertNull(store.first(3));
+  }
+
+  @Test
+  public void testReadersDuringWrites() throws Exception {
+
+    final int count = 20000;
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    // Readers walk the store while values are added and check that what they
+    // see is always in order and never has a gap at the front.
+    final Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (!done.get() && failure.get() == null) {
+            int expected = 0;
+            for (final Integer value : store.all()) {
+              if (value == null || value != expected) {
+                failure.set("Read " + value + " where " + expected + " was expected.");
+                return;
+              }
+              expected += 1;
+            }
+          }
+        }
+      });
+      readers[i].start();
+    }
+
+    for (int i = 0; i < count; i++) {
+      store.insert(i, i);
+    }
+
+    done.set(true);
+    for (final Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(failure.get(), failure.get());
+    assertEquals(count, store.size());
+  }
+
+  @Test
+  public void testWritersToOneKey() throws Exception {
+
+    final int perWriter = 5000;
+    final Thread[] writers = new Thread[4];
+
+    for (int i = 0; i < writers.length; i++) {
+      writers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perWriter; j++) {
+            store.insert(7, j);
+          }
+        }
+      });
+      writers[i].start();
+    }
+
+    for (final Thread writer : writers) {
+      writer.join();
+    }
+
+    int seen = 0;
+    for (final Integer value : store.at(7)) {
+      seen += 1;
+    }
+
+    assertEquals(writers.length * perWriter, seen);
+    assertEquals(writers.length * perWriter, store.size());
+  }
+
+  private static void assertOrder(Iterable<Integer> actual, int[] expected) {
+
+    int at = 0;
+
+    for (final Integer i : actual) {
+      assertTrue(i == expected[at]);
+      at += 1;
+    }
+
+    assertTrue(at == expected.length);
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+
+// STORE BENCHMARK
+//
+// Times inserts into a store when every value shares one key - as messages
+// made in the same millisecond, or with the same text, do - and when every
+// key is different. With a run per key both cost about the same; before,
+// each duplicate walked past all the values already under its key, so the
+// first case grew with the square of the count. It is not a test and is not
+// run by TestRunner; run it by hand with:
+//
+//   java -cp bin codeu.chat.util.store.StoreBenchmark
+public final class StoreBenchmark {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  private static final int[] COUNTS = { 1000, 10000, 100000 };
+
+  // Each row is the best of this many rounds, to leave out rounds that
+  // mostly measured the garbage collector.
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+
+    // Warm up so the first row is not mostly compiling.
+    run(10000, true);
+    run(10000, false);
+
+    System.out.format("%10s %16s %16s%n", "values", "same key ns/op", "unique key ns/op");
+
+    for (final int count : COUNTS) {
+      System.out.format("%10d %16.1f %16.1f%n", count, run(count, true), run(count, false));
+    }
+  }
+
+  // The average time of one insert, in nanoseconds.
+  private static double run(int count, boolean sameKey) {
+
+    long best = Long.MAX_VALUE;
+
+    for (int round = 0; round < ROUNDS; round++) {
+
+      final Store<Integer, Integer> store = new Store<>(COMPARATOR);
+
+      final long start = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        store.insert(sameKey ? 0 : i, i);
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+
+    return (double) best / count;
+  }
+}
@@ -123,6 +123,58 @@ public final class StoreTest {
     assertOrder(store.at(2), order);
   }
 
+  @Test
+  public void testAtMissing() {
+    store.insert(1, 10);
+    store.insert(3, 30);
+
+    final int[] order = { };
+    assertOrder(store.at(0), order);
+    assertOrder(store.at(2), order);
+    assertOrder(store.at(4), order);
+  }
+
+  @Test
+  public void testManyDuplicatesKeepInsertOrder() {
+
+    // Values under one key stay in the order they were added, however they
+    // are interleaved with other keys.
+    for (int i = 0; i < 1000; i++) {
+      store.insert(1, 1000 + i);
+      store.insert(i % 2 == 0 ? 0 : 2, i);
+    }
+
+    final int[] zeros = new int[500];
+    final int[] ones = new int[1000];
+    final int[] twos = new int[500];
+    for (int i = 0; i < 500; i++) {
+      zeros[i] = 2 * i;
+      twos[i] = 2 * i + 1;
+    }
+    for (int i = 0; i < 1000; i++) {
+      ones[i] = 1000 + i;
+    }
+
+    assertEquals(2000, store.size());
+    assertTrue(store.first(1) == 1000);
+    assertOrder(store.at(0), zeros);
+    assertOrder(store.at(1), ones);
+    assertOrder(store.after(2), twos);
+  }
+
+  @Test
+  public void testSize() {
+
+    assertEquals(0, store.size());
+
+    store.insert(1, 10);
+    store.insert(0, 0);
+    store.insert(1, 11);
+
+    // Values that share a key are each counted.
+    assertEquals(3, store.size());
+  }
+
   @Test
   public void testFirst() {
     store.insert(0, 0);
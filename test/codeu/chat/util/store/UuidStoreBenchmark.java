@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import codeu.chat.util.Uuid;
+
+// UUID STORE BENCHMARK
+//
+// Times "first" on a store of server-made ids - a shared root and a random
+// last link - through an ordered Store and through a UuidStore. It is not a
+// test and is not run by TestRunner; run it by hand with:
+//
+//   java -cp bin codeu.chat.util.store.UuidStoreBenchmark
+public final class UuidStoreBenchmark {
+
+  // The same order Model uses.
+  private static final Comparator<Uuid> COMPARATOR = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) {
+      if (a == b) { return 0; }
+      if (a == null) { return -1; }
+      if (b == null) { return 1; }
+      final int order = Integer.compare(a.id(), b.id());
+      return order == 0 ? compare(a.root(), b.root()) : order;
+    }
+  };
+
+  private static final int[] COUNTS = { 1000, 100000, 1000000 };
+  private static final int LOOKUPS = 2000000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+
+    System.out.format("%10s %14s %16s%n", "values", "Store ns/op", "UuidStore ns/op");
+
+    for (final int count : COUNTS) {
+
+      final Uuid root = new Uuid(0x5EED);
+      final Random random = new Random(count);
+      final Uuid[] ids = new Uuid[count];
+
+      final Store<Uuid, Uuid> ordered = new Store<>(COMPARATOR);
+      final UuidStore<Uuid> hashed = new UuidStore<>();
+
+      for (int i = 0; i < count; i++) {
+        ids[i] = new Uuid(root, random.nextInt());
+        ordered.insert(ids[i], ids[i]);
+        hashed.insert(ids[i], ids[i]);
+      }
+
+      System.out.format("%10d %14.1f %16.1f%n", count, time(ordered, ids), time(hashed, ids));
+    }
+  }
+
+  // The best average time of one lookup over a few rounds, in nanoseconds.
+  private static double time(LookupAccessor<Uuid, Uuid> store, Uuid[] ids) {
+
+    long best = Long.MAX_VALUE;
+    int found = 0;
+
+    for (int round = 0; round < ROUNDS; round++) {
+      final long start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        // Copies, as lookups from requests never hold the stored instance.
+        final Uuid id = ids[(int) ((i * 2654435761L) % ids.length)];
+        if (store.first(new Uuid(id.root(), id.id())) != null) {
+          found += 1;
+        }
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+
+    if (found != ROUNDS * LOOKUPS) {
+      throw new IllegalStateException("Lost " + (ROUNDS * LOOKUPS - found) + " values.");
+    }
+
+    return (double) best / LOOKUPS;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Uuid;
+
+public final class UuidStoreTest {
+
+  private static final Comparator<Uuid> COMPARATOR = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) { return Integer.compare(a.id(), b.id()); }
+  };
+
+  private static final Uuid ROOT = new Uuid(7);
+
+  @Test
+  public void testLookupsAfterGrowing() {
+
+    final UuidStore<Integer> store = new UuidStore<>();
+
+    for (int i = 0; i < 10000; i++) {
+      store.insert(new Uuid(ROOT, i), i);
+    }
+
+    assertEquals(10000, store.size());
+    for (int i = 0; i < 10000; i++) {
+      // A different instance with the same value finds the same entry.
+      assertEquals(i, (int) store.first(new Uuid(new Uuid(7), i)));
+    }
+
+    assertNull(store.first(new Uuid(ROOT, 10000)));
+    assertNull(store.first(new Uuid(new Uuid(8), 5)));
+    assertNull(store.first(new Uuid(5)));
+  }
+
+  @Test
+  public void testChainsThatShareLinks() {
+
+    final UuidStore<String> store = new UuidStore<>();
+
+    // The same links in a different order are different ids.
+    store.insert(new Uuid(new Uuid(1), 2), "1.2");
+    store.insert(new Uuid(new Uuid(2), 1), "2.1");
+    store.insert(new Uuid(new Uuid(new Uuid(1), 2), 3), "1.2.3");
+
+    assertEquals("1.2", store.first(new Uuid(new Uuid(1), 2)));
+    assertEquals("2.1", store.first(new Uuid(new Uuid(2), 1)));
+    assertEquals("1.2.3", store.first(new Uuid(new Uuid(new Uuid(1), 2), 3)));
+    assertNull(store.first(new Uuid(2)));
+  }
+
+  @Test
+  public void testFirstValueIsKept() {
+
+    final UuidStore<Integer> store = new UuidStore<>();
+    final Uuid id = new Uuid(ROOT, 1);
+
+    store.insert(id, 1);
+    store.insert(id, 2);
+
+    assertEquals(1, (int) store.first(id));
+    final Iterator<Integer> at = store.at(id).iterator();
+    assertEquals(1, (int) at.next());
+    assertFalse(at.hasNext());
+  }
+
+  @Test
+  public void testOrderedReadsGoToTheOrderedStore() {
+
+    final OrderedUuidStore<Integer> store =
+        new OrderedUuidStore<>(new Store<Uuid, Integer>(COMPARATOR));
+
+    store.insert(new Uuid(ROOT, 3), 3);
+    store.insert(new Uuid(ROOT, 1), 1);
+    store.insert(new Uuid(ROOT, 2), 2);
+
+    int expected = 1;
+    for (final Integer value : store.all()) {
+      assertEquals(expected, (int) value);
+      expected += 1;
+    }
+    assertEquals(4, expected);
+
+    assertEquals(3, (int) store.after(new Uuid(ROOT, 3)).iterator().next());
+    assertEquals(2, (int) store.first(new Uuid(ROOT, 2)));
+  }
+
+  @Test
+  public void testReadersDuringWrites() throws Exception {
+
+    final UuidStore<Integer> store = new UuidStore<>();
+    final int count = 50000;
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> failure = new AtomicReference<>();
+
+    // Values are added in order, so once a reader has found one every value
+    // before it must be there too - even while the table is being grown.
+    final Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (!done.get() && failure.get() == null) {
+          int found = 0;
+          while (store.first(new Uuid(ROOT, found)) != null) {
+            found += 1;
+          }
+          for (int i = 0; i < found; i++) {
+            final Integer value = store.first(new Uuid(ROOT, i));
+            if (value == null || value != i) {
+              failure.set("Read " + value + " for " + i);
+              return;
+            }
+          }
+        }
+      }
+    });
+    reader.start();
+
+    for (int i = 0; i < count; i++) {
+      store.insert(new Uuid(ROOT, i), i);
+    }
+
+    done.set(true);
+    reader.join();
+
+    assertNull(failure.get(), failure.get());
+  }
+}